@@ -0,0 +1,161 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * Standalone ZooKeeper server running in the benchmark JVM, on a free port of
+ * the loopback interface, with its data in a temporary directory deleted on
+ * shutdown.
+ * <p>
+ * Large parents need a larger <code>jute.maxbuffer</code> than the default
+ * 1 MiB, which must be set on the command line as it is read once per JVM.
+ * </p>
+ * <p>
+ * Run as a program, see {@link #main(String[])}, it serves a tree for a
+ * benchmark running in another JVM.
+ * </p>
+ */
+public final class EmbeddedZooKeeper {
+    /** Prefix of the line printed once the server is filled. */
+    static final String READY = "ready ";
+
+    /**
+     * Number of nodes of an empty server: the root, <code>/zookeeper</code>,
+     * <code>/zookeeper/quota</code> and <code>/zookeeper/config</code>.
+     */
+    public static final int BUILTIN_NODES = 4;
+
+    private static final int TICK_TIME = 2000;
+
+    private final File dir;
+    private final ServerCnxnFactory factory;
+
+    /**
+     * Starts a server.
+     * 
+     * @throws IOException
+     *             if the server couldn't be started
+     */
+    public EmbeddedZooKeeper() throws IOException, InterruptedException {
+        this.dir = File.createTempFile("zooviewer-zk", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Can't create " + dir);
+        }
+        ZooKeeperServer server = new ZooKeeperServer(dir, dir, TICK_TIME);
+        // No limit on the number of connections per client address
+        this.factory = ServerCnxnFactory.createFactory(new InetSocketAddress(
+                "127.0.0.1", 0), 0);
+        this.factory.startup(server);
+    }
+
+    /**
+     * Returns the connection string of this server.
+     * 
+     * @return the connection string
+     */
+    public String getConnectString() {
+        return "127.0.0.1:" + factory.getLocalPort();
+    }
+
+    /**
+     * Opens a session and waits until it is connected.
+     * 
+     * @return the session
+     * @throws IOException
+     *             if the session couldn't be opened
+     */
+    public ZooKeeper connect() throws IOException, InterruptedException {
+        final CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper zk = new ZooKeeper(getConnectString(), 30000, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getState() == Event.KeeperState.SyncConnected) {
+                    connected.countDown();
+                }
+            }
+        });
+        connected.await();
+        return zk;
+    }
+
+    /**
+     * Fills this server with the nodes of a tree.
+     * 
+     * @param shape
+     *            the tree
+     */
+    public void fill(TreeShape shape) throws Exception {
+        ZooKeeper zk = connect();
+        try {
+            shape.create(zk, 1000);
+        } finally {
+            zk.close();
+        }
+    }
+
+    /**
+     * Starts a server filled with a tree, and prints its connection string
+     * after {@link #READY}. The server is stopped when the standard input is
+     * closed.
+     * <p>
+     * Usage: <code>EmbeddedZooKeeper shape</code>, see {@link TreeShape}.
+     * </p>
+     */
+    public static void main(String[] args) throws Exception {
+        EmbeddedZooKeeper server = new EmbeddedZooKeeper();
+        try {
+            server.fill(TreeShape.parse(args[0]));
+            System.out.println(READY + server.getConnectString());
+            System.out.flush();
+            while (System.in.read() >= 0) {
+                // Until the benchmark closes the pipe, or exits
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Stops this server and deletes its data.
+     */
+    public void shutdown() {
+        // Shuts down the server as well
+        factory.shutdown();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            System.err.println("Can't delete " + file);
+        }
+    }
+}
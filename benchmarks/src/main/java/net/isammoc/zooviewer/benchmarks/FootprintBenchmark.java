@@ -0,0 +1,110 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.isammoc.zooviewer.model.ZVCompactStore;
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Measures the heap retained per node by the {@link ZVNodeImpl} graph used by
+ * the model, and by a {@link ZVCompactStore}, for the same tree.
+ * <p>
+ * Usage: <code>FootprintBenchmark [nodes] [fanout]</code>, by default a
+ * million nodes with a hundred children per parent. Every node has a unique
+ * name and a stat, and no data, so that only the metadata is measured.
+ * </p>
+ */
+public class FootprintBenchmark {
+    private static final int DEFAULT_NODES = 1000000;
+    private static final int DEFAULT_FANOUT = 100;
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_NODES;
+        int fanout = args.length > 1 ? Integer.parseInt(args[1])
+                : DEFAULT_FANOUT;
+
+        long before = HeapUsage.retained();
+        Map<String, ZVNodeImpl> graph = buildGraph(nodes, fanout);
+        long graphBytes = HeapUsage.retained() - before;
+        // Reading the structures after the measure keeps them reachable
+        report("ZVNodeImpl graph", graph.size() - 1, graphBytes);
+        graph = null;
+
+        before = HeapUsage.retained();
+        ZVCompactStore store = buildStore(nodes, fanout);
+        long storeBytes = HeapUsage.retained() - before;
+        report("ZVCompactStore", store.size() - 1, storeBytes);
+
+        System.out.printf("Ratio: %.1fx%n", (double) graphBytes / storeBytes);
+    }
+
+    /**
+     * Builds the nodes the way the model stores them: a path index and
+     * parent-linked nodes holding their child lists.
+     */
+    private static Map<String, ZVNodeImpl> buildGraph(int count, int fanout) {
+        Map<String, ZVNodeImpl> index = new ConcurrentHashMap<String, ZVNodeImpl>();
+        ZVNodeImpl root = new ZVNodeImpl("/", null);
+        index.put("/", root);
+        List<ZVNodeImpl> parents = new ArrayList<ZVNodeImpl>();
+        parents.add(root);
+        int created = 0;
+        for (int p = 0; created < count; p++) {
+            ZVNodeImpl parent = parents.get(p);
+            List<ZVNodeImpl> batch = new ArrayList<ZVNodeImpl>(fanout);
+            for (int i = 0; (i < fanout) && (created < count); i++) {
+                ZVNodeImpl node = new ZVNodeImpl(parent, "node-" + created);
+                node.setStat(stat(created++));
+                node.setExists(true);
+                index.put(node.getPath(), node);
+                batch.add(node);
+                parents.add(node);
+            }
+            parent.setChildren(parent.getChildren().with(batch));
+        }
+        parents = null;
+        return index;
+    }
+
+    private static ZVCompactStore buildStore(int count, int fanout) {
+        ZVCompactStore store = new ZVCompactStore(count + 1);
+        int created = 0;
+        for (int parent = ZVCompactStore.ROOT; created < count; parent++) {
+            for (int i = 0; (i < fanout) && (created < count); i++) {
+                store.add(parent, "node-" + created, null, stat(created++));
+            }
+        }
+        return store;
+    }
+
+    private static Stat stat(int i) {
+        long zxid = 0x100000000L + i;
+        long time = 1280000000000L + i;
+        return new Stat(zxid, zxid, time, time, 0, 0, 0, 0, 0, 0, zxid);
+    }
+
+    private static void report(String name, int nodes, long bytes) {
+        System.out.printf("%-20s %,d nodes, %,d bytes, %d bytes/node%n", name,
+                nodes, bytes, bytes / nodes);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ZooKeeper server filled with a tree in a JVM of its own, so that the heap
+ * measured by a benchmark is the client's only.
+ * <p>
+ * The server JVM runs {@link EmbeddedZooKeeper#main(String[])} with the class
+ * path of this JVM, and the ZooKeeper system properties set on this JVM. Its
+ * maximum heap is {@link #HEAP_PROPERTY}, 4 GiB by default.
+ * </p>
+ */
+final class ForkedZooKeeper {
+    /** System property defining the maximum heap of the server JVM. */
+    static final String HEAP_PROPERTY = "zooviewer.benchmark.serverHeap";
+
+    private static final String DEFAULT_HEAP = "4g";
+    private static final String[] FORWARDED_PROPERTIES = { "jute.maxbuffer",
+            "zookeeper.forceSync" };
+
+    private final Process process;
+    private final String connectString;
+
+    /**
+     * Starts a server JVM and waits until the tree is created.
+     * 
+     * @param shape
+     *            the tree
+     * @throws IOException
+     *             if the server JVM couldn't be started, or exited
+     */
+    ForkedZooKeeper(TreeShape shape) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"),
+                "java").getPath());
+        command.add("-Xmx" + System.getProperty(HEAP_PROPERTY, DEFAULT_HEAP));
+        for (String name : FORWARDED_PROPERTIES) {
+            String value = System.getProperty(name);
+            if (value != null) {
+                command.add("-D" + name + "=" + value);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(EmbeddedZooKeeper.class.getName());
+        command.add(shape.toString());
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        this.process = builder.start();
+
+        final BufferedReader out = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), "UTF-8"));
+        String line = out.readLine();
+        while ((line != null) && !line.startsWith(EmbeddedZooKeeper.READY)) {
+            System.out.println(line);
+            line = out.readLine();
+        }
+        if (line == null) {
+            throw new IOException("Server JVM exited before being ready");
+        }
+        this.connectString = line.substring(EmbeddedZooKeeper.READY.length());
+
+        // The server logs would fill the pipe otherwise
+        Thread drain = new Thread("server output") {
+            @Override
+            public void run() {
+                try {
+                    for (String next = out.readLine(); next != null; next = out
+                            .readLine()) {
+                        System.out.println(next);
+                    }
+                } catch (IOException e) {
+                    // The server JVM is gone
+                }
+            }
+        };
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    /**
+     * Returns the connection string of the server.
+     * 
+     * @return the connection string
+     */
+    String getConnectString() {
+        return connectString;
+    }
+
+    /**
+     * Stops the server JVM, which deletes the data of the server.
+     */
+    void shutdown() throws InterruptedException {
+        try {
+            process.getOutputStream().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        process.waitFor();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.isammoc.zooviewer.model.ZVModelConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the full population of a {@link net.isammoc.zooviewer.model.ZVModelImpl}
+ * from an in-process ZooKeeper server, from the constructor call until every
+ * node has been created in the model.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 2, jvmArgsAppend = { "-Xmx2g", "-Djute.maxbuffer=16777216",
+        "-Dzookeeper.forceSync=no" })
+@State(Scope.Benchmark)
+public class ModelPopulationBenchmark {
+    /** Tree shapes: wide, balanced, deep chains, and mixed data sizes. */
+    @Param({ "10000", "20x20x20", "10x1^49", "20x20@0,1024,16384" })
+    public String shape;
+
+    /** Number of requests in flight. */
+    @Param({ "500" })
+    public int loadWindow;
+
+    private EmbeddedZooKeeper server;
+    private TreeShape tree;
+    private TimedModel model;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        tree = TreeShape.parse(shape);
+        server = new EmbeddedZooKeeper();
+        server.fill(tree);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeModel() throws InterruptedException {
+        if (model != null) {
+            model.close();
+            model = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.shutdown();
+    }
+
+    @Benchmark
+    public Object populate() throws Exception {
+        ZVModelConfig config = new ZVModelConfig();
+        config.setLazy(false);
+        config.setLoadWindow(loadWindow);
+        model = new TimedModel(server.getConnectString(), config);
+        model.awaitCreated(tree.getNodeCount()
+                + EmbeddedZooKeeper.BUILTIN_NODES);
+        return model;
+    }
+}
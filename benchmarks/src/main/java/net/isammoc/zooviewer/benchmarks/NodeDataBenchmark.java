@@ -0,0 +1,103 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+
+import org.apache.zookeeper.data.Stat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the updates and the reads of the data of a {@link ZVNodeImpl}, at
+ * several data sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class NodeDataBenchmark {
+    /** Data size, in bytes. */
+    @Param({ "0", "1024", "65536", "1048576" })
+    public int size;
+
+    private ZVNodeImpl node;
+    private byte[] data;
+    private long version;
+
+    @Setup
+    public void createNode() {
+        ZVNodeImpl root = new ZVNodeImpl("/", null);
+        node = new ZVNodeImpl(root, "node");
+        node.setExists(true);
+        data = new byte[size];
+        node.update(data, stat(++version));
+    }
+
+    /**
+     * Updates the node with a new version of its data, as done for each
+     * change read by the model.
+     */
+    @Benchmark
+    public Object update() {
+        node.update(data, stat(++version));
+        return node.getSnapshot();
+    }
+
+    /**
+     * Updates the node with the version it already holds, as done when its
+     * stat is read again.
+     */
+    @Benchmark
+    public Object updateUnchanged() {
+        node.update(data, stat(version));
+        return node.getSnapshot();
+    }
+
+    /**
+     * Reads a copy of the data.
+     */
+    @Benchmark
+    public byte[] getData() {
+        return node.getData();
+    }
+
+    /**
+     * Reads the data without copy.
+     */
+    @Benchmark
+    public ByteBuffer getSnapshotData() {
+        return node.getSnapshot().getData();
+    }
+
+    private Stat stat(long i) {
+        long zxid = 0x100000000L + i;
+        return new Stat(zxid, zxid, 0, 0, (int) i, 0, 0, 0, size, 0, zxid);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.awt.Component;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JTree;
+
+import net.isammoc.zooviewer.node.ZVNode;
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+import net.isammoc.zooviewer.tree.ZVLabelCache;
+import net.isammoc.zooviewer.tree.ZVTreeCellRenderer;
+import net.isammoc.zooviewer.tree.ZVTreeModel;
+
+import org.apache.zookeeper.data.Stat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the rendering of the tree rows by {@link ZVTreeCellRenderer},
+ * cycling through the children of the root.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class RendererBenchmark {
+    /** Tree shape, the rows being the children of the root. */
+    @Param({ "1000@16,256,4096" })
+    public String shape;
+
+    private JTree tree;
+    private ZVTreeCellRenderer renderer;
+    private ZVNode[] rows;
+    private byte[][] data;
+    private int next = 0;
+    private long version = Integer.MAX_VALUE;
+
+    @Setup
+    public void buildTree() throws Exception {
+        Map<String, ZVNodeImpl> nodes = TreeShape.parse(shape).build();
+        StaticModel model = new StaticModel(nodes);
+        tree = new JTree(new ZVTreeModel(model));
+        renderer = new ZVTreeCellRenderer(new ZVLabelCache());
+        rows = nodes.get("/").getChildren().toArray(new ZVNode[0]);
+        data = new byte[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            data[i] = rows[i].getData();
+        }
+    }
+
+    /**
+     * Renders a row whose label is cached.
+     */
+    @Benchmark
+    public Component render() {
+        int row = next++ % rows.length;
+        return renderer.getTreeCellRendererComponent(tree, rows[row], false,
+                false, true, row, false);
+    }
+
+    /**
+     * Renders a row whose data changed since it was last rendered.
+     */
+    @Benchmark
+    public Component renderChanged() {
+        int row = next++ % rows.length;
+        ZVNodeImpl node = (ZVNodeImpl) rows[row];
+        long zxid = ++version;
+        node.update(data[row], new Stat(zxid, zxid, 0, 0, 0, 0, 0, 0,
+                data[row].length, 0, zxid));
+        return renderer.getTreeCellRendererComponent(tree, node, false,
+                false, true, row, false);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import net.isammoc.zooviewer.model.ZVLatencySummary;
+import net.isammoc.zooviewer.model.ZVModelConfig;
+import net.isammoc.zooviewer.model.ZVModelImpl;
+
+/**
+ * Measures the loading of a {@link ZVModelImpl} end to end, from a ZooKeeper
+ * server filled with generated trees. The server runs in a JVM of its own, see
+ * {@link ForkedZooKeeper}, so that the heap measured is the model's only.
+ * <p>
+ * Usage: <code>ScaleBenchmark [runs] [shape...]</code>, see {@link TreeShape}
+ * for the shapes. By default, each of these shapes is loaded three times:
+ * <ul>
+ * <li><code>100x100x100</code>: a million nodes,</li>
+ * <li><code>100000</code>: a parent with a hundred thousand children,</li>
+ * <li><code>1000x1^49</code>: a thousand chains fifty nodes deep,</li>
+ * <li><code>100x100@0,128,1024,16384</code>: mixed data sizes.</li>
+ * </ul>
+ * The model options are read from the system properties, see
+ * {@link ZVModelConfig#fromSystemProperties()}, but the whole tree is always
+ * loaded. Wide parents need a larger <code>jute.maxbuffer</code>, and the
+ * server is much faster with <code>zookeeper.forceSync=no</code>:
+ * </p>
+ * 
+ * <pre>
+ * java -Xmx8g -Djute.maxbuffer=16777216 -Dzookeeper.forceSync=no \
+ *     -cp benchmarks/target/benchmarks.jar \
+ *     net.isammoc.zooviewer.benchmarks.ScaleBenchmark
+ * </pre>
+ * <p>
+ * For each run, it reports:
+ * <ul>
+ * <li>the time to connect the session of the model,</li>
+ * <li>the time to the creation of the root in the model, notified by the
+ * constructor,</li>
+ * <li>the time to the creation of the last node,</li>
+ * <li>the peak heap of the benchmark JVM during the load,</li>
+ * <li>the heap retained by the model once loaded, per node.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * With a cache file, see {@link ZVModelConfig#CACHE_FILE_PROPERTY}, each
+ * cold run saves the tree, and is followed by a warm start from it. The warm
+ * start reports the time until the cached tree is shown, the time until it
+ * is reconciled with the server, and the number of requests made to do so.
+ * Without {@link ZVModelConfig#CACHE_DATA_PROPERTY}, the data of every node
+ * is read again.
+ * </p>
+ */
+public class ScaleBenchmark {
+    private static final int DEFAULT_RUNS = 3;
+    private static final String[] DEFAULT_SHAPES = { "100x100x100", "100000",
+            "1000x1^49", "100x100@0,128,1024,16384" };
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RUNS;
+        String[] shapes = DEFAULT_SHAPES;
+        if (args.length > 1) {
+            shapes = new String[args.length - 1];
+            System.arraycopy(args, 1, shapes, 0, shapes.length);
+        }
+
+        System.out.printf("%-28s %3s %10s %10s %12s %12s %10s%n", "shape",
+                "run", "connect", "root", "populated", "peak heap",
+                "bytes/node");
+        for (String spec : shapes) {
+            TreeShape shape = TreeShape.parse(spec);
+            long start = System.nanoTime();
+            ForkedZooKeeper server = new ForkedZooKeeper(shape);
+            try {
+                // The start of the server JVM included
+                System.out.printf("%-28s filled with %,d nodes in %,d ms%n",
+                        shape, shape.getNodeCount(),
+                        (System.nanoTime() - start) / 1000000);
+                for (int run = 1; run <= runs; run++) {
+                    load(server, shape, run);
+                }
+            } finally {
+                server.shutdown();
+            }
+        }
+    }
+
+    private static void load(ForkedZooKeeper server, TreeShape shape,
+            int run) throws Exception {
+        ZVModelConfig config = ZVModelConfig.fromSystemProperties();
+        config.setLazy(false);
+        long nodes = shape.getNodeCount() + EmbeddedZooKeeper.BUILTIN_NODES;
+        if (config.getCacheFile() != null) {
+            // A cold start
+            config.getCacheFile().delete();
+        }
+
+        long before = HeapUsage.retained();
+        HeapUsage.resetPeak();
+        long start = System.nanoTime();
+        TimedModel model = new TimedModel(server.getConnectString(), config);
+        try {
+            model.awaitCreated(nodes);
+            long populated = System.nanoTime() - start;
+            long peak = HeapUsage.peak();
+            long root = model.getRootCreated() - start;
+            long connect = model.getMetrics().getConnectTime();
+            // The model is still reachable, its nodes are retained
+            long retained = HeapUsage.retained() - before;
+            System.out.printf("%-28s %3d %7d ms %7d ms %9d ms %9d MB %10d%n",
+                    shape, run, connect / 1000, root / 1000000,
+                    populated / 1000000, peak / (1024 * 1024), retained
+                            / model.getMetrics().getNodeCount());
+            if (config.getCacheFile() != null) {
+                // Saved on close only once settled
+                awaitSettled(model);
+            }
+        } finally {
+            model.close();
+        }
+        if (config.getCacheFile() != null) {
+            warmStart(server, shape, run, config);
+            config.getCacheFile().delete();
+        }
+    }
+
+    private static void warmStart(ForkedZooKeeper server, TreeShape shape,
+            int run, ZVModelConfig config) throws Exception {
+        long start = System.nanoTime();
+        TimedModel model = new TimedModel(server.getConnectString(), config);
+        try {
+            // The cached tree is notified at once, with its root
+            model.awaitCreated(1);
+            long shown = System.nanoTime() - start;
+            awaitSettled(model);
+            long reconciled = System.nanoTime() - start;
+            System.out.printf("%-28s %3d warm start: shown in %,d ms,"
+                    + " reconciled in %,d ms, %,d stats, %,d children and"
+                    + " %,d data read%n", shape, run, shown / 1000000,
+                    reconciled / 1000000, count(model, "exists"), count(
+                            model, "getChildren"), count(model, "getData"));
+        } finally {
+            model.close();
+        }
+    }
+
+    /**
+     * Waits until the model has no request pending anymore.
+     */
+    private static void awaitSettled(TimedModel model)
+            throws InterruptedException {
+        while (model.getMetrics().getPendingRequests() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static long count(TimedModel model, String operation) {
+        ZVLatencySummary summary = model.getMetrics().getOperations()
+                .get(operation);
+        return (summary == null) ? 0 : summary.getCount();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+
+import net.isammoc.zooviewer.model.ZVBulkDelete;
+import net.isammoc.zooviewer.model.ZVModel;
+import net.isammoc.zooviewer.model.ZVModelListener;
+import net.isammoc.zooviewer.model.ZVProgressListener;
+import net.isammoc.zooviewer.node.ZVNode;
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+
+/**
+ * Read-only model over a tree built in memory, so that the views can be
+ * measured without a ZooKeeper server. Changes are not supported, and no
+ * event is ever fired.
+ */
+public class StaticModel implements ZVModel {
+    private final Map<String, ZVNodeImpl> nodes;
+
+    /**
+     * Creates a model.
+     * 
+     * @param nodes
+     *            the nodes by path, see {@link TreeShape#build()}
+     */
+    public StaticModel(Map<String, ZVNodeImpl> nodes) {
+        this.nodes = nodes;
+    }
+
+    @Override
+    public void addModelListener(ZVModelListener listener) {
+        // Nothing ever changes
+    }
+
+    @Override
+    public void removeModelListener(ZVModelListener listener) {
+        // Nothing ever changes
+    }
+
+    @Override
+    public void addNode(String path, byte[] data) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public void updateData(String path, byte[] data) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public void deleteNode(ZVNode node) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public void deleteNodes(ZVNode[] nodes) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public ZVBulkDelete deleteSubtrees(ZVNode[] roots,
+            ZVProgressListener listener) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public ZVNode getNode(String path) {
+        return nodes.get(path);
+    }
+
+    @Override
+    public ZVNode getParent(ZVNode node) {
+        return node.getParent();
+    }
+
+    @Override
+    public List<ZVNode> getChildren(ZVNode parent) {
+        return ((ZVNodeImpl) parent).getChildren();
+    }
+
+    @Override
+    public void loadChildren(ZVNode node) {
+        // Every node is loaded
+    }
+
+    @Override
+    public void loadData(ZVNode node) {
+        // Every node is loaded
+    }
+
+    @Override
+    public void setExpanded(ZVNode node, boolean expanded) {
+        // No watch
+    }
+
+    @Override
+    public void setSelected(ZVNode node, boolean selected) {
+        // No watch
+    }
+
+    @Override
+    public void setShown(ZVNode node, int count) {
+        // No watch
+    }
+
+    @Override
+    public String getFullPath(String parentPath, String childName) {
+        return ("/".equals(parentPath) ? "/" : (parentPath + "/")) + childName;
+    }
+
+    @Override
+    public void close() {
+        nodes.clear();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.io.IOException;
+
+import net.isammoc.zooviewer.model.ZVModelConfig;
+import net.isammoc.zooviewer.model.ZVModelImpl;
+import net.isammoc.zooviewer.node.ZVNode;
+
+/**
+ * Model recording when its nodes are created.
+ * <p>
+ * The root is created by the constructor, before any listener can be added,
+ * so the creations are caught by overriding
+ * {@link #fireNodesCreated(ZVNode, ZVNode[])}. The fields have no
+ * initializer, so that the values set while the superclass constructor runs
+ * are not reset afterwards.
+ * </p>
+ */
+public class TimedModel extends ZVModelImpl {
+    /** Time the root was created, from {@link System#nanoTime()}. */
+    private long rootCreated;
+    /** Number of nodes created, the root included. */
+    private long created;
+
+    public TimedModel(String connectString, ZVModelConfig config)
+            throws IOException {
+        super(connectString, config);
+    }
+
+    @Override
+    protected void fireNodesCreated(ZVNode parent, ZVNode[] newNodes) {
+        synchronized (this) {
+            if (parent == null) {
+                rootCreated = System.nanoTime();
+            }
+            created += newNodes.length;
+            notifyAll();
+        }
+        super.fireNodesCreated(parent, newNodes);
+    }
+
+    /**
+     * Returns the time the root was created.
+     * 
+     * @return the time, from {@link System#nanoTime()}
+     */
+    public synchronized long getRootCreated() {
+        return rootCreated;
+    }
+
+    /**
+     * Waits until a number of nodes have been created.
+     * 
+     * @param count
+     *            the number of nodes, the root included
+     */
+    public synchronized void awaitCreated(long count)
+            throws InterruptedException {
+        while (created < count) {
+            wait();
+        }
+    }
+}
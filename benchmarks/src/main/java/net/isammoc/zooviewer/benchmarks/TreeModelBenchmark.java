@@ -0,0 +1,103 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.tree.TreePath;
+
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+import net.isammoc.zooviewer.tree.ZVTreeModel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link ZVTreeModel} queries issued by a <code>JTree</code>
+ * for each row, on the widest parent and the deepest leaf of a tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xmx2g", "-Djava.awt.headless=true" })
+@State(Scope.Benchmark)
+public class TreeModelBenchmark {
+    /** Tree shapes: wide, deep chains, and balanced. */
+    @Param({ "100000", "10x1^49", "20x20x20" })
+    public String shape;
+
+    /** Children shown per page, <code>0</code> to show them all. */
+    @Param({ "0", "1000" })
+    public int pageSize;
+
+    private ZVTreeModel treeModel;
+    private ZVNodeImpl widest;
+    private ZVNodeImpl lastChild;
+    private ZVNodeImpl deepest;
+
+    @Setup
+    public void buildTree() throws Exception {
+        Map<String, ZVNodeImpl> nodes = TreeShape.parse(shape).build();
+        treeModel = new ZVTreeModel(new StaticModel(nodes), pageSize);
+        int depth = -1;
+        for (ZVNodeImpl node : nodes.values()) {
+            if ((widest == null)
+                    || (node.getChildren().size() > widest.getChildren()
+                            .size())) {
+                widest = node;
+            }
+            int nodeDepth = node.getPath().split("/").length;
+            if (nodeDepth > depth) {
+                deepest = node;
+                depth = nodeDepth;
+            }
+        }
+        // Within the first page, so that it is shown
+        int last = Math.min(widest.getChildren().size(),
+                pageSize == 0 ? Integer.MAX_VALUE : pageSize) - 1;
+        lastChild = (ZVNodeImpl) widest.getChildren().get(last);
+    }
+
+    @Benchmark
+    public TreePath getTreePath() {
+        return treeModel.getTreePath(deepest);
+    }
+
+    @Benchmark
+    public int getChildCount() {
+        return treeModel.getChildCount(widest);
+    }
+
+    @Benchmark
+    public Object getChild() {
+        return treeModel.getChild(widest, 0);
+    }
+
+    @Benchmark
+    public int getIndexOfChild() {
+        return treeModel.getIndexOfChild(widest, lastChild);
+    }
+}
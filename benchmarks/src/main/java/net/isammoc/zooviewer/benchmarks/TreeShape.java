@@ -0,0 +1,293 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Generated tree, described by the fanout of each level and the sizes of the
+ * node data.
+ * <p>
+ * The specification reads <code>fanouts[@sizes]</code>:
+ * <ul>
+ * <li><code>fanouts</code> lists the number of children per node of each
+ * level, separated by <code>x</code>. <code>f^n</code> repeats a fanout over
+ * <code>n</code> levels.</li>
+ * <li><code>sizes</code> lists the data sizes in bytes, separated by commas.
+ * Each node gets one of them at random, from a fixed seed.</li>
+ * </ul>
+ * For instance, <code>100x100x100</code> is a million nodes without data,
+ * <code>100000</code> is a root with a hundred thousand children, and
+ * <code>10x1^49@0,1024</code> is ten chains fifty nodes deep with empty or
+ * 1 KiB data. A given specification always generates the same tree.
+ * </p>
+ */
+public final class TreeShape {
+    /** Seed of the data sizes. */
+    private static final long SEED = 42L;
+
+    private final String spec;
+    private final int[] fanouts;
+    private final int[] sizes;
+
+    /**
+     * Receives the nodes of a tree, parents first.
+     */
+    public interface Visitor {
+        /**
+         * Called for each node but the root.
+         * 
+         * @param parentPath
+         *            the parent path
+         * @param path
+         *            the node path
+         * @param data
+         *            the node data, shared by the nodes of the same size
+         */
+        void node(String parentPath, String path, byte[] data)
+                throws Exception;
+    }
+
+    private TreeShape(String spec, int[] fanouts, int[] sizes) {
+        this.spec = spec;
+        this.fanouts = fanouts;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Parses a specification.
+     * 
+     * @param spec
+     *            the specification
+     * @return the shape
+     * @throws IllegalArgumentException
+     *             if the specification is malformed
+     */
+    public static TreeShape parse(String spec) {
+        try {
+            int at = spec.indexOf('@');
+            String levels = at < 0 ? spec : spec.substring(0, at);
+            List<Integer> fanouts = new ArrayList<Integer>();
+            for (String level : levels.split("x")) {
+                int caret = level.indexOf('^');
+                int fanout = Integer.parseInt(caret < 0 ? level : level
+                        .substring(0, caret));
+                int repeat = caret < 0 ? 1 : Integer.parseInt(level
+                        .substring(caret + 1));
+                for (int i = 0; i < repeat; i++) {
+                    fanouts.add(fanout);
+                }
+            }
+            String[] sizeSpecs = at < 0 ? new String[] { "0" } : spec
+                    .substring(at + 1).split(",");
+            int[] sizes = new int[sizeSpecs.length];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = Integer.parseInt(sizeSpecs[i]);
+            }
+            int[] levelFanouts = new int[fanouts.size()];
+            for (int i = 0; i < levelFanouts.length; i++) {
+                levelFanouts[i] = fanouts.get(i);
+            }
+            return new TreeShape(spec, levelFanouts, sizes);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed tree shape: " + spec,
+                    e);
+        }
+    }
+
+    /**
+     * Returns the number of nodes, the root excluded.
+     * 
+     * @return the number of nodes
+     */
+    public long getNodeCount() {
+        long count = 0;
+        long level = 1;
+        for (int i = 0; i < fanouts.length; i++) {
+            level *= fanouts[i];
+            count += level;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the depth of the leaves, the root being at depth 0.
+     * 
+     * @return the depth
+     */
+    public int getDepth() {
+        return fanouts.length;
+    }
+
+    /**
+     * Visits the nodes of the tree, level by level. The children of a parent
+     * are visited in a row.
+     * 
+     * @param visitor
+     *            the visitor
+     */
+    public void visit(Visitor visitor) throws Exception {
+        byte[][] payloads = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            payloads[i] = payload(sizes[i]);
+        }
+        Random random = new Random(SEED);
+        List<String> parents = new ArrayList<String>();
+        parents.add("/");
+        for (int level = 0; level < fanouts.length; level++) {
+            List<String> children = new ArrayList<String>(parents.size()
+                    * fanouts[level]);
+            for (String parent : parents) {
+                String prefix = "/".equals(parent) ? "/node-" : parent
+                        + "/node-";
+                for (int i = 0; i < fanouts[level]; i++) {
+                    String path = prefix + i;
+                    visitor.node(parent, path, payloads[random
+                            .nextInt(payloads.length)]);
+                    children.add(path);
+                }
+            }
+            parents = children;
+        }
+    }
+
+    /**
+     * Creates the nodes of the tree under the root of a ZooKeeper ensemble,
+     * with asynchronous requests. Parents are created before their children,
+     * as the requests of a session are processed in order.
+     * 
+     * @param zk
+     *            the session
+     * @param window
+     *            the maximum number of requests in flight
+     * @throws KeeperException
+     *             if a node couldn't be created
+     */
+    public void create(ZooKeeper zk, int window) throws Exception {
+        final Semaphore slots = new Semaphore(window);
+        final AtomicInteger failure = new AtomicInteger(Code.OK.intValue());
+        final StringCallback callback = new StringCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx,
+                    String name) {
+                if (rc != Code.OK.intValue()) {
+                    failure.compareAndSet(Code.OK.intValue(), rc);
+                }
+                slots.release();
+            }
+        };
+        final ZooKeeper session = zk;
+        visit(new Visitor() {
+            @Override
+            public void node(String parentPath, String path, byte[] data)
+                    throws InterruptedException {
+                slots.acquire();
+                session.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                        CreateMode.PERSISTENT, callback, null);
+            }
+        });
+        slots.acquire(window);
+        slots.release(window);
+        if (failure.get() != Code.OK.intValue()) {
+            throw KeeperException.create(Code.get(failure.get()));
+        }
+    }
+
+    /**
+     * Builds the tree in memory, the way the model stores it: a path index
+     * and parent-linked nodes holding their child lists.
+     * 
+     * @return the nodes by path, the root included
+     */
+    public Map<String, ZVNodeImpl> build() throws Exception {
+        final Map<String, ZVNodeImpl> index = new ConcurrentHashMap<String, ZVNodeImpl>();
+        ZVNodeImpl root = new ZVNodeImpl("/", null);
+        root.update(new byte[0], stat(0, 0, fanouts.length > 0 ? fanouts[0]
+                : 0));
+        root.setExists(true);
+        index.put("/", root);
+        final List<ZVNodeImpl> batch = new ArrayList<ZVNodeImpl>();
+        visit(new Visitor() {
+            private int created = 0;
+
+            @Override
+            public void node(String parentPath, String path, byte[] data) {
+                ZVNodeImpl parent = index.get(parentPath);
+                if (!batch.isEmpty() && (batch.get(0).getParent() != parent)) {
+                    flush(batch);
+                }
+                ZVNodeImpl node = new ZVNodeImpl(parent, path.substring(path
+                        .lastIndexOf('/') + 1));
+                int level = path.split("/").length - 1;
+                node.update(data, stat(++created, data.length,
+                        level < fanouts.length ? fanouts[level] : 0));
+                node.setExists(true);
+                index.put(path, node);
+                batch.add(node);
+            }
+        });
+        flush(batch);
+        return index;
+    }
+
+    private static void flush(List<ZVNodeImpl> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ZVNodeImpl parent = batch.get(0).getParent();
+        parent.setChildren(parent.getChildren().with(batch));
+        batch.clear();
+    }
+
+    private static Stat stat(long i, int dataLength, int numChildren) {
+        long zxid = 0x100000000L + i;
+        long time = 1280000000000L + i;
+        return new Stat(zxid, zxid, time, time, 0, 0, 0, 0, dataLength,
+                numChildren, zxid);
+    }
+
+    /**
+     * Returns printable data, so that the previews of the rows are decoded
+     * like text.
+     */
+    private static byte[] payload(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ((i % 64 == 63) ? '\n' : 'a' + (i % 26));
+        }
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -14,41 +14,53 @@
  */
 package net.isammoc.zooviewer;
 
-import java.awt.Component;
 import java.awt.Frame;
 import java.awt.Window;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
 
 import javax.swing.JDialog;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
-import javax.swing.JTree;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
-import javax.swing.tree.DefaultTreeCellRenderer;
 import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 
 import net.isammoc.zooviewer.model.ZVModel;
+import net.isammoc.zooviewer.model.ZVModelConfig;
 import net.isammoc.zooviewer.model.ZVModelImpl;
+import net.isammoc.zooviewer.model.ZVOfflineModel;
+import net.isammoc.zooviewer.model.ZVProgressListener;
+import net.isammoc.zooviewer.model.ZVSwingModel;
 import net.isammoc.zooviewer.node.JZVNode;
 import net.isammoc.zooviewer.node.ZVNode;
 import net.isammoc.zooviewer.tree.JZVTree;
+import net.isammoc.zooviewer.tree.ZVLabelCache;
+import net.isammoc.zooviewer.tree.ZVTreeCellRenderer;
 
 import org.apache.log4j.lf5.viewer.categoryexplorer.TreeModelAdapter;
+import org.apache.zookeeper.KeeperException;
 
 public class App {
     private static final String DEFAULT_CONNECTION_STRING = "127.0.0.1:2181";
+    /** Option browsing a data directory or a snapshot file, without server. */
+    private static final String OFFLINE_OPTION = "--offline";
+    /** Option writing a subtree to a file, without views. */
+    private static final String EXPORT_OPTION = "--export";
+    /** Option creating the subtree of a file, without views. */
+    private static final String IMPORT_OPTION = "--import";
     private static ResourceBundle bundle = ResourceBundle.getBundle(App.class
             .getCanonicalName());
 
@@ -57,8 +69,21 @@ public class App {
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
+        if ((args.length > 0)
+                && (EXPORT_OPTION.equals(args[0]) || IMPORT_OPTION
+                        .equals(args[0]))) {
+            System.exit(transfer(args));
+        }
+
         String connexionString = null;
-        if (args.length > 0) {
+        boolean offline = (args.length > 0) && OFFLINE_OPTION.equals(args[0]);
+        if (offline) {
+            if ((args.length < 2) || !new File(args[1]).exists()) {
+                System.err.println(bundle.getString("start.offline.usage"));
+                System.exit(2);
+            }
+            connexionString = args[1];
+        } else if (args.length > 0) {
             connexionString = args[0];
         } else {
             connexionString = inputConnectionString(DEFAULT_CONNECTION_STRING);
@@ -82,8 +107,19 @@ public class App {
         }
 
         //
-        final ZVModel model = new ZVModelImpl(connexionString);
+        // A data directory or a snapshot file is browsed without server
+        ZVModelConfig config = ZVModelConfig.fromSystemProperties();
+        ZVModel source = offline ? new ZVOfflineModel(
+                new File(connexionString), config) : new ZVModelImpl(
+                connexionString, config);
+
+        //
+        // The views are notified on the EDT, at most once per frame
+        final ZVModel model = new ZVSwingModel(source, Integer.getInteger(
+                ZVSwingModel.FRAME_RATE_PROPERTY,
+                ZVSwingModel.DEFAULT_FRAME_RATE));
         final JZVNode nodeView = new JZVNode(model);
+        nodeView.setEditable(!offline);
         final JZVTree tree = new JZVTree(model);
 
         String editorViewtitle = String.format("%s - Editor View - ZooViewer",
@@ -121,11 +157,16 @@ public class App {
                 if (selPaths == null) {
                     return;
                 }
-                ZVNode[] nodes = new ZVNode[selPaths.length];
+                // Page rows are not nodes
+                List<ZVNode> nodes = new ArrayList<ZVNode>(selPaths.length);
                 for (int i = 0; i < selPaths.length; i++) {
-                    nodes[i] = (ZVNode) selPaths[i].getLastPathComponent();
+                    if (selPaths[i].getLastPathComponent() instanceof ZVNode) {
+                        nodes.add((ZVNode) selPaths[i].getLastPathComponent());
+                    }
+                }
+                if (!nodes.isEmpty()) {
+                    nodeView.setNodes(nodes.toArray(new ZVNode[nodes.size()]));
                 }
-                nodeView.setNodes(nodes);
             }
         });
 
@@ -161,35 +202,78 @@ public class App {
             }
         });
 
-        DefaultTreeCellRenderer renderer = new DefaultTreeCellRenderer() {
-            /** */
-            private static final long serialVersionUID = 1L;
-
-            @Override
-            public Component getTreeCellRendererComponent(JTree tree,
-                    Object value, boolean sel, boolean expanded, boolean leaf,
-                    int row, boolean hasFocus) {
-                Component comp = super.getTreeCellRendererComponent(tree,
-                        value, sel, expanded, leaf, row, hasFocus);
-                if ((comp instanceof JLabel) && (value instanceof ZVNode)) {
-                    ZVNode node = (ZVNode) value;
-                    String text = node.getName();
-                    byte[] data = node.getData();
-                    if ((data != null) && (data.length > 0)) {
-                        text += "=" + new String(data);
-                    }
-                    ((JLabel) comp).setText(text);
-                    ((JLabel) comp).validate();
-                }
-                return comp;
-            }
-        };
+        // Shared by both trees, so that a label is computed once per change
+        ZVTreeCellRenderer renderer = new ZVTreeCellRenderer(
+                new ZVLabelCache());
         tree2.setCellRenderer(renderer);
         tree.setCellRenderer(renderer);
 
         jfEditor.setVisible(true);
     }
 
+    /**
+     * Exports or imports a subtree from the command line:
+     * <code>--export &lt;connection string&gt; &lt;path&gt; &lt;file&gt;</code>
+     * or
+     * <code>--import &lt;connection string&gt; &lt;file&gt; [&lt;path&gt;]</code>.
+     * 
+     * @param args
+     *            the command line arguments
+     * @return the exit status
+     */
+    static int transfer(String[] args) {
+        boolean export = EXPORT_OPTION.equals(args[0]);
+        if ((args.length > 4) || (args.length < (export ? 4 : 3))) {
+            System.err.println(bundle.getString(export ? "export.usage"
+                    : "import.usage"));
+            return 2;
+        }
+        ZVProgressListener listener = new ZVProgressListener() {
+            @Override
+            public void progress(long done, long total, long elapsed) {
+                System.out.println(String.format(bundle
+                        .getString("transfer.progress"), done,
+                        elapsed / 1000000));
+            }
+        };
+        // Only the subtree is read, not the whole tree
+        ZVModelConfig config = ZVModelConfig.fromSystemProperties();
+        config.setLazy(true);
+        ZVModelImpl model = null;
+        try {
+            model = new ZVModelImpl(args[1], config);
+            if (export) {
+                File file = new File(args[3]);
+                long count = model.exportSubtree(args[2], file, false,
+                        listener);
+                System.out.println(String.format(bundle
+                        .getString("export.done"), count, args[2], file));
+            } else {
+                File file = new File(args[2]);
+                long count = model.importSubtree(file,
+                        (args.length > 3) ? args[3] : null, listener);
+                System.out.println(String.format(bundle
+                        .getString("import.done"), count, file));
+            }
+            return 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (KeeperException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            if (model != null) {
+                try {
+                    model.close();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return 1;
+    }
+
     private static String inputConnectionString(String defaultString) {
         JOptionPane pane = new JOptionPane(
                 bundle.getString("start.connection.message"),
@@ -236,6 +320,11 @@ public class App {
             public void treeNodesChanged(TreeModelEvent e) {
                 System.out
                         .println("App.main(...).new TreeModelAdapter() {...}.treeNodesChanged()");
+                if (e.getChildren() == null) {
+                    // The root has changed
+                    this.selectAndDisplayPath(tree2, e.getTreePath());
+                    return;
+                }
                 final TreePath childPath = e.getTreePath().pathByAddingChild(
                         e.getChildren()[0]);
                 this.selectAndDisplayPath(tree2, childPath);
@@ -246,6 +335,10 @@ public class App {
                 System.out
                         .println("App.main(...).new TreeModelAdapter() {...}.treeNodesInserted()");
                 Object[] children = e.getChildren();
+                if (!(children[children.length - 1] instanceof ZVNode)) {
+                    // Selecting a page row would show its next page
+                    return;
+                }
                 final TreePath lastChildPath = e.getTreePath()
                         .pathByAddingChild(children[children.length - 1]);
                 this.selectAndDisplayPath(tree2, lastChildPath);
@@ -0,0 +1,377 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.isammoc.zooviewer.node.ZVChildList;
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Quotas;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Deletion of whole subtrees, run in the background.
+ * <p>
+ * The subtrees are walked in the nodes of the model, and listed from the
+ * ensemble where the model doesn't know all the children of a node. The
+ * nodes are then deleted children first with the asynchronous API, keeping
+ * at most <code>window</code> deletions in flight: a session handles its
+ * requests in order, so that the deletion of a parent is processed after
+ * the deletions of its children.
+ * </p>
+ * <p>
+ * A node given a new child meanwhile can't be deleted: its subtree is listed
+ * again from the ensemble, and deleted in a new pass. Nodes already deleted
+ * by someone else are counted as deleted.
+ * </p>
+ */
+public final class ZVBulkDelete implements Runnable {
+    /** Number of passes over the nodes which couldn't be deleted. */
+    private static final int MAX_PASSES = 5;
+
+    private final ZooKeeper zk;
+    private final Map<String, ZVNodeImpl> nodes;
+    private final String[] roots;
+    private final int window;
+    private final ZVMetrics metrics;
+    private final ZVProgressListener listener;
+
+    private final Semaphore slots;
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    /** Nodes which had children when their deletion was processed. */
+    private final List<String> notEmpty = Collections
+            .synchronizedList(new ArrayList<String>());
+    /** First error, which stops the deletion. */
+    private final AtomicReference<KeeperException> failure = new AtomicReference<KeeperException>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile boolean cancelled = false;
+    private volatile long start = 0;
+    private volatile long end = 0;
+
+    private final VoidCallback deleteCallback = new VoidCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx) {
+            metrics.operation("delete", (Long) ctx);
+            if ((rc == Code.OK.intValue()) || (rc == Code.NONODE.intValue())) {
+                deleted.incrementAndGet();
+            } else if (rc == Code.NOTEMPTY.intValue()) {
+                notEmpty.add(path);
+            } else {
+                failure.compareAndSet(null, KeeperException.create(Code
+                        .get(rc), path));
+            }
+            slots.release();
+        }
+    };
+
+    /**
+     * Children of a node listed from the ensemble.
+     */
+    private static final class Listing {
+        private final String path;
+        private final int code;
+        private final List<String> children;
+
+        Listing(String path, int code, List<String> children) {
+            this.path = path;
+            this.code = code;
+            this.children = children;
+        }
+    }
+
+    /**
+     * Creates a deletion.
+     *
+     * @param zk
+     *            the ZooKeeper session used to delete the nodes
+     * @param nodes
+     *            the nodes of the model, by path
+     * @param roots
+     *            the paths of the roots of the subtrees
+     * @param window
+     *            the maximum number of requests in flight
+     * @param metrics
+     *            the metrics recording the latency of the requests
+     * @param listener
+     *            the listener notified of the progress, or <code>null</code>
+     */
+    ZVBulkDelete(ZooKeeper zk, Map<String, ZVNodeImpl> nodes, String[] roots,
+            int window, ZVMetrics metrics, ZVProgressListener listener) {
+        this.zk = zk;
+        this.nodes = nodes;
+        this.roots = roots;
+        this.window = window;
+        this.metrics = metrics;
+        this.listener = listener;
+        this.slots = new Semaphore(window);
+    }
+
+    @Override
+    public void run() {
+        start = System.nanoTime();
+        try {
+            List<String> order = new ArrayList<String>();
+            List<String> unknown = new ArrayList<String>();
+            for (String root : roots) {
+                walk(root, order, unknown);
+            }
+            list(unknown, order);
+            for (int pass = 0; !order.isEmpty(); pass++) {
+                if (pass == MAX_PASSES) {
+                    failure.compareAndSet(null, KeeperException.create(
+                            Code.NOTEMPTY, order.get(0)));
+                    break;
+                }
+                delete(order);
+                if (cancelled || (failure.get() != null)) {
+                    break;
+                }
+                order.clear();
+                List<String> again = outermost(notEmpty);
+                notEmpty.clear();
+                order.addAll(again);
+                list(again, order);
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+        } finally {
+            end = System.nanoTime();
+            if (listener != null) {
+                listener.progress(deleted.get(), total.get(), end - start);
+            }
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Adds the nodes of a subtree known to the model, parents first. The
+     * nodes whose children are not all known are listed from the ensemble.
+     */
+    private void walk(String root, List<String> order, List<String> unknown) {
+        LinkedList<String> toVisit = new LinkedList<String>();
+        toVisit.add(root);
+        while (!toVisit.isEmpty()) {
+            String path = toVisit.removeFirst();
+            if (isSystem(path)) {
+                continue;
+            }
+            if (!"/".equals(path)) {
+                // The root itself can't be deleted, only its children
+                order.add(path);
+            }
+            ZVNodeImpl node = nodes.get(path);
+            Stat stat = (node == null) ? null : node.getStat();
+            ZVChildList children = (node == null) ? null : node.getChildren();
+            if ((stat == null) || (children.size() < stat.getNumChildren())) {
+                unknown.add(path);
+                continue;
+            }
+            for (int i = 0; i < children.size(); i++) {
+                toVisit.add(children.get(i).getPath());
+            }
+        }
+    }
+
+    /**
+     * Adds the descendants of some nodes listed from the ensemble, parents
+     * first, with pipelined requests.
+     */
+    private void list(List<String> parents, List<String> order)
+            throws InterruptedException {
+        final BlockingQueue<Listing> listings = new LinkedBlockingQueue<Listing>();
+        ChildrenCallback callback = new ChildrenCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx,
+                    List<String> children) {
+                metrics.operation("getChildren", (Long) ctx);
+                listings.add(new Listing(path, rc, children));
+            }
+        };
+        LinkedList<String> toList = new LinkedList<String>(parents);
+        int inFlight = 0;
+        while ((!toList.isEmpty() || (inFlight > 0)) && !cancelled) {
+            while ((inFlight < window) && !toList.isEmpty()) {
+                zk.getChildren(toList.removeFirst(), false, callback, System
+                        .nanoTime());
+                inFlight++;
+            }
+            Listing listing = listings.take();
+            inFlight--;
+            if (listing.code == Code.NONODE.intValue()) {
+                continue;
+            }
+            if (listing.code != Code.OK.intValue()) {
+                failure.compareAndSet(null, KeeperException.create(Code
+                        .get(listing.code), listing.path));
+                return;
+            }
+            for (String name : listing.children) {
+                String child = "/".equals(listing.path) ? "/" + name
+                        : listing.path + "/" + name;
+                if (!isSystem(child)) {
+                    order.add(child);
+                    toList.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes nodes in the reverse order, so children first.
+     */
+    private void delete(List<String> order) throws InterruptedException {
+        total.set(deleted.get() + order.size());
+        try {
+            for (int i = order.size() - 1; i >= 0; i--) {
+                if (cancelled || (failure.get() != null)) {
+                    break;
+                }
+                slots.acquire();
+                zk.delete(order.get(i), -1, deleteCallback, System.nanoTime());
+                if ((listener != null)
+                        && ((order.size() - i) % ZVSubtreeExport.PROGRESS_INTERVAL == 0)) {
+                    listener.progress(deleted.get(), total.get(), System
+                            .nanoTime()
+                            - start);
+                }
+            }
+        } finally {
+            // Waits for the deletions in flight
+            slots.acquireUninterruptibly(window);
+            slots.release(window);
+        }
+    }
+
+    /**
+     * Returns the nodes which have no ancestor among the specified ones, so
+     * that a subtree is listed once.
+     */
+    private static List<String> outermost(List<String> paths) {
+        Set<String> all = new HashSet<String>(paths);
+        List<String> result = new ArrayList<String>();
+        for (String path : paths) {
+            boolean nested = false;
+            for (int slash = path.lastIndexOf('/'); (slash > 0) && !nested; slash = path
+                    .lastIndexOf('/', slash - 1)) {
+                nested = all.contains(path.substring(0, slash));
+            }
+            if (!nested) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a node belongs to ZooKeeper itself, and so can't be deleted.
+     */
+    private static boolean isSystem(String path) {
+        return path.equals(Quotas.procZookeeper)
+                || path.startsWith(Quotas.procZookeeper + "/");
+    }
+
+    /**
+     * Stops issuing deletions. The deletions in flight complete anyway.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks if the deletion has been cancelled.
+     *
+     * @return <code>true</code> if cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Checks if the deletion is over, completed, failed or cancelled.
+     *
+     * @return <code>true</code> if over
+     */
+    public boolean isDone() {
+        return finished.getCount() == 0;
+    }
+
+    /**
+     * Waits for the end of the deletion.
+     *
+     * @return the number of nodes deleted
+     * @throws KeeperException
+     *             if a node couldn't be deleted
+     * @throws InterruptedException
+     *             if the wait was interrupted
+     */
+    public long await() throws KeeperException, InterruptedException {
+        finished.await();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return deleted.get();
+    }
+
+    /**
+     * Returns the number of nodes deleted so far.
+     *
+     * @return the number of nodes
+     */
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    /**
+     * Returns the number of nodes to delete known so far, which grows when
+     * nodes are listed again.
+     *
+     * @return the number of nodes
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Returns the number of nodes deleted per second, since the start.
+     *
+     * @return the throughput, <code>0</code> before the start
+     */
+    public double getThroughput() {
+        if (start == 0) {
+            return 0;
+        }
+        long elapsed = ((end == 0) ? System.nanoTime() : end) - start;
+        return elapsed == 0 ? 0 : deleted.get() * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delays the refresh of a changed node by a window, merging the changes
+ * notified for the same node meanwhile into a single read of its latest
+ * version.
+ */
+public final class ZVChangeCoalescer {
+    /**
+     * Reads a node again.
+     */
+    interface Refresher {
+        /**
+         * Called once the window of a changed node has elapsed.
+         * @param path the node path
+         */
+        void refresh(String path);
+    }
+
+    private final long window;
+    private final Refresher refresher;
+    private final ScheduledExecutorService timer = Executors
+            .newSingleThreadScheduledExecutor();
+    /** Nodes whose refresh is scheduled. */
+    private final Set<String> pending = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+
+    /**
+     * Creates a coalescer.
+     *
+     * @param window
+     *            the delay of a refresh, in milliseconds
+     * @param refresher
+     *            the reader of the changed nodes
+     */
+    ZVChangeCoalescer(long window, Refresher refresher) {
+        this.window = window;
+        this.refresher = refresher;
+    }
+
+    /**
+     * Records a change of a node, refreshed at the end of the window unless a
+     * refresh is already scheduled.
+     *
+     * @param path
+     *            the node path
+     */
+    void changed(final String path) {
+        changes.incrementAndGet();
+        if (!pending.add(path)) {
+            merged.incrementAndGet();
+            return;
+        }
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // Removed first, so that a later change schedules a new read
+                pending.remove(path);
+                refresher.refresh(path);
+            }
+        }, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the scheduled refreshes and stops the timer.
+     */
+    void shutdown() {
+        timer.shutdownNow();
+        pending.clear();
+    }
+
+    /**
+     * Returns the delay of a refresh.
+     *
+     * @return the window, in milliseconds
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Returns the number of changes notified.
+     *
+     * @return the number of changes
+     */
+    public long getChanges() {
+        return changes.get();
+    }
+
+    /**
+     * Returns the number of changes merged into a refresh already scheduled.
+     *
+     * @return the number of merged changes
+     */
+    public long getMerged() {
+        return merged.get();
+    }
+
+    /**
+     * Returns the number of nodes whose refresh is scheduled.
+     *
+     * @return the number of nodes
+     */
+    public int getPending() {
+        return pending.size();
+    }
+}
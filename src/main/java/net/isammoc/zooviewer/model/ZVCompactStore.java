@@ -0,0 +1,847 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import javax.swing.tree.TreePath;
+
+import net.isammoc.zooviewer.node.ZVNode;
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+import net.isammoc.zooviewer.node.ZVNodeSnapshot;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Compact storage of a ZooKeeper tree, for trees of millions of nodes.
+ * <p>
+ * Nodes are identified by an int, and their structure and stat are kept in
+ * primitive arrays indexed by this id: a node costs about 85 bytes of fixed
+ * metadata plus its name, about 120 bytes in all for unique names, instead of
+ * the several objects behind a {@link ZVNodeImpl}. Names are stored once per
+ * distinct segment, as UTF-8 bytes.
+ * </p>
+ * <p>
+ * This is a standalone store, backing the {@link ZVOfflineModel}. The live
+ * {@link ZVModelImpl} keeps its {@link ZVNodeImpl} graph: its nodes are
+ * locked, watched and replaced one by one as the ensemble changes.
+ * </p>
+ * <p>
+ * The {@link ZVNode} instances handed out are flyweights created on demand:
+ * they only hold the node id, and two of them for the same node are equal.
+ * The ids of removed nodes are not reused, so that a flyweight kept by a view
+ * keeps its path and reports its node as not existing.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class ZVCompactStore {
+    /** Id of the root node. */
+    public static final int ROOT = 0;
+    /** Id returned when there is no such node. */
+    public static final int NO_NODE = -1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int[] NO_CHILDREN = new int[0];
+    private static final byte EXISTS = 1;
+    private static final byte HAS_STAT = 2;
+
+    private int size = 0;
+    private int existing = 0;
+
+    // Structure
+    private int[] parents;
+    private int[] names;
+    /** Existing children of each node, sorted by name, or null if none. */
+    private int[][] children;
+    private byte[] flags;
+    private byte[][] data;
+
+    // Stat fields
+    private long[] czxids;
+    private long[] mzxids;
+    private long[] pzxids;
+    private long[] ctimes;
+    private long[] mtimes;
+    private long[] ephemeralOwners;
+    private int[] versions;
+    private int[] cversions;
+    private int[] aversions;
+    private int[] dataLengths;
+    private int[] numChildren;
+
+    private final Segments segments = new Segments();
+    /** Listeners of the nodes which have some, by id. */
+    private final Map<Integer, PropertyChangeSupport> supports = new HashMap<Integer, PropertyChangeSupport>();
+
+    /**
+     * Creates a store containing only the root.
+     */
+    public ZVCompactStore() {
+        this(1024);
+    }
+
+    /**
+     * Creates a store containing only the root, sized for the specified number
+     * of nodes.
+     *
+     * @param expectedNodes
+     *            the expected number of nodes
+     */
+    public ZVCompactStore(int expectedNodes) {
+        resize(Math.max(expectedNodes, 16));
+        allocate(NO_NODE, segments.intern("/"));
+    }
+
+    /**
+     * Adds a node under the specified parent, or updates it if the parent
+     * already has a child with this name.
+     *
+     * @param parent
+     *            the parent id
+     * @param name
+     *            the node name
+     * @param data
+     *            the node data
+     * @param stat
+     *            the node stat, or <code>null</code> if unknown
+     * @return the node id
+     */
+    public int add(int parent, String name, byte[] data, Stat stat) {
+        int id;
+        boolean created = false;
+        synchronized (this) {
+            checkExisting(parent);
+            int segment = segments.intern(name);
+            int[] siblings = childrenOf(parent);
+            int index = search(siblings, segment);
+            if (index >= 0) {
+                id = siblings[index];
+            } else {
+                id = allocate(parent, segment);
+                children[parent] = insert(siblings, -index - 1, id);
+                this.data[id] = copy(data);
+                writeStat(id, stat);
+                created = true;
+            }
+        }
+        if (!created) {
+            setData(id, data);
+            setStat(id, stat);
+        }
+        return id;
+    }
+
+    /**
+     * Removes a node and its descendants.
+     *
+     * @param id
+     *            the node id
+     */
+    public void remove(int id) {
+        List<PropertyChangeSupport> removed = new ArrayList<PropertyChangeSupport>();
+        synchronized (this) {
+            if ((id == ROOT) || !isExisting(id)) {
+                return;
+            }
+            int[] siblings = children[parents[id]];
+            int index = search(siblings, names[id]);
+            children[parents[id]] = delete(siblings, index);
+
+            int[] stack = new int[16];
+            int top = 0;
+            stack[top++] = id;
+            while (top > 0) {
+                int node = stack[--top];
+                int[] descendants = childrenOf(node);
+                if (top + descendants.length > stack.length) {
+                    stack = Arrays.copyOf(stack,
+                            Math.max(stack.length * 2, top + descendants.length));
+                }
+                System.arraycopy(descendants, 0, stack, top, descendants.length);
+                top += descendants.length;
+
+                flags[node] = 0;
+                children[node] = null;
+                data[node] = null;
+                existing--;
+                PropertyChangeSupport support = supportIfAny(node);
+                if (support != null) {
+                    removed.add(support);
+                }
+            }
+        }
+        for (PropertyChangeSupport support : removed) {
+            support.firePropertyChange(ZVNode.PROPERTY_EXISTS, true, false);
+        }
+    }
+
+    /**
+     * Updates the data of a node.
+     *
+     * @param id
+     *            the node id
+     * @param data
+     *            the new data
+     */
+    public void setData(int id, byte[] data) {
+        byte[] old;
+        PropertyChangeSupport support;
+        synchronized (this) {
+            checkExisting(id);
+            old = this.data[id];
+            if (Arrays.equals(old, data)) {
+                return;
+            }
+            this.data[id] = copy(data);
+            support = supportIfAny(id);
+        }
+        if (support != null) {
+            support.firePropertyChange(ZVNode.PROPERTY_DATA, old, copy(data));
+        }
+    }
+
+    /**
+     * Drops the data of a node, read again the next time it is needed. The
+     * listeners are not notified, since the data itself hasn't changed.
+     *
+     * @param id
+     *            the node id
+     */
+    synchronized void dropData(int id) {
+        data[id] = null;
+    }
+
+    /**
+     * Updates the stat of a node.
+     *
+     * @param id
+     *            the node id
+     * @param stat
+     *            the new stat, or <code>null</code> if unknown
+     */
+    public void setStat(int id, Stat stat) {
+        Stat old;
+        PropertyChangeSupport support;
+        synchronized (this) {
+            checkExisting(id);
+            old = readStat(id);
+            if ((old == null) ? (stat == null) : old.equals(stat)) {
+                return;
+            }
+            writeStat(id, stat);
+            support = supportIfAny(id);
+        }
+        if (support != null) {
+            support.firePropertyChange(ZVNode.PROPERTY_STAT, old, stat);
+        }
+    }
+
+    /**
+     * Returns the id of the node with the specified path.
+     *
+     * @param path
+     *            the node path
+     * @return the node id, or {@link #NO_NODE} if there is no such node
+     */
+    public synchronized int find(String path) {
+        int id = ROOT;
+        int start = 1;
+        while ((id != NO_NODE) && (start < path.length())) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            int segment = segments.find(path.substring(start, end));
+            if (segment < 0) {
+                return NO_NODE;
+            }
+            int index = search(childrenOf(id), segment);
+            id = (index < 0) ? NO_NODE : children[id][index];
+            start = end + 1;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the parent of a node.
+     *
+     * @param id
+     *            the node id
+     * @return the parent id, or {@link #NO_NODE} for the root
+     */
+    public synchronized int getParent(int id) {
+        return parents[id];
+    }
+
+    /**
+     * Returns the number of existing children of a node.
+     *
+     * @param id
+     *            the node id
+     * @return the number of children
+     */
+    public synchronized int getChildCount(int id) {
+        return childrenOf(id).length;
+    }
+
+    /**
+     * Returns the id of a child of a node.
+     *
+     * @param id
+     *            the node id
+     * @param index
+     *            the index of the child, in name order
+     * @return the child id
+     */
+    public synchronized int getChild(int id, int index) {
+        return childrenOf(id)[index];
+    }
+
+    /**
+     * Returns the number of existing nodes, including the root.
+     *
+     * @return the number of nodes
+     */
+    public synchronized int size() {
+        return existing;
+    }
+
+    /**
+     * Returns the flyweight of a node.
+     *
+     * @param id
+     *            the node id
+     * @return the node
+     */
+    public ZVNode getNode(int id) {
+        synchronized (this) {
+            if ((id < 0) || (id >= size)) {
+                throw new IllegalArgumentException("No node " + id);
+            }
+        }
+        return new Node(id);
+    }
+
+    /**
+     * Returns the flyweight of the node with the specified path.
+     *
+     * @param path
+     *            the node path
+     * @return the node, or <code>null</code> if there is no such node
+     */
+    public ZVNode getNode(String path) {
+        int id = find(path);
+        return (id == NO_NODE) ? null : new Node(id);
+    }
+
+    /**
+     * Returns the existing children of a node, as flyweights.
+     *
+     * @param parent
+     *            a node of this store
+     * @return an immutable snapshot of the children, sorted by name
+     */
+    public List<ZVNode> getChildren(ZVNode parent) {
+        if (!owns(parent)) {
+            return new Children(NO_CHILDREN);
+        }
+        synchronized (this) {
+            return new Children(childrenOf(((Node) parent).id));
+        }
+    }
+
+    /**
+     * Returns the id of a flyweight of this store.
+     *
+     * @param node
+     *            the node
+     * @return the id, or {@link #NO_NODE} if the node doesn't belong to this
+     *         store
+     */
+    public int idOf(ZVNode node) {
+        return owns(node) ? ((Node) node).id : NO_NODE;
+    }
+
+    private boolean owns(Object node) {
+        return (node instanceof Node) && (((Node) node).store() == this);
+    }
+
+    private int[] childrenOf(int id) {
+        int[] ids = children[id];
+        return (ids == null) ? NO_CHILDREN : ids;
+    }
+
+    private boolean isExisting(int id) {
+        return (id >= 0) && (id < size) && ((flags[id] & EXISTS) != 0);
+    }
+
+    private void checkExisting(int id) {
+        if (!isExisting(id)) {
+            throw new IllegalArgumentException("Node " + id
+                    + " doesn't exist");
+        }
+    }
+
+    /**
+     * Binary search of a segment among children, which are sorted by name.
+     */
+    private int search(int[] ids, int segment) {
+        int low = 0;
+        int high = ids.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = segments.compare(names[ids[mid]], segment);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int[] insert(int[] ids, int index, int id) {
+        int[] result = new int[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, index);
+        result[index] = id;
+        System.arraycopy(ids, index, result, index + 1, ids.length - index);
+        return result;
+    }
+
+    private static int[] delete(int[] ids, int index) {
+        if (ids.length == 1) {
+            return null;
+        }
+        int[] result = new int[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, index);
+        System.arraycopy(ids, index + 1, result, index, result.length - index);
+        return result;
+    }
+
+    private int allocate(int parent, int segment) {
+        if (size == parents.length) {
+            resize(size + (size >> 1));
+        }
+        int id = size++;
+        parents[id] = parent;
+        names[id] = segment;
+        flags[id] = EXISTS;
+        existing++;
+        return id;
+    }
+
+    private void resize(int capacity) {
+        parents = copy(parents, capacity);
+        names = copy(names, capacity);
+        children = (children == null) ? new int[capacity][] : Arrays
+                .copyOf(children, capacity);
+        flags = (flags == null) ? new byte[capacity] : Arrays.copyOf(flags,
+                capacity);
+        data = (data == null) ? new byte[capacity][] : Arrays.copyOf(data,
+                capacity);
+        czxids = copy(czxids, capacity);
+        mzxids = copy(mzxids, capacity);
+        pzxids = copy(pzxids, capacity);
+        ctimes = copy(ctimes, capacity);
+        mtimes = copy(mtimes, capacity);
+        ephemeralOwners = copy(ephemeralOwners, capacity);
+        versions = copy(versions, capacity);
+        cversions = copy(cversions, capacity);
+        aversions = copy(aversions, capacity);
+        dataLengths = copy(dataLengths, capacity);
+        numChildren = copy(numChildren, capacity);
+    }
+
+    private static int[] copy(int[] array, int capacity) {
+        return (array == null) ? new int[capacity] : Arrays.copyOf(array,
+                capacity);
+    }
+
+    private static long[] copy(long[] array, int capacity) {
+        return (array == null) ? new long[capacity] : Arrays.copyOf(array,
+                capacity);
+    }
+
+    private static byte[] copy(byte[] data) {
+        return (data == null) ? null : Arrays.copyOf(data, data.length);
+    }
+
+    private void writeStat(int id, Stat stat) {
+        if (stat == null) {
+            flags[id] &= ~HAS_STAT;
+            return;
+        }
+        flags[id] |= HAS_STAT;
+        czxids[id] = stat.getCzxid();
+        mzxids[id] = stat.getMzxid();
+        pzxids[id] = stat.getPzxid();
+        ctimes[id] = stat.getCtime();
+        mtimes[id] = stat.getMtime();
+        ephemeralOwners[id] = stat.getEphemeralOwner();
+        versions[id] = stat.getVersion();
+        cversions[id] = stat.getCversion();
+        aversions[id] = stat.getAversion();
+        dataLengths[id] = stat.getDataLength();
+        numChildren[id] = stat.getNumChildren();
+    }
+
+    private Stat readStat(int id) {
+        if ((flags[id] & HAS_STAT) == 0) {
+            return null;
+        }
+        return new Stat(czxids[id], mzxids[id], ctimes[id], mtimes[id],
+                versions[id], cversions[id], aversions[id],
+                ephemeralOwners[id], dataLengths[id], numChildren[id],
+                pzxids[id]);
+    }
+
+    private synchronized String pathOf(int id) {
+        if (id == ROOT) {
+            return "/";
+        }
+        int depth = 0;
+        for (int node = id; node != ROOT; node = parents[node]) {
+            depth++;
+        }
+        int[] chain = new int[depth];
+        for (int node = id; node != ROOT; node = parents[node]) {
+            chain[--depth] = node;
+        }
+        StringBuilder path = new StringBuilder();
+        for (int node : chain) {
+            path.append('/').append(segments.get(names[node]));
+        }
+        return path.toString();
+    }
+
+    private synchronized TreePath treePathOf(int id) {
+        int depth = 0;
+        for (int node = id; node != NO_NODE; node = parents[node]) {
+            depth++;
+        }
+        Object[] chain = new Object[depth];
+        for (int node = id; node != NO_NODE; node = parents[node]) {
+            chain[--depth] = new Node(node);
+        }
+        return new TreePath(chain);
+    }
+
+    private PropertyChangeSupport supportOf(Node node) {
+        synchronized (supports) {
+            PropertyChangeSupport support = supports.get(node.id);
+            if (support == null) {
+                support = new PropertyChangeSupport(node);
+                supports.put(node.id, support);
+            }
+            return support;
+        }
+    }
+
+    private PropertyChangeSupport supportIfAny(int id) {
+        synchronized (supports) {
+            return supports.get(id);
+        }
+    }
+
+    private void releaseSupport(int id) {
+        synchronized (supports) {
+            PropertyChangeSupport support = supports.get(id);
+            if ((support != null)
+                    && (support.getPropertyChangeListeners().length == 0)) {
+                supports.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Node names, stored once per distinct segment in a single byte array and
+     * found through an open addressing hash table.
+     */
+    private static final class Segments {
+        private byte[] bytes = new byte[4096];
+        private int length = 0;
+        /** Segment i spans from offsets[i] to offsets[i + 1]. */
+        private int[] offsets = new int[256];
+        private int count = 0;
+        /** Segment ids plus one, zero for a free slot. */
+        private int[] table = new int[512];
+
+        int intern(String name) {
+            byte[] encoded = name.getBytes(UTF8);
+            int slot = slotOf(encoded);
+            if (table[slot] != 0) {
+                return table[slot] - 1;
+            }
+            if (length + encoded.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length
+                        + encoded.length));
+            }
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length
+                        + (offsets.length >> 1));
+            }
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            length += encoded.length;
+            int id = count++;
+            offsets[count] = length;
+            table[slot] = id + 1;
+            if (count * 4 > table.length * 3) {
+                rehash();
+            }
+            return id;
+        }
+
+        int find(String name) {
+            return table[slotOf(name.getBytes(UTF8))] - 1;
+        }
+
+        String get(int id) {
+            return new String(bytes, offsets[id], offsets[id + 1]
+                    - offsets[id], UTF8);
+        }
+
+        int compare(int id1, int id2) {
+            if (id1 == id2) {
+                return 0;
+            }
+            int i = offsets[id1];
+            int end1 = offsets[id1 + 1];
+            int j = offsets[id2];
+            int end2 = offsets[id2 + 1];
+            while ((i < end1) && (j < end2)) {
+                int cmp = (bytes[i++] & 0xff) - (bytes[j++] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return (end1 - offsets[id1]) - (end2 - offsets[id2]);
+        }
+
+        /**
+         * Returns the slot of the specified name, or the free slot where it
+         * should be added.
+         */
+        private int slotOf(byte[] encoded) {
+            int mask = table.length - 1;
+            int slot = hash(encoded, 0, encoded.length) & mask;
+            while (table[slot] != 0 && !matches(table[slot] - 1, encoded)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private boolean matches(int id, byte[] encoded) {
+            int start = offsets[id];
+            if (offsets[id + 1] - start != encoded.length) {
+                return false;
+            }
+            for (int i = 0; i < encoded.length; i++) {
+                if (bytes[start + i] != encoded[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int id = 0; id < count; id++) {
+                int slot = hash(bytes, offsets[id], offsets[id + 1]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = id + 1;
+            }
+        }
+
+        private static int hash(byte[] array, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + array[i];
+            }
+            // Spreads the low bits used by the mask
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * Flyweight of a node of this store.
+     */
+    private final class Node implements ZVNode {
+        private final int id;
+
+        Node(int id) {
+            this.id = id;
+        }
+
+        ZVCompactStore store() {
+            return ZVCompactStore.this;
+        }
+
+        @Override
+        public String getPath() {
+            return pathOf(id);
+        }
+
+        @Override
+        public String getName() {
+            synchronized (ZVCompactStore.this) {
+                return segments.get(names[id]);
+            }
+        }
+
+        @Override
+        public ZVNode getParent() {
+            int parent = ZVCompactStore.this.getParent(id);
+            return (parent == NO_NODE) ? null : new Node(parent);
+        }
+
+        @Override
+        public TreePath getTreePath() {
+            return treePathOf(id);
+        }
+
+        @Override
+        public byte[] getData() {
+            synchronized (ZVCompactStore.this) {
+                return copy(data[id]);
+            }
+        }
+
+        @Override
+        public Stat getStat() {
+            synchronized (ZVCompactStore.this) {
+                return readStat(id);
+            }
+        }
+
+        @Override
+        public ZVNodeSnapshot getSnapshot() {
+            synchronized (ZVCompactStore.this) {
+                // Stored arrays are replaced, never modified, so they can be
+                // shared
+                Stat stat = readStat(id);
+                boolean loaded = (stat != null)
+                        && ((data[id] != null) || (stat.getDataLength() == 0));
+                return new ZVNodeSnapshot(data[id],
+                        loaded ? stat.getMzxid()
+                                : ZVNodeSnapshot.UNKNOWN_VERSION, stat);
+            }
+        }
+
+        @Override
+        public boolean exists() {
+            synchronized (ZVCompactStore.this) {
+                return isExisting(id);
+            }
+        }
+
+        @Override
+        public void addPropertyChangeListener(PropertyChangeListener listener) {
+            supportOf(this).addPropertyChangeListener(listener);
+        }
+
+        @Override
+        public void addPropertyChangeListener(String propertyName,
+                PropertyChangeListener listener) {
+            supportOf(this).addPropertyChangeListener(propertyName, listener);
+        }
+
+        @Override
+        public void removePropertyChangeListener(PropertyChangeListener listener) {
+            supportOf(this).removePropertyChangeListener(listener);
+            releaseSupport(id);
+        }
+
+        @Override
+        public void removePropertyChangeListener(String propertyName,
+                PropertyChangeListener listener) {
+            supportOf(this).removePropertyChangeListener(propertyName,
+                    listener);
+            releaseSupport(id);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return owns(obj) && (((Node) obj).id == id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ZVCompactStore.Node[id=%d, path='%s']", id,
+                    getPath());
+        }
+    }
+
+    /**
+     * Immutable snapshot of the children of a node, creating their flyweights
+     * on access.
+     */
+    private final class Children extends AbstractList<ZVNode> implements
+            RandomAccess {
+        private final int[] ids;
+
+        Children(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public ZVNode get(int index) {
+            return new Node(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            if (!owns(o)) {
+                return -1;
+            }
+            int id = ((Node) o).id;
+            synchronized (ZVCompactStore.this) {
+                int index = search(ids, names[id]);
+                return (index >= 0) && (ids[index] == id) ? index : -1;
+            }
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            // Names are unique
+            return indexOf(o);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies, in buckets of powers of two microseconds.
+ * <p>
+ * Recording is lock-free, so it can be done from the ZooKeeper threads and
+ * the event dispatch thread alike. Percentiles are approximated by the upper
+ * bound of their bucket.
+ * </p>
+ */
+final class ZVLatencyHistogram {
+    /** Bucket <code>i</code> counts latencies under <code>2^i</code> us. */
+    private static final int BUCKETS = 32;
+    /** Indices of the totals: count, sum and maximum of the latencies. */
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MAX = 2;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     *            the latency, in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1,
+                64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        totals.incrementAndGet(COUNT);
+        totals.addAndGet(SUM, micros);
+        long max;
+        do {
+            max = totals.get(MAX);
+        } while ((micros > max) && !totals.compareAndSet(MAX, max, micros));
+    }
+
+    /**
+     * Returns a summary of the recorded latencies.
+     *
+     * @return the summary
+     */
+    ZVLatencySummary summarize() {
+        long count = totals.get(COUNT);
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        return new ZVLatencySummary(count, count == 0 ? 0 : totals.get(SUM)
+                / count, percentile(counts, total, 0.5), percentile(counts,
+                total, 0.99), totals.get(MAX));
+    }
+
+    private static long percentile(long[] counts, long total, double rank) {
+        long threshold = (long) Math.ceil(total * rank);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if ((seen >= threshold) && (seen > 0)) {
+                return (1L << i) - 1;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Summary of a latency histogram, published over JMX. Latencies are in
+ * microseconds.
+ */
+public final class ZVLatencySummary {
+    private final long count;
+    private final long mean;
+    private final long median;
+    private final long p99;
+    private final long max;
+
+    @ConstructorProperties({ "count", "mean", "median", "p99", "max" })
+    public ZVLatencySummary(long count, long mean, long median, long p99,
+            long max) {
+        this.count = count;
+        this.mean = mean;
+        this.median = median;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return the mean, in microseconds
+     */
+    public long getMean() {
+        return mean;
+    }
+
+    /**
+     * Returns the upper bound of the median latency.
+     *
+     * @return the median, in microseconds
+     */
+    public long getMedian() {
+        return median;
+    }
+
+    /**
+     * Returns the upper bound of the 99th percentile of the latencies.
+     *
+     * @return the percentile, in microseconds
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * Returns the maximum latency.
+     *
+     * @return the maximum, in microseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%dus median<=%dus p99<=%dus"
+                + " max=%dus", count, mean, median, p99, max);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.zookeeper.AsyncCallback.Children2Callback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Asynchronous loading pipeline for ZooKeeper nodes.
+ * <p>
+ * Requests are queued and issued with the asynchronous ZooKeeper API, keeping
+ * at most <code>window</code> of them in flight. Results are handed to a
+ * {@link Sink} from the ZooKeeper event thread, which is never blocked: a
+ * completed request simply issues the next queued one.
+ * </p>
+ */
+final class ZVLoader {
+    /**
+     * Receives the results of the requests issued by a {@link ZVLoader}.
+     */
+    interface Sink {
+        /**
+         * Called when the children of a node have been listed.
+         * @param loader the loader which issued the request
+         * @param path the node path
+         * @param childrenNames the names of the children
+         * @param stat the node stat
+         */
+        void childrenLoaded(ZVLoader loader, String path,
+                List<String> childrenNames, Stat stat);
+
+        /**
+         * Called when the data of a node has been read.
+         * @param loader the loader which issued the request
+         * @param path the node path
+         * @param data the node data
+         * @param stat the node stat
+         */
+        void dataLoaded(ZVLoader loader, String path, byte[] data, Stat stat);
+
+        /**
+         * Called when the stat of a node has been read.
+         * @param loader the loader which issued the request
+         * @param path the node path
+         * @param stat the node stat, or <code>null</code> if the node doesn't
+         *            exist anymore
+         */
+        void statLoaded(ZVLoader loader, String path, Stat stat);
+
+        /**
+         * Called when the children, the data or the stat of a node couldn't be
+         * read.
+         * @param loader the loader which issued the request
+         * @param path the node path
+         * @param code the error code
+         */
+        void requestFailed(ZVLoader loader, String path, Code code);
+
+        /**
+         * Called when the last request in flight has completed.
+         * @param loader the idle loader
+         */
+        void loaderIdle(ZVLoader loader);
+    }
+
+    private enum Kind {
+        CHILDREN("getChildren"), DATA("getData"), STAT("exists");
+
+        /** Name of the ZooKeeper operation, in the metrics. */
+        private final String operation;
+
+        private Kind(String operation) {
+            this.operation = operation;
+        }
+    }
+
+    private final ZooKeeper zk;
+    private final Watcher watcher;
+    private final Sink sink;
+    private final int window;
+    private final ZVMetrics metrics;
+
+    /** Requests waiting for a free slot in the window. */
+    private final LinkedList<Request> pending = new LinkedList<Request>();
+    private int inFlight = 0;
+
+    /**
+     * Creates a loader.
+     * @param zk the ZooKeeper session used to issue requests
+     * @param watcher the watcher set on every loaded node, or <code>null</code>
+     * @param sink the receiver of the results
+     * @param window the maximum number of requests in flight
+     * @param metrics the metrics recording the latency of the requests
+     */
+    ZVLoader(ZooKeeper zk, Watcher watcher, Sink sink, int window,
+            ZVMetrics metrics) {
+        this.zk = zk;
+        this.watcher = watcher;
+        this.sink = sink;
+        this.window = window;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues the listing of the children of the specified node.
+     * @param path the node path
+     */
+    void loadChildren(String path) {
+        submit(new Request(path, Kind.CHILDREN));
+    }
+
+    /**
+     * Queues the reading of the data of the specified node.
+     * @param path the node path
+     */
+    void loadData(String path) {
+        submit(new Request(path, Kind.DATA));
+    }
+
+    /**
+     * Queues the reading of the stat of the specified node, which also sets
+     * the watcher of this loader on it.
+     * @param path the node path
+     */
+    void loadStat(String path) {
+        submit(new Request(path, Kind.STAT));
+    }
+
+    /**
+     * Waits until no request is queued nor in flight.
+     * <p>
+     * Must not be called from the ZooKeeper event thread.
+     * </p>
+     * @throws InterruptedException
+     */
+    synchronized void awaitIdle() throws InterruptedException {
+        while (inFlight > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Checks if no request is queued nor in flight.
+     * @return <code>true</code> if this loader is idle
+     */
+    synchronized boolean isIdle() {
+        return inFlight == 0;
+    }
+
+    /**
+     * Returns the number of requests queued or in flight.
+     * @return the number of requests
+     */
+    synchronized int getQueueDepth() {
+        return pending.size() + inFlight;
+    }
+
+    private void submit(Request request) {
+        synchronized (this) {
+            if (inFlight >= window) {
+                pending.add(request);
+                return;
+            }
+            inFlight++;
+        }
+        request.issue();
+    }
+
+    /**
+     * Frees the slot of a completed request and issues the next queued one.
+     */
+    private void completed() {
+        Request next;
+        synchronized (this) {
+            next = pending.poll();
+            if (next == null) {
+                inFlight--;
+            }
+        }
+        if (next != null) {
+            next.issue();
+        } else if (isIdle()) {
+            sink.loaderIdle(this);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void failed(int rc, String path) {
+        // A node deleted since its parent was listed is reported by its watch
+        if (Code.get(rc) != Code.NONODE) {
+            KeeperException.create(Code.get(rc), path).printStackTrace();
+        }
+        sink.requestFailed(this, path, Code.get(rc));
+    }
+
+    private final class Request implements Children2Callback, DataCallback,
+            StatCallback {
+        private final String path;
+        private final Kind kind;
+        private long start;
+
+        Request(String path, Kind kind) {
+            this.path = path;
+            this.kind = kind;
+        }
+
+        void issue() {
+            start = System.nanoTime();
+            switch (kind) {
+                case CHILDREN:
+                    zk.getChildren(path, watcher, this, null);
+                    break;
+                case DATA:
+                    zk.getData(path, watcher, this, null);
+                    break;
+                case STAT:
+                    zk.exists(path, watcher, this, null);
+                    break;
+            }
+        }
+
+        @Override
+        public void processResult(int rc, String path, Object ctx,
+                List<String> childrenNames, Stat stat) {
+            metrics.operation(kind.operation, start);
+            try {
+                if (rc == Code.OK.intValue()) {
+                    sink.childrenLoaded(ZVLoader.this, path, childrenNames,
+                            stat);
+                } else {
+                    failed(rc, path);
+                }
+            } finally {
+                completed();
+            }
+        }
+
+        @Override
+        public void processResult(int rc, String path, Object ctx,
+                byte[] data, Stat stat) {
+            metrics.operation(kind.operation, start);
+            try {
+                if (rc == Code.OK.intValue()) {
+                    sink.dataLoaded(ZVLoader.this, path, data, stat);
+                } else {
+                    failed(rc, path);
+                }
+            } finally {
+                completed();
+            }
+        }
+
+        @Override
+        public void processResult(int rc, String path, Object ctx, Stat stat) {
+            metrics.operation(kind.operation, start);
+            try {
+                if (rc == Code.OK.intValue()) {
+                    sink.statLoaded(ZVLoader.this, path, stat);
+                } else if (rc == Code.NONODE.intValue()) {
+                    sink.statLoaded(ZVLoader.this, path, null);
+                } else {
+                    failed(rc, path);
+                }
+            } finally {
+                completed();
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.Checksum;
+
+/**
+ * Sequential reader of the jute records of a file, through a window of memory
+ * mapping moved along the file.
+ * <p>
+ * Only the current window is mapped, whatever the size of the file, and the
+ * fields which are skipped are never read. When a checksum is given, every
+ * byte read or skipped from the start of the file is added to it, as by a
+ * <code>CheckedInputStream</code>.
+ * </p>
+ */
+final class ZVMappedInput {
+    /** Size of the mapped window, the maximum size of a field read at once. */
+    private static final int WINDOW = 64 * 1024 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FileChannel channel;
+    private final long size;
+    private final Checksum checksum;
+    private final byte[] scratch;
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+    private long position = 0;
+    /** Position up to which the bytes have been added to the checksum. */
+    private long checked = 0;
+
+    /**
+     * Creates a reader positioned at the start of a file.
+     *
+     * @param channel
+     *            the file, which is not closed by this reader
+     * @param checksum
+     *            the checksum of the bytes read, or <code>null</code>
+     * @throws IOException
+     *             if the file size couldn't be read
+     */
+    ZVMappedInput(FileChannel channel, Checksum checksum) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.checksum = checksum;
+        this.scratch = checksum == null ? null : new byte[64 * 1024];
+    }
+
+    long position() {
+        return position;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Moves to a position of the file. Seeking backward is not allowed with
+     * a checksum.
+     *
+     * @param newPosition
+     *            the new position
+     */
+    void seek(long newPosition) {
+        if ((checksum != null) && (newPosition < checked)) {
+            throw new IllegalArgumentException("Can't seek back to "
+                    + newPosition + " with a checksum");
+        }
+        position = newPosition;
+    }
+
+    /**
+     * Skips bytes, without reading them.
+     *
+     * @param count
+     *            the number of bytes to skip
+     * @throws EOFException
+     *             if the file ends before
+     */
+    void skip(long count) throws EOFException {
+        if (position + count > size) {
+            throw new EOFException();
+        }
+        position += count;
+    }
+
+    int readByte() throws IOException {
+        ensure(1);
+        position++;
+        return window.get();
+    }
+
+    boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    int readInt() throws IOException {
+        ensure(4);
+        position += 4;
+        return window.getInt();
+    }
+
+    long readLong() throws IOException {
+        ensure(8);
+        position += 8;
+        return window.getLong();
+    }
+
+    /**
+     * Reads a jute string.
+     *
+     * @return the string, or <code>null</code>
+     * @throws IOException
+     *             if the file ends before
+     */
+    String readString() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > WINDOW) {
+            throw new IOException("String too long: " + length);
+        }
+        byte[] bytes = new byte[length];
+        readFully(bytes, 0, length);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Skips a jute string or buffer.
+     *
+     * @return its length, <code>-1</code> for <code>null</code>
+     * @throws IOException
+     *             if the file ends before
+     */
+    int skipBuffer() throws IOException {
+        int length = readInt();
+        if (length > 0) {
+            skip(length);
+        }
+        return length;
+    }
+
+    /**
+     * Reads bytes, which may span several windows.
+     */
+    void readFully(byte[] bytes, int offset, int length) throws IOException {
+        if (position + length > size) {
+            throw new EOFException();
+        }
+        while (length > 0) {
+            ensure(1);
+            int count = Math.min(length, window.remaining());
+            window.get(bytes, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Returns the checksum of all the bytes before the current position.
+     *
+     * @return the value of the checksum
+     * @throws IOException
+     *             if the file couldn't be mapped
+     */
+    long getChecksum() throws IOException {
+        digest(position);
+        return checksum.getValue();
+    }
+
+    /**
+     * Positions the window on the current position, mapping the next part of
+     * the file if the field doesn't fit in the current window.
+     */
+    private void ensure(int length) throws IOException {
+        if (position + length > size) {
+            throw new EOFException();
+        }
+        if ((window == null) || (position < windowStart)
+                || (position + length > windowStart + window.limit())) {
+            if (checksum != null) {
+                // The window is about to move past these bytes
+                digest(position);
+            }
+            map(position);
+        }
+        window.position((int) (position - windowStart));
+    }
+
+    private void map(long start) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(WINDOW, size - start));
+        windowStart = start;
+    }
+
+    /**
+     * Adds the bytes up to the specified position to the checksum, mapping
+     * the skipped parts of the file as needed.
+     */
+    private void digest(long end) throws IOException {
+        while (checked < end) {
+            if ((window == null) || (checked < windowStart)
+                    || (checked >= windowStart + window.limit())) {
+                map(checked);
+            }
+            window.position((int) (checked - windowStart));
+            int count = (int) Math.min(Math.min(end - checked,
+                    window.remaining()), scratch.length);
+            window.get(scratch, 0, count);
+            checksum.update(scratch, 0, count);
+            checked += count;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a model, registered as an MBean named
+ * <code>net.isammoc.zooviewer:type=Model,id=&lt;n&gt;</code>.
+ * <p>
+ * Counters and histograms are updated without lock from any thread. Gauges
+ * are read from the model when the MBean is queried.
+ * </p>
+ */
+public final class ZVMetrics implements ZVMetricsMXBean {
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private final ZVModelImpl model;
+    private final ConcurrentMap<String, ZVLatencyHistogram> operations = new ConcurrentHashMap<String, ZVLatencyHistogram>();
+    private final ConcurrentMap<String, ZVLatencyHistogram> listeners = new ConcurrentHashMap<String, ZVLatencyHistogram>();
+    private final AtomicLong watchEventsReceived = new AtomicLong();
+    private final AtomicLong changesApplied = new AtomicLong();
+    /** Start of the pending connection, or <code>0</code> if connected. */
+    private final AtomicLong connectStart = new AtomicLong();
+    private volatile long connectTime = -1;
+    private ObjectName name = null;
+
+    ZVMetrics(ZVModelImpl model) {
+        this.model = model;
+    }
+
+    /**
+     * Records the latency of a ZooKeeper operation.
+     * 
+     * @param operation
+     *            the name of the operation, such as <code>getData</code>
+     * @param start
+     *            the start time of the operation, from
+     *            {@link System#nanoTime()}
+     */
+    void operation(String operation, long start) {
+        histogram(operations, operation).record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records the time spent by a listener handling an event.
+     * 
+     * @param listener
+     *            the listener, named after its top-level class
+     * @param start
+     *            the start time of the dispatch, from {@link System#nanoTime()}
+     */
+    void dispatched(Object listener, long start) {
+        long nanos = System.nanoTime() - start;
+        String className = listener.getClass().getName();
+        int end = className.indexOf('$');
+        String key = className.substring(className.lastIndexOf('.') + 1,
+                end < 0 ? className.length() : end);
+        histogram(listeners, key).record(nanos);
+    }
+
+    /**
+     * Records that the session is connecting, unless it already was.
+     */
+    void connecting() {
+        connectStart.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * Records that the session is connected.
+     */
+    void connected() {
+        long start = connectStart.getAndSet(0);
+        if (start != 0) {
+            connectTime = (System.nanoTime() - start) / 1000;
+        }
+    }
+
+    void watchEventReceived() {
+        watchEventsReceived.incrementAndGet();
+    }
+
+    void changesApplied(int count) {
+        changesApplied.addAndGet(count);
+    }
+
+    /**
+     * Registers the MBean in the platform server.
+     */
+    synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(
+                    "net.isammoc.zooviewer:type=Model,id="
+                            + IDS.incrementAndGet());
+            server.registerMBean(this, objectName);
+            this.name = objectName;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Unregisters the MBean, if registered.
+     */
+    synchronized void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        name = null;
+    }
+
+    /**
+     * Returns the name of the MBean.
+     * 
+     * @return the name, or <code>null</code> if it is not registered
+     */
+    public synchronized ObjectName getName() {
+        return name;
+    }
+
+    @Override
+    public Map<String, ZVLatencySummary> getOperations() {
+        return summarize(operations);
+    }
+
+    @Override
+    public Map<String, ZVLatencySummary> getListenerDispatch() {
+        return summarize(listeners);
+    }
+
+    @Override
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    @Override
+    public long getWatchEventsReceived() {
+        return watchEventsReceived.get();
+    }
+
+    @Override
+    public long getChangesApplied() {
+        return changesApplied.get();
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return model.getPendingRequests();
+    }
+
+    @Override
+    public int getPendingChanges() {
+        return model.getPendingChanges();
+    }
+
+    @Override
+    public int getNodeCount() {
+        return model.getNodeCount();
+    }
+
+    @Override
+    public long getCachedPayloadBytes() {
+        return model.getCachedPayloadBytes();
+    }
+
+    @Override
+    public int getWatchCount() {
+        return model.getWatchCount();
+    }
+
+    private static ZVLatencyHistogram histogram(
+            ConcurrentMap<String, ZVLatencyHistogram> histograms, String key) {
+        ZVLatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            ZVLatencyHistogram created = new ZVLatencyHistogram();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    private static Map<String, ZVLatencySummary> summarize(
+            Map<String, ZVLatencyHistogram> histograms) {
+        Map<String, ZVLatencySummary> summaries = new TreeMap<String, ZVLatencySummary>();
+        for (Map.Entry<String, ZVLatencyHistogram> entry : histograms
+                .entrySet()) {
+            summaries.put(entry.getKey(), entry.getValue().summarize());
+        }
+        return summaries;
+    }
+}
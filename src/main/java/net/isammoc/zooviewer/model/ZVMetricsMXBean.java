@@ -0,0 +1,101 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.util.Map;
+
+/**
+ * Management interface of the metrics of a model. Latencies are in
+ * microseconds.
+ */
+public interface ZVMetricsMXBean {
+    /**
+     * Returns the latencies of the ZooKeeper operations, by operation:
+     * <code>getData</code>, <code>getChildren</code>, <code>exists</code>,
+     * <code>create</code>, <code>setData</code> and <code>delete</code>.
+     * 
+     * @return the latencies of the operations issued so far
+     */
+    Map<String, ZVLatencySummary> getOperations();
+
+    /**
+     * Returns the time spent by the model listeners handling the events, by
+     * listener class: <code>ZVTreeModel</code>, <code>JZVNode</code>...
+     * 
+     * @return the dispatch times
+     */
+    Map<String, ZVLatencySummary> getListenerDispatch();
+
+    /**
+     * Returns the time the last connection to the ensemble took, from the
+     * creation of the session or from the disconnection.
+     * 
+     * @return the time, or <code>-1</code> if not connected yet
+     */
+    long getConnectTime();
+
+    /**
+     * Returns the number of watch events received from ZooKeeper.
+     * 
+     * @return the number of events
+     */
+    long getWatchEventsReceived();
+
+    /**
+     * Returns the number of node creations, deletions and data changes
+     * applied to the model.
+     * 
+     * @return the number of changes
+     */
+    long getChangesApplied();
+
+    /**
+     * Returns the number of read requests queued or in flight.
+     * 
+     * @return the number of requests
+     */
+    int getPendingRequests();
+
+    /**
+     * Returns the number of data changes read but not notified yet, including
+     * the ones delayed by the coalescing window.
+     * 
+     * @return the number of changes
+     */
+    int getPendingChanges();
+
+    /**
+     * Returns the number of existing nodes known to the model, including the
+     * root.
+     * 
+     * @return the number of nodes
+     */
+    int getNodeCount();
+
+    /**
+     * Returns the size of the data held by the model.
+     * 
+     * @return the number of bytes
+     */
+    long getCachedPayloadBytes();
+
+    /**
+     * Returns the number of watches held by the main session.
+     * 
+     * @return the number of watches, or <code>-1</code> unless they are
+     *         restricted to the displayed nodes
+     */
+    int getWatchCount();
+}
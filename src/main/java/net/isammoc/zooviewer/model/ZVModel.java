@@ -64,6 +64,15 @@ public interface ZVModel {
      */
     void deleteNodes(ZVNode[] nodes);
 
+    /**
+     * Deletes a list of nodes and their children in the background, reporting
+     * the progress.
+     * @param roots the roots of the subtrees to be deleted
+     * @param listener the listener notified of the progress, or <code>null</code>
+     * @return the deletion, which may be awaited or cancelled
+     */
+    ZVBulkDelete deleteSubtrees(ZVNode[] roots, ZVProgressListener listener);
+
     /**
      * Returns a {@link ZVNode} corresponding to the specified path.
      * @param path the node path
@@ -80,11 +89,76 @@ public interface ZVModel {
 
     /**
      * Returns the list of child nodes under the specified parent.
+     * <p>
+     * The list is an immutable snapshot sorted by name: its size and
+     * positional access are O(1), and its <code>indexOf</code> is O(log n).
+     * </p>
      * @param parent the parent node 
      * @return the list of child nodes, or an empty list if parent has no children
      */
     List<ZVNode> getChildren(ZVNode parent);
 
+    /**
+     * Ensures the children of the specified node are loaded.
+     * <p>
+     * Models which load the whole tree at startup may ignore this call. Lazy
+     * models fetch the children asynchronously; they are reported through
+     * {@link ZVModelListener#nodesCreated(ZVNode, ZVNode[])}.
+     * </p>
+     * @param node the node about to be expanded
+     */
+    void loadChildren(ZVNode node);
+
+    /**
+     * Ensures the data of the specified node is loaded.
+     * <p>
+     * Models which read the data of every node may ignore this call. Models
+     * which walk the metadata only read the data asynchronously; it is
+     * reported through
+     * {@link ZVModelListener#nodesDataChanged(ZVNode, ZVNode[])}.
+     * </p>
+     * @param node the node about to be displayed
+     */
+    void loadData(ZVNode node);
+
+    /**
+     * Notifies that a view expands or collapses the specified node.
+     * <p>
+     * Models which watch every node may ignore this call. Models which watch
+     * the displayed nodes only release the watches of a collapsed subtree, and
+     * check the nodes shown again by an expansion against their last version.
+     * Calls of several views are counted, so each expansion must be balanced
+     * by a collapse.
+     * </p>
+     * @param node the node
+     * @param expanded <code>true</code> if the node is expanded
+     */
+    void setExpanded(ZVNode node, boolean expanded);
+
+    /**
+     * Notifies that a view selects or deselects the specified node.
+     * <p>
+     * Models which watch the displayed nodes only keep watching a selected
+     * node, even if it is not shown anymore.
+     * </p>
+     * @param node the node
+     * @param selected <code>true</code> if the node is selected
+     */
+    void setSelected(ZVNode node, boolean selected);
+
+    /**
+     * Notifies that a view pages the children of the specified node, and
+     * shows the first ones only.
+     * <p>
+     * Models which watch the displayed nodes only don't watch the children
+     * after them. A view reports the count again each time it changes, and
+     * when it expands the node, before {@link #setExpanded(ZVNode, boolean)}.
+     * </p>
+     * @param node the parent node
+     * @param count the number of children shown
+     */
+    void setShown(ZVNode node, int count);
+
     /**
      * Returns a full path from a parent node and name of child.
      * 
@@ -0,0 +1,424 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.io.File;
+
+import org.apache.zookeeper.common.PathUtils;
+
+/**
+ * Tuning options of a {@link ZVModelImpl}.
+ * <p>
+ * Options can be read from system properties with
+ * {@link #fromSystemProperties()}, so they can be given through
+ * <code>JVMFLAGS</code> in the launch scripts.
+ * </p>
+ */
+public class ZVModelConfig {
+    /** System property enabling the on-demand loading of children. */
+    public static final String LAZY_PROPERTY = "zooviewer.lazy";
+    /** System property defining the maximum number of requests in flight. */
+    public static final String LOAD_WINDOW_PROPERTY = "zooviewer.load.window";
+    /** System property defining the number of extra loading sessions. */
+    public static final String LOADER_SESSIONS_PROPERTY = "zooviewer.loader.sessions";
+    /** System property defining the servers of the extra loading sessions. */
+    public static final String LOADER_SERVERS_PROPERTY = "zooviewer.loader.servers";
+    /** System property enabling the on-demand reading of the data. */
+    public static final String METADATA_ONLY_PROPERTY = "zooviewer.metadataOnly";
+    /** System property defining the size of the data cache, in bytes. */
+    public static final String PAYLOAD_CACHE_PROPERTY = "zooviewer.payload.cache";
+    /** System property defining the root of a subtree under recursive watch. */
+    public static final String RECURSIVE_WATCH_PROPERTY = "zooviewer.watch.recursive";
+    /** System property restricting the watches to the displayed nodes. */
+    public static final String WATCH_SCOPED_PROPERTY = "zooviewer.watch.scoped";
+    /** System property defining the maximum number of watches. */
+    public static final String WATCH_MAX_PROPERTY = "zooviewer.watch.max";
+    /** System property defining the window merging data changes, in ms. */
+    public static final String COALESCE_WINDOW_PROPERTY = "zooviewer.coalesce.window";
+    /** System property defining the file caching the tree between sessions. */
+    public static final String CACHE_FILE_PROPERTY = "zooviewer.cache.file";
+    /** System property enabling the caching of the data between sessions. */
+    public static final String CACHE_DATA_PROPERTY = "zooviewer.cache.data";
+
+    /** Default maximum number of requests in flight while loading. */
+    public static final int DEFAULT_LOAD_WINDOW = 500;
+    /** Default size of the data cache in metadata-only mode, in bytes. */
+    public static final long DEFAULT_PAYLOAD_CACHE = 64L * 1024 * 1024;
+
+    private boolean lazy = false;
+    private int loadWindow = DEFAULT_LOAD_WINDOW;
+    private int loaderSessions = 0;
+    private String[] loaderServers = new String[0];
+    private boolean metadataOnly = false;
+    private long payloadCache = DEFAULT_PAYLOAD_CACHE;
+    private String recursiveWatch = null;
+    private boolean watchScoped = false;
+    private int watchMax = 0;
+    private long coalesceWindow = 0;
+    private File cacheFile = null;
+    private boolean cacheData = false;
+
+    /**
+     * Returns a configuration initialized from the system properties.
+     *
+     * @return the configuration
+     */
+    public static ZVModelConfig fromSystemProperties() {
+        ZVModelConfig config = new ZVModelConfig();
+        config.setLazy(Boolean.getBoolean(LAZY_PROPERTY));
+        config.setLoadWindow(Integer.getInteger(LOAD_WINDOW_PROPERTY,
+                DEFAULT_LOAD_WINDOW));
+        config.setLoaderSessions(Integer.getInteger(LOADER_SESSIONS_PROPERTY,
+                0));
+        String servers = System.getProperty(LOADER_SERVERS_PROPERTY);
+        if (servers != null && servers.trim().length() > 0) {
+            config.setLoaderServers(servers.trim().split("\\s*;\\s*"));
+        }
+        config.setMetadataOnly(Boolean.getBoolean(METADATA_ONLY_PROPERTY));
+        config.setPayloadCache(Long.getLong(PAYLOAD_CACHE_PROPERTY,
+                DEFAULT_PAYLOAD_CACHE));
+        String watched = System.getProperty(RECURSIVE_WATCH_PROPERTY);
+        if (watched != null && watched.trim().length() > 0) {
+            config.setRecursiveWatch(watched.trim());
+        }
+        config.setWatchScoped(Boolean.getBoolean(WATCH_SCOPED_PROPERTY));
+        config.setWatchMax(Integer.getInteger(WATCH_MAX_PROPERTY, 0));
+        config.setCoalesceWindow(Long.getLong(COALESCE_WINDOW_PROPERTY, 0));
+        String cache = System.getProperty(CACHE_FILE_PROPERTY);
+        if (cache != null && cache.trim().length() > 0) {
+            config.setCacheFile(new File(cache.trim()));
+        }
+        config.setCacheData(Boolean.getBoolean(CACHE_DATA_PROPERTY));
+        return config;
+    }
+
+    /**
+     * Checks if children are loaded on demand.
+     *
+     * @return <code>true</code> if only the root and its direct children are
+     *         loaded at startup
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Defines if children are loaded on demand.
+     *
+     * @param lazy
+     *            <code>true</code> to load children on demand,
+     *            <code>false</code> to load the whole tree at startup
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Returns the maximum number of ZooKeeper requests in flight while
+     * loading the tree.
+     *
+     * @return the window size
+     */
+    public int getLoadWindow() {
+        return loadWindow;
+    }
+
+    /**
+     * Defines the maximum number of ZooKeeper requests in flight while
+     * loading the tree.
+     *
+     * @param loadWindow
+     *            the window size, at least 1
+     */
+    public void setLoadWindow(int loadWindow) {
+        if (loadWindow < 1) {
+            throw new IllegalArgumentException("Load window must be positive: "
+                    + loadWindow);
+        }
+        this.loadWindow = loadWindow;
+    }
+
+    /**
+     * Returns the number of extra ZooKeeper sessions used to walk the tree at
+     * startup.
+     *
+     * @return the number of sessions, <code>0</code> if the tree is walked
+     *         through the main session only
+     */
+    public int getLoaderSessions() {
+        return loaderSessions;
+    }
+
+    /**
+     * Defines the number of extra ZooKeeper sessions used to walk the tree at
+     * startup.
+     * <p>
+     * The top-level subtrees are spread over these sessions, which are closed
+     * once the tree is loaded. Ignored in lazy mode.
+     * </p>
+     *
+     * @param loaderSessions
+     *            the number of sessions, <code>0</code> to disable
+     */
+    public void setLoaderSessions(int loaderSessions) {
+        if (loaderSessions < 0) {
+            throw new IllegalArgumentException(
+                    "Loader sessions can't be negative: " + loaderSessions);
+        }
+        this.loaderSessions = loaderSessions;
+    }
+
+    /**
+     * Returns the connection strings of the extra loading sessions.
+     *
+     * @return the connection strings, empty to use the main connection string
+     */
+    public String[] getLoaderServers() {
+        return loaderServers.clone();
+    }
+
+    /**
+     * Defines the connection strings of the extra loading sessions.
+     * <p>
+     * Sessions are assigned to these connection strings in turn, so that the
+     * walk can be spread over several members of the ensemble.
+     * </p>
+     *
+     * @param loaderServers
+     *            the connection strings, empty to use the main connection
+     *            string
+     */
+    public void setLoaderServers(String[] loaderServers) {
+        this.loaderServers = loaderServers.clone();
+    }
+
+    /**
+     * Checks if the tree is walked without reading the data of the nodes.
+     *
+     * @return <code>true</code> if the data is read on demand
+     */
+    public boolean isMetadataOnly() {
+        return metadataOnly;
+    }
+
+    /**
+     * Defines if the tree is walked without reading the data of the nodes.
+     * <p>
+     * In this mode, only the stat and the children of the nodes are read. The
+     * data is read when a view asks for it, and kept in a cache bounded by
+     * {@link #getPayloadCache()}.
+     * </p>
+     *
+     * @param metadataOnly
+     *            <code>true</code> to read the data on demand,
+     *            <code>false</code> to read the data of every node
+     */
+    public void setMetadataOnly(boolean metadataOnly) {
+        this.metadataOnly = metadataOnly;
+    }
+
+    /**
+     * Returns the maximum total size of the data kept in metadata-only mode.
+     *
+     * @return the size, in bytes
+     */
+    public long getPayloadCache() {
+        return payloadCache;
+    }
+
+    /**
+     * Defines the maximum total size of the data kept in metadata-only mode.
+     * The least recently used data is dropped beyond this size.
+     *
+     * @param payloadCache
+     *            the size, in bytes
+     */
+    public void setPayloadCache(long payloadCache) {
+        if (payloadCache < 0) {
+            throw new IllegalArgumentException(
+                    "Payload cache can't be negative: " + payloadCache);
+        }
+        this.payloadCache = payloadCache;
+    }
+
+    /**
+     * Returns the root of the subtree watched with a persistent recursive
+     * watch.
+     *
+     * @return the path, or <code>null</code> if every node has its own
+     *         one-shot watches
+     */
+    public String getRecursiveWatch() {
+        return recursiveWatch;
+    }
+
+    /**
+     * Defines the root of a subtree watched with a single persistent recursive
+     * watch, instead of one-shot watches set on every node and set again after
+     * each change.
+     * <p>
+     * This needs a ZooKeeper 3.6+ server. Otherwise, the model falls back to
+     * one-shot watches.
+     * </p>
+     *
+     * @param recursiveWatch
+     *            the path, <code>"/"</code> for the whole tree, or
+     *            <code>null</code> to disable
+     */
+    public void setRecursiveWatch(String recursiveWatch) {
+        if (recursiveWatch != null) {
+            PathUtils.validatePath(recursiveWatch);
+        }
+        this.recursiveWatch = recursiveWatch;
+    }
+
+    /**
+     * Checks if the watches are restricted to the displayed nodes.
+     *
+     * @return <code>true</code> if only the displayed nodes are watched
+     */
+    public boolean isWatchScoped() {
+        return watchScoped;
+    }
+
+    /**
+     * Defines if the watches are restricted to the displayed nodes.
+     * <p>
+     * In this mode, a node is watched only while it is shown in an expanded
+     * parent or selected, and its children only while it is expanded. The
+     * other nodes are read without watches, and read again when they are
+     * displayed. Nodes under the recursive watch are not concerned.
+     * </p>
+     *
+     * @param watchScoped
+     *            <code>true</code> to watch the displayed nodes only,
+     *            <code>false</code> to watch every loaded node
+     */
+    public void setWatchScoped(boolean watchScoped) {
+        this.watchScoped = watchScoped;
+    }
+
+    /**
+     * Returns the maximum number of watches held when they are restricted to
+     * the displayed nodes.
+     *
+     * @return the number of watches, <code>0</code> for no limit
+     */
+    public int getWatchMax() {
+        return watchMax;
+    }
+
+    /**
+     * Defines the maximum number of watches held when they are restricted to
+     * the displayed nodes. Beyond this number, nodes are displayed without
+     * being watched.
+     *
+     * @param watchMax
+     *            the number of watches, <code>0</code> for no limit
+     */
+    public void setWatchMax(int watchMax) {
+        if (watchMax < 0) {
+            throw new IllegalArgumentException("Watch max can't be negative: "
+                    + watchMax);
+        }
+        this.watchMax = watchMax;
+    }
+
+    /**
+     * Returns the delay during which the data changes of a node are merged.
+     *
+     * @return the window, in milliseconds, <code>0</code> if every change is
+     *         read at once
+     */
+    public long getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    /**
+     * Defines the delay during which the data changes of a node are merged.
+     * <p>
+     * A changed node is read again at the end of the window only, so a node
+     * rewritten many times meanwhile is read once, at its latest version.
+     * </p>
+     * <p>
+     * Only the nodes under the recursive watch are merged: their watch fires
+     * on every change. A one-shot watch is set again by the read only, so it
+     * fires once per window and there is nothing to merge.
+     * </p>
+     *
+     * @param coalesceWindow
+     *            the window, in milliseconds, <code>0</code> to read every
+     *            change at once
+     */
+    public void setCoalesceWindow(long coalesceWindow) {
+        if (coalesceWindow < 0) {
+            throw new IllegalArgumentException(
+                    "Coalesce window can't be negative: " + coalesceWindow);
+        }
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    /**
+     * Returns the file caching the tree between sessions.
+     *
+     * @return the file, or <code>null</code> if the tree is loaded from
+     *         scratch
+     */
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Defines the file caching the tree between sessions.
+     * <p>
+     * The tree is saved on close, once fully loaded. At the next start, the
+     * cached tree is shown at once, then checked against the ensemble: the
+     * stat of every node is read, but only the changed data and the changed
+     * children are read again. The unchanged children are listed again to set
+     * their watch, except in lazy mode, where it is set when their parent is
+     * expanded, and with scoped watches, where it is set when they are
+     * displayed.
+     * </p>
+     *
+     * @param cacheFile
+     *            the file, or <code>null</code> to load the tree from scratch
+     */
+    public void setCacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Checks if the data is cached along with the tree.
+     *
+     * @return <code>true</code> if the data is cached
+     */
+    public boolean isCacheData() {
+        return cacheData;
+    }
+
+    /**
+     * Defines if the data is cached along with the tree.
+     * <p>
+     * Without cached data, the data of every node is read again at start,
+     * unless the model walks the metadata only.
+     * </p>
+     *
+     * @param cacheData
+     *            <code>true</code> to cache the data known to the nodes
+     */
+    public void setCacheData(boolean cacheData) {
+        this.cacheData = cacheData;
+    }
+}
@@ -14,25 +14,38 @@
  */
 package net.isammoc.zooviewer.model;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.event.EventListenerList;
 
+import net.isammoc.zooviewer.node.ZVChildList;
 import net.isammoc.zooviewer.node.ZVNode;
 import net.isammoc.zooviewer.node.ZVNodeImpl;
+import net.isammoc.zooviewer.node.ZVNodeSnapshot;
 
-import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.WatcherType;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.common.PathUtils;
 import org.apache.zookeeper.data.Stat;
@@ -43,14 +56,74 @@ import org.apache.zookeeper.data.Stat;
  * @author franck
  */
 public class ZVModelImpl implements ZVModel {
-   
+    /** Number of locks guarding the children lists. */
+    private static final int LOCK_STRIPES = 64;
+
     protected final EventListenerList listenerList = new EventListenerList();
     private final ZooKeeper zk;
     private final ExecutorService watcherExecutor = Executors
             .newSingleThreadExecutor();
-    private final Map<String, ZVNodeImpl> nodes = new HashMap<String, ZVNodeImpl>();
-    private final Map<ZVNodeImpl, List<ZVNodeImpl>> children = new HashMap<ZVNodeImpl, List<ZVNodeImpl>>();
+    /** Runs the deletions of subtrees, one after the other. */
+    private final ExecutorService deleteExecutor = Executors
+            .newSingleThreadExecutor();
+    private final Map<String, ZVNodeImpl> nodes = new ConcurrentHashMap<String, ZVNodeImpl>();
+    /**
+     * Locks guarding the children of a parent, striped by parent. The children
+     * lists are immutable: they are replaced as a whole, under the lock of
+     * their parent, so that readers need no lock.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    /** Nodes whose children have been requested (lazy mode only). */
+    private final Set<ZVNodeImpl> loaded = Collections
+            .newSetFromMap(new ConcurrentHashMap<ZVNodeImpl, Boolean>());
+    /** Children being loaded, inserted at once when all of them are read. */
+    private final Map<ZVNodeImpl, PendingChildren> pendingChildren = new ConcurrentHashMap<ZVNodeImpl, PendingChildren>();
+    /** Parents listed again because one of their children was deleted. */
+    private final Set<String> relisted = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** Nodes whose data changed, by parent, not notified yet. */
+    private final Map<ZVNodeImpl, Set<ZVNodeImpl>> changedData = new LinkedHashMap<ZVNodeImpl, Set<ZVNodeImpl>>();
+    private int changedDataCount = 0;
+    /** Number of existing nodes, kept for the metrics. */
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    /**
+     * Length of the data held by the nodes, kept for the metrics unless in
+     * metadata-only mode, where the payload cache accounts for it.
+     */
+    private final AtomicLong dataBytes = new AtomicLong();
+    /** Maximum number of data changes notified at once. */
+    private final int batchSize;
+    /** Maximum number of requests in flight of the bulk operations. */
+    private final int window;
+    private final boolean lazy;
+    /** Cache of the data read on demand, metadata-only mode only. */
+    private final ZVPayloadCache payloadCache;
+    /** Nodes whose data is being read on demand. */
+    private final Set<String> fetching = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     private final ZkWatcher watcher;
+    private final LoaderSink sink = new LoaderSink();
+    private final ZVLoader loader;
+    /** Loader of the nodes under the recursive watch, setting no watch. */
+    private final ZVLoader quietLoader;
+    /** Root of the subtree under a recursive watch, or <code>null</code>. */
+    private final String recursiveWatch;
+    /** Watches restricted to the displayed nodes, or <code>null</code>. */
+    private final ZVWatchScope watchScope;
+    /** Merges the data changes of a node, or <code>null</code>. */
+    private final ZVChangeCoalescer coalescer;
+    private final ZVMetrics metrics = new ZVMetrics(this);
+    /** Tree saved between sessions, or <code>null</code>. */
+    private final ZVSnapshotCache snapshotCache;
+    private final boolean cacheData;
+    /** Cached nodes not checked against the ensemble yet. */
+    private final Set<String> reconciling = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** Cached nodes of a lazy model whose children are not watched yet. */
+    private final Set<String> unwatchedChildren = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** <code>true</code> while extra sessions walk the tree. */
+    private volatile boolean walking = false;
 
     private final class ZkWatcher implements Watcher {
         private final Object lock = new Object();
@@ -60,6 +133,26 @@ public class ZVModelImpl implements ZVModel {
         public void process(WatchedEvent event) {
             System.out.println("[" + Thread.currentThread() + "event : "
                     + event);
+            metrics.watchEventReceived();
+            if (watchScope != null) {
+                switch (event.getType()) {
+                    case NodeCreated:
+                    case NodeDataChanged:
+                        watchScope.fired(event.getPath(), true, false);
+                        break;
+                    case NodeChildrenChanged:
+                        watchScope.fired(event.getPath(), false, true);
+                        break;
+                    case NodeDeleted:
+                        watchScope.fired(event.getPath(), true, true);
+                        // The watches of a deleted node are not set again
+                        offerWatches();
+                        break;
+                    default:
+                        // Session events, and watches removed on purpose
+                        break;
+                }
+            }
             switch (event.getType()) {
                 case None:
                     switch (event.getState()) {
@@ -67,6 +160,7 @@ public class ZVModelImpl implements ZVModel {
                         case Expired:
                             System.out.println("[" + Thread.currentThread()
                                     + "Session has expired");
+                            metrics.connecting();
                             synchronized (lock) {
                                 dead = true;
                                 lock.notifyAll();
@@ -75,6 +169,7 @@ public class ZVModelImpl implements ZVModel {
                         case SyncConnected:
                             System.out.println("[" + Thread.currentThread()
                                     + "Connected to the server");
+                            metrics.connected();
                             synchronized (lock) {
                                 dead = false;
                                 lock.notifyAll();
@@ -86,8 +181,9 @@ public class ZVModelImpl implements ZVModel {
                     break;
                 case NodeCreated:
                     System.out.println("Node " + event.getPath() + " created");
-                    // FLE+
-                    // nodeDataChanged(event.getPath());
+                    if (isRecursivelyWatched(event.getPath())) {
+                        nodeCreated(event.getPath());
+                    }
                     break;
                 case NodeChildrenChanged:
                     System.out.println("Children changed for node "
@@ -96,7 +192,11 @@ public class ZVModelImpl implements ZVModel {
                     break;
                 case NodeDeleted:
                     System.out.println("Node " + event.getPath() + " deleted");
-                    nodeDeleted(event.getPath());
+                    if (isRecursivelyWatched(event.getPath())) {
+                        nodeRemoved(event.getPath());
+                    } else {
+                        nodeDeleted(event.getPath());
+                    }
                     break;
                 case NodeDataChanged:
                     System.out.println("Data changed for node "
@@ -107,9 +207,182 @@ public class ZVModelImpl implements ZVModel {
         }
     }
 
+    /**
+     * Receives the nodes fetched by the loader, on the ZooKeeper event thread.
+     */
+    private final class LoaderSink implements ZVLoader.Sink {
+        @Override
+        public void childrenLoaded(ZVLoader loader, String path,
+                List<String> childrenNames, Stat stat) {
+            childrenListed(loader, path, childrenNames, stat);
+        }
+
+        @Override
+        public void dataLoaded(ZVLoader loader, String path, byte[] data,
+                Stat stat) {
+            nodeLoaded(loader, path, data, stat);
+        }
+
+        @Override
+        public void statLoaded(ZVLoader loader, String path, Stat stat) {
+            nodeChecked(loader, path, stat);
+        }
+
+        @Override
+        public void requestFailed(ZVLoader loader, String path, Code code) {
+            nodeMissed(loader, path, code == Code.NONODE);
+        }
+
+        @Override
+        public void loaderIdle(ZVLoader loader) {
+            fireChangedData();
+        }
+    }
+
+    /**
+     * The children of a parent whose data is being read.
+     */
+    private static final class PendingChildren {
+        /** Names of the children whose data is still expected. */
+        private final Set<String> expected = new HashSet<String>();
+        /** Children already read, not inserted yet. */
+        private final Set<ZVNodeImpl> received = new LinkedHashSet<ZVNodeImpl>();
+    }
+
+    /**
+     * Walks the tree at startup through extra sessions, each one loading a
+     * share of the top-level subtrees without watches. Once they are done, the
+     * main session sets its watches and catches up with the changes made
+     * meanwhile.
+     */
+    private final class ParallelPopulation implements Runnable {
+        private final String[] servers;
+        private final int sessions;
+        private final int window;
+
+        ParallelPopulation(String[] servers, int sessions, int window) {
+            this.servers = servers;
+            this.sessions = sessions;
+            this.window = window;
+        }
+
+        @Override
+        public void run() {
+            List<ZooKeeper> helpers = new ArrayList<ZooKeeper>();
+            List<ZVLoader> loaders = new ArrayList<ZVLoader>();
+            try {
+                long start = System.currentTimeMillis();
+                for (int i = 0; i < sessions; i++) {
+                    ZooKeeper helper = new ZooKeeper(
+                            servers[i % servers.length], 3000, new Watcher() {
+                                @Override
+                                public void process(WatchedEvent event) {
+                                    // No watch is set by the helper sessions
+                                }
+                            });
+                    helpers.add(helper);
+                    loaders.add(new ZVLoader(helper, null, sink, window,
+                            metrics));
+                }
+
+                long listed = System.nanoTime();
+                List<String> topLevel = zk.getChildren("/",
+                        watcherFor("/", true));
+                metrics.operation("getChildren", listed);
+                for (int i = 0; i < topLevel.size(); i++) {
+                    loadNode(loaders.get(i % loaders.size()),
+                            getFullPath("/", topLevel.get(i)));
+                }
+                for (ZVLoader helperLoader : loaders) {
+                    helperLoader.awaitIdle();
+                }
+                System.out.println("Tree walked by " + sessions
+                        + " sessions in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (KeeperException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                for (ZooKeeper helper : helpers) {
+                    try {
+                        helper.close();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            armWatches();
+            walking = false;
+        }
+    }
+
     public ZVModelImpl(String connectString) throws IOException {
+        this(connectString, new ZVModelConfig());
+    }
+
+    /**
+     * Creates a model connected to the specified ZooKeeper ensemble.
+     * <p>
+     * In lazy mode, only the root and its direct children are fetched at
+     * startup. The children of any other node are fetched on the first call to
+     * {@link #loadChildren(ZVNode)}.
+     * </p>
+     * <p>
+     * In metadata-only mode, the tree is walked with the stat and the children
+     * of the nodes only. Their data is read on the first call to
+     * {@link #loadData(ZVNode)}, and kept in a cache bounded in size.
+     * </p>
+     * <p>
+     * With scoped watches, only the nodes displayed by the views are watched,
+     * as notified by {@link #setExpanded(ZVNode, boolean)} and
+     * {@link #setSelected(ZVNode, boolean)}.
+     * </p>
+     * <p>
+     * With a cache file, the tree saved by the last session is shown at once,
+     * then checked against the ensemble in the background.
+     * </p>
+     * 
+     * @param connectString
+     *            the ZooKeeper connection string
+     * @param config
+     *            the model options
+     * @throws IOException
+     */
+    public ZVModelImpl(String connectString, ZVModelConfig config)
+            throws IOException {
+        this.lazy = config.isLazy();
+        this.batchSize = config.getLoadWindow();
+        this.window = config.getLoadWindow();
+        this.payloadCache = config.isMetadataOnly() ? new ZVPayloadCache(
+                config.getPayloadCache()) : null;
+        this.watchScope = config.isWatchScoped() ? new ZVWatchScope(nodes,
+                config.getWatchMax()) : null;
+        this.snapshotCache = (config.getCacheFile() != null) ? new ZVSnapshotCache(
+                config.getCacheFile(), connectString) : null;
+        this.cacheData = config.isCacheData();
+        this.coalescer = (config.getCoalesceWindow() > 0) ? new ZVChangeCoalescer(
+                config.getCoalesceWindow(), new ZVChangeCoalescer.Refresher() {
+                    @Override
+                    public void refresh(String path) {
+                        loadNode(loader, path);
+                    }
+                })
+                : null;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.metrics.connecting();
         this.watcher = new ZkWatcher();
         this.zk = new ZooKeeper(connectString, 3000, this.watcher);
+        // Once the session exists, so that a failed one leaks no MBean
+        this.metrics.register();
+        this.loader = new ZVLoader(zk, watcher, sink, config.getLoadWindow(),
+                metrics);
+        this.quietLoader = new ZVLoader(zk, null, sink,
+                config.getLoadWindow(), metrics);
         // s this.watcherExecutor.execute(this.watcher);
 
         System.out.println("[" + Thread.currentThread() + "] AFTER ZK INIT");
@@ -128,8 +401,28 @@ public class ZVModelImpl implements ZVModel {
                 }
             }
         }
-        populateRoot();
-
+        boolean warm = warmStart();
+        if (!warm) {
+            populateRoot();
+        }
+        // Set before the walk, so that no change is missed
+        this.recursiveWatch = (config.getRecursiveWatch() != null)
+                && addRecursiveWatch(config.getRecursiveWatch()) ? config
+                .getRecursiveWatch() : null;
+        if (warm) {
+            reconcile();
+        } else if (!lazy && (config.getLoaderSessions() > 0)) {
+            String[] servers = config.getLoaderServers();
+            if (servers.length == 0) {
+                servers = new String[] { connectString };
+            }
+            // Not settled until the walk is over, even before it starts
+            walking = true;
+            watcherExecutor.execute(new ParallelPopulation(servers, config
+                    .getLoaderSessions(), config.getLoadWindow()));
+        } else {
+            populateChildren("/");
+        }
     }
 
     /*
@@ -139,6 +432,9 @@ public class ZVModelImpl implements ZVModel {
      */
     @Override
     public void close() throws InterruptedException {
+        // A partially loaded tree would be taken as complete at next start
+        boolean settled = !walking && pendingChildren.isEmpty()
+                && (getPendingRequests() == 0);
         System.out.println("Closing ZooKeeper client...");
         zk.close();
         synchronized (watcher.lock) {
@@ -146,7 +442,15 @@ public class ZVModelImpl implements ZVModel {
             watcher.lock.notifyAll();
         }
         System.out.println("Shutting down watcher...");
-        watcherExecutor.shutdown();
+        watcherExecutor.shutdownNow();
+        deleteExecutor.shutdownNow();
+        if (coalescer != null) {
+            coalescer.shutdown();
+        }
+        metrics.unregister();
+        if (snapshotCache != null) {
+            saveCache(settled);
+        }
         System.out.println("Removing listeners...");
         ZVModelListener[] listeners = listenerList
                 .getListeners(ZVModelListener.class);
@@ -156,61 +460,444 @@ public class ZVModelImpl implements ZVModel {
 
         System.out.println("Resetting models...");
         nodes.clear();
-        children.clear();
+        loaded.clear();
+        pendingChildren.clear();
+        relisted.clear();
+        fetching.clear();
+        reconciling.clear();
+        unwatchedChildren.clear();
+        if (payloadCache != null) {
+            payloadCache.clear();
+        }
+        if (watchScope != null) {
+            watchScope.clear();
+        }
+        synchronized (changedData) {
+            changedData.clear();
+        }
         System.out.println("Close done.");
     }
 
+    /**
+     * Loads the tree saved by the last session, and notifies its root.
+     * 
+     * @return <code>true</code> if a tree has been loaded
+     */
+    private boolean warmStart() {
+        if (snapshotCache == null) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        ZVNodeImpl root;
+        try {
+            root = snapshotCache.load(nodes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            root = null;
+        }
+        if (root == null) {
+            nodes.clear();
+            return false;
+        }
+        for (ZVNodeImpl node : nodes.values()) {
+            nodeCount.incrementAndGet();
+            dataBytes.addAndGet(node.getSnapshot().getDataLength());
+            if ((node.getChildrenVersion() != -1) || (node == root)) {
+                loaded.add(node);
+            }
+            if (node.getSnapshot().getVersion() != ZVNodeSnapshot.UNKNOWN_VERSION) {
+                cacheData(node);
+            }
+        }
+        System.out.println(nodes.size() + " nodes loaded from the cache in "
+                + (System.currentTimeMillis() - start) + " ms");
+        fireNodesCreated(null, new ZVNode[] { root });
+        return true;
+    }
+
+    /**
+     * Checks every cached node against the ensemble, parents first, setting
+     * their data watches. A node is checked by its stat, or read again if its
+     * data is needed but not cached. See
+     * {@link #nodeChecked(ZVLoader, String, Stat)}.
+     */
+    private void reconcile() {
+        List<ZVNodeImpl> order = new ArrayList<ZVNodeImpl>(nodes.size());
+        order.add(nodes.get("/"));
+        for (int i = 0; i < order.size(); i++) {
+            ZVChildList children = order.get(i).getChildren();
+            for (int j = 0; j < children.size(); j++) {
+                order.add((ZVNodeImpl) children.get(j));
+            }
+        }
+        for (ZVNodeImpl node : order) {
+            reconciling.add(node.getPath());
+        }
+        for (ZVNodeImpl node : order) {
+            ZVLoader nodeLoader = route(loader, node.getPath(), false);
+            if ((payloadCache == null)
+                    && (node.getSnapshot().getVersion() == ZVNodeSnapshot.UNKNOWN_VERSION)) {
+                // Data not cached, read at once along with the stat
+                nodeLoader.loadData(node.getPath());
+            } else {
+                nodeLoader.loadStat(node.getPath());
+            }
+        }
+    }
+
+    /**
+     * Lists the children of a cached node again if they changed since they
+     * were cached.
+     * <p>
+     * Unchanged children need a listing only to set their watch. Under the
+     * recursive watch, they need none. With scoped watches, it is set when the
+     * node is displayed again. In lazy mode, it is set when the node is
+     * expanded, see {@link #loadChildren(ZVNode)}. Otherwise every parent is
+     * watched, collapsed or not, so that a child created under a cached leaf
+     * is seen: they are listed as soon as the stat is checked. The root is
+     * always shown expanded, so its children are listed at once.
+     * </p>
+     * 
+     * @param loader the loader which read the stat
+     * @param node the cached node
+     * @param stat the current stat of the node
+     */
+    private void reconcileChildren(ZVLoader loader, ZVNodeImpl node, Stat stat) {
+        if (lazy && !loaded.contains(node)) {
+            return;
+        }
+        String path = node.getPath();
+        if ((stat.getPzxid() != node.getChildrenVersion())
+                || (node.getParent() == null)) {
+            route(loader, path, true).loadChildren(path);
+        } else if ((watchScope != null) || isRecursivelyWatched(path)) {
+            return;
+        } else if (lazy) {
+            unwatchedChildren.add(path);
+        } else {
+            route(loader, path, true).loadChildren(path);
+        }
+    }
+
+    /**
+     * Saves the tree in the cache file, unless it is not fully loaded.
+     * 
+     * @param settled <code>true</code> if no loading was in progress
+     */
+    private void saveCache(boolean settled) {
+        ZVNodeImpl root = nodes.get("/");
+        if (!settled || (root == null)) {
+            System.out.println("Tree not fully loaded, cache not saved");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            snapshotCache.save(root, cacheData);
+            System.out.println(nodes.size() + " nodes saved in the cache in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Called when a node has been deleted in the ZooKeeper model.
+     * <p>
+     * The parent is listed again, unless such a listing is already in flight:
+     * all the children deleted meanwhile are then removed at once.
+     * </p>
      * @param path the node path
      */
-    private synchronized void nodeDeleted(String path) {
+    private void nodeDeleted(String path) {
         ZVNodeImpl oldNode = nodes.get(path);
-        if (oldNode != null) {
-            oldNode.setExists(false);
-            oldNode.setStat(null);
-            ZVNodeImpl parent = nodes.get(getParent(path));
-            int oldIndex = children.get(parent).indexOf(oldNode);
-            children.get(parent).remove(oldNode);
-            fireNodeDeleted(oldNode, oldIndex);
+        // Already removed if its parent has been listed since
+        if ((oldNode != null) && oldNode.exists()) {
+            String parentPath = oldNode.getParent().getPath();
+            if (relisted.add(parentPath)) {
+                populateChildren(parentPath);
+            }
+        }
+    }
+
+    /**
+     * Marks a removed node and its descendants as deleted.
+     * <p>
+     * The node must have been marked as deleted and forgotten under the lock
+     * of its parent, so that a node created again at its path is a new one.
+     * Its children are then cleared under its own lock, so the children
+     * inserted meanwhile are discarded as well. No other lock may be held, as
+     * the locks are taken one at a time down the subtree.
+     * </p>
+     * @param node the removed node
+     */
+    private void discard(ZVNodeImpl node) {
+        ZVChildList descendants;
+        synchronized (lockFor(node)) {
+            markExists(node, false);
+            node.setStat(null);
+            dropData(node);
+            if (payloadCache != null) {
+                payloadCache.remove(node);
+            }
+            loaded.remove(node);
+            pendingChildren.remove(node);
+            if (watchScope != null) {
+                watchScope.forget(node);
+            }
+            descendants = node.getChildren();
+            node.setChildren(ZVChildList.EMPTY);
+            for (int i = 0; i < descendants.size(); i++) {
+                ZVNodeImpl child = (ZVNodeImpl) descendants.get(i);
+                markExists(child, false);
+                nodes.remove(child.getPath());
+            }
+        }
+        for (int i = 0; i < descendants.size(); i++) {
+            discard((ZVNodeImpl) descendants.get(i));
         }
     }
 
     /**
      * Called when a node has been updated in the ZooKeeper model.
+     * <p>
+     * With a coalescing window, the node is read at the end of the window,
+     * once for all the changes notified meanwhile.
+     * </p>
      * @param path the node path
      */
-    private synchronized void nodeDataChanged(String path) {
-        ZVNodeImpl node = nodes.get(path);
+    private void nodeDataChanged(String path) {
+        // In metadata-only mode, the data is read again only if a view asks
+        // for it
+        if (coalescer != null) {
+            coalescer.changed(path);
+        } else {
+            loadNode(loader, path);
+        }
+    }
+
+    /**
+     * Reads a node, with its data unless this model walks the metadata only.
+     * @param loader the loader reading the node
+     * @param path the node path
+     */
+    private void loadNode(ZVLoader loader, String path) {
+        if (payloadCache == null) {
+            route(loader, path, false).loadData(path);
+        } else {
+            route(loader, path, false).loadStat(path);
+        }
+    }
+
+    /**
+     * Returns the loader reading the specified node. Extra sessions keep their
+     * own loader, while the main session reads without one-shot watches the
+     * nodes under the recursive watch, and the nodes out of the watch scope.
+     * @param loader the loader which read the parent or the previous state
+     * @param path the node path
+     * @param children <code>true</code> to read the children of the node,
+     *            <code>false</code> to read its data or stat
+     * @return the loader
+     */
+    private ZVLoader route(ZVLoader loader, String path, boolean children) {
+        if ((loader != this.loader) && (loader != quietLoader)) {
+            return loader;
+        }
+        if (isRecursivelyWatched(path)) {
+            return quietLoader;
+        }
+        return (watchScope == null) || watchScope.claim(path, children) ? this.loader
+                : quietLoader;
+    }
+
+    /**
+     * Returns the watcher to set by a synchronous read of the main session.
+     * @param path the node path
+     * @param children <code>true</code> to read the children of the node
+     * @return the watcher, or <code>null</code> to set no watch
+     */
+    private Watcher watcherFor(String path, boolean children) {
+        return route(loader, path, children) == loader ? watcher : null;
+    }
+
+    /**
+     * Checks if the specified node is under the recursive watch.
+     * @param path the node path
+     * @return <code>true</code> if the node changes are notified without
+     *         one-shot watches
+     */
+    private boolean isRecursivelyWatched(String path) {
+        return (recursiveWatch != null)
+                && ("/".equals(recursiveWatch) || path.equals(recursiveWatch) || path
+                        .startsWith(recursiveWatch + "/"));
+    }
+
+    /**
+     * Registers a persistent recursive watch on the specified subtree.
+     * <p>
+     * This needs a ZooKeeper 3.6+ server: an older one rejects the request,
+     * and the subtree is watched with one-shot watches instead.
+     * </p>
+     * @param basePath the root of the watched subtree
+     * @return <code>true</code> if the watch is registered
+     */
+    private boolean addRecursiveWatch(String basePath) {
         try {
-            Stat stat = new Stat();
-            node.setData(zk.getData(path, watcher, stat));
-            node.setStat(stat);
-            fireNodeDataChanged(node);
+            long start = System.nanoTime();
+            zk.addWatch(basePath, watcher, AddWatchMode.PERSISTENT_RECURSIVE);
+            metrics.operation("addWatch", start);
+            System.out.println("Recursive watch set on " + basePath);
+            return true;
         } catch (KeeperException e) {
+            System.err.println("Recursive watches need a ZooKeeper 3.6+"
+                    + " server, falling back to one-shot watches");
             e.printStackTrace();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        return false;
+    }
+
+    /**
+     * Removes the watches which are out of scope, and offers them to the
+     * nodes denied a watch by the budget.
+     */
+    private void releaseWatches() {
+        List<String> dataPaths = new ArrayList<String>();
+        List<String> childPaths = new ArrayList<String>();
+        watchScope.release(dataPaths, childPaths);
+        for (String path : dataPaths) {
+            removeWatch(path, WatcherType.Data);
+        }
+        for (String path : childPaths) {
+            removeWatch(path, WatcherType.Children);
+        }
+        offerWatches();
+    }
+
+    private void removeWatch(String path, WatcherType type) {
+        // Locally as well, so that it is removed even if disconnected
+        zk.removeWatches(path, watcher, type, true, new VoidCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx) {
+                // The watch may have fired meanwhile
+                metrics.operation("removeWatches", (Long) ctx);
+            }
+        }, System.nanoTime());
+    }
+
+    /**
+     * Reads again with a watch the nodes denied one by the budget, as long as
+     * watches are free.
+     */
+    private void offerWatches() {
+        List<ZVNodeImpl> offered = watchScope.offer();
+        if (!offered.isEmpty()) {
+            revalidate(offered);
+        }
+    }
+
+    /**
+     * Checks the nodes shown again against their last version, setting their
+     * watches. The children of the expanded ones are listed again.
+     * @param shown the nodes shown again
+     */
+    private void revalidate(List<ZVNodeImpl> shown) {
+        for (ZVNodeImpl node : shown) {
+            String path = node.getPath();
+            if (!node.exists() || isRecursivelyWatched(path)) {
+                continue;
+            }
+            if (!watchScope.holds(path, false)) {
+                route(loader, path, false).loadStat(path);
+            }
+            if ((!lazy || loaded.contains(node))
+                    && !watchScope.holds(path, true)) {
+                // Only the expanded nodes claim a children watch
+                ZVLoader nodeLoader = route(loader, path, true);
+                if (nodeLoader == loader) {
+                    nodeLoader.loadChildren(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when a node has been created under the recursive watch.
+     * <p>
+     * The node is read and inserted under its parent, unless the children of
+     * its parent are not loaded yet: only the stat of the parent is read again
+     * then.
+     * </p>
+     * @param path the node path
+     */
+    private void nodeCreated(String path) {
+        ZVNodeImpl parent = nodes.get(getParent(path));
+        if ((parent == null) || !parent.exists()) {
+            return;
+        }
+        if (lazy && !loaded.contains(parent)) {
+            quietLoader.loadStat(parent.getPath());
+        } else {
+            loadNode(quietLoader, path);
+        }
+    }
+
+    /**
+     * Called when a node has been deleted under the recursive watch: the node
+     * is removed from its parent straight away.
+     * @param path the node path
+     */
+    private void nodeRemoved(String path) {
+        ZVNodeImpl node = nodes.get(path);
+        if ((node == null) || !node.exists()) {
+            return;
+        }
+        ZVNodeImpl parent = node.getParent();
+        synchronized (lockFor(parent)) {
+            ZVChildList siblings = parent.getChildren();
+            int index = siblings.indexOf(node);
+            if (index < 0) {
+                return;
+            }
+            int[] indices = new int[] { index };
+            parent.setChildren(siblings.without(indices, 1));
+            markExists(node, false);
+            nodes.remove(node.getPath());
+            metrics.changesApplied(1);
+            fireNodesDeleted(parent, new ZVNode[] { node }, indices);
+        }
+        discard(node);
+    }
+
+    /**
+     * Adds the data of a node to the cache, in metadata-only mode.
+     * @param node the node whose data has been read
+     */
+    private void cacheData(ZVNodeImpl node) {
+        if (payloadCache != null) {
+            payloadCache.put(node, node.getSnapshot().getDataLength());
+        }
     }
 
     /**
      * Populates the root in this model.
      * @param path the node path
      */
-    private synchronized void populateRoot() {
+    private void populateRoot() {
         if (nodes.get("/") == null) {
             try {
                 System.out.println("[" + Thread.currentThread()
                         + "Populating root..");
                 Stat stat = new Stat();
-                ZVNodeImpl root = new ZVNodeImpl("/", zk.getData("/", watcher,
-                        stat));
-                root.setStat(stat);
+                long start = System.nanoTime();
+                byte[] data = zk.getData("/", watcherFor("/", false), stat);
+                metrics.operation("getData", start);
+                ZVNodeImpl root = new ZVNodeImpl("/", null);
+                update(root, data, stat);
                 nodes.put("/", root);
-                children.put(root, new ArrayList<ZVNodeImpl>());
-                fireNodeCreated(root);
-                populateChildren("/");
+                nodeCount.incrementAndGet();
+                loaded.add(root);
+                fireNodesCreated(null, new ZVNode[] { root });
             } catch (KeeperException e) {
                 e.printStackTrace();
             } catch (InterruptedException e) {
@@ -221,53 +908,376 @@ public class ZVModelImpl implements ZVModel {
 
     /**
      * Populates the children of the specified path.
+     * <p>
+     * The children are listed asynchronously, see
+     * {@link #childrenListed(String, List, Stat)}.
+     * </p>
      * @param path
      */
-    private synchronized void populateChildren(String path) {
-        ChildrenCallback cb = new ChildrenCallback() {
+    private void populateChildren(String path) {
+        route(loader, path, true).loadChildren(path);
+    }
 
-            @Override
-            public void processResult(int rc, String path, Object ctx,
-                    List<String> childrenNames) {
-                ZVNodeImpl parent = nodes.get(path);
-                Stat stat = new Stat();
-                try {
-                    parent.setStat(zk.exists(path, false));
-                } catch (Exception ignore) {
-                    ignore.printStackTrace();
+    /**
+     * Returns the lock guarding the children of the specified parent.
+     * @param parent the parent node
+     * @return the lock
+     */
+    private Object lockFor(ZVNodeImpl parent) {
+        return locks[(parent.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    /**
+     * Called when the children of a node have been listed.
+     * <p>
+     * The listed names are diffed against the known children in a single
+     * pass: the children which are not listed anymore are removed at once, and
+     * only the data of the new children is requested.
+     * </p>
+     * @param loader the loader which listed the children
+     * @param path the parent path
+     * @param childrenNames the names of the children
+     * @param stat the parent stat
+     */
+    private void childrenListed(ZVLoader loader, String path,
+            List<String> childrenNames, Stat stat) {
+        relisted.remove(path);
+        if (loader == this.loader) {
+            unwatchedChildren.remove(path);
+        }
+        ZVNodeImpl parent = nodes.get(path);
+        if (parent == null) {
+            return;
+        }
+        List<ZVNodeImpl> removed = Collections.emptyList();
+        synchronized (lockFor(parent)) {
+            if (parent.exists()) {
+                removed = diffChildren(loader, parent, childrenNames, stat);
+            }
+        }
+        for (ZVNodeImpl child : removed) {
+            discard(child);
+        }
+    }
+
+    /**
+     * Diffs the listed children against the known ones.
+     * <p>
+     * Must be called under the lock of the parent. The removed children are
+     * marked as deleted, and left to {@link #discard(ZVNodeImpl)} once the
+     * lock is released.
+     * </p>
+     * @return the removed children
+     */
+    private List<ZVNodeImpl> diffChildren(ZVLoader loader, ZVNodeImpl parent,
+            List<String> childrenNames, Stat stat) {
+        parent.setStat(stat);
+        parent.setChildrenVersion(stat.getPzxid());
+
+        // After this loop, only the new names are left
+        Set<String> added = new HashSet<String>(childrenNames);
+        ZVChildList siblings = parent.getChildren();
+        List<ZVNodeImpl> removed = new ArrayList<ZVNodeImpl>();
+        int[] removedIndices = new int[siblings.size()];
+        for (int i = 0; i < siblings.size(); i++) {
+            ZVNode child = siblings.get(i);
+            if (!added.remove(child.getName())) {
+                removedIndices[removed.size()] = i;
+                removed.add((ZVNodeImpl) child);
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            parent.setChildren(siblings.without(removedIndices, removed.size()));
+            for (ZVNodeImpl child : removed) {
+                markExists(child, false);
+                nodes.remove(child.getPath());
+            }
+            metrics.changesApplied(removed.size());
+            fireNodesDeleted(parent,
+                    removed.toArray(new ZVNode[removed.size()]),
+                    Arrays.copyOf(removedIndices, removed.size()));
+        }
+
+        if (!added.isEmpty()) {
+            PendingChildren pending = pendingChildren.get(parent);
+            if (pending == null) {
+                pending = new PendingChildren();
+                pendingChildren.put(parent, pending);
+            }
+            for (String childName : added) {
+                String childPath = getFullPath(parent.getPath(), childName);
+                if (!pending.expected.contains(childName)
+                        && !pending.received.contains(nodes.get(childPath))) {
+                    pending.expected.add(childName);
+                    loadNode(loader, childPath);
                 }
-                for (String childName : childrenNames) {
-                    try {
-                        String childPath = getFullPath(path, childName);
-                        ZVNodeImpl child = nodes.get(childPath);
-                        if (child != null) {
-                            if (!child.exists()) {
-                                child.setData(zk.getData(childPath, watcher,
-                                        stat));
-                                child.setStat(stat);
-                                child.setExists(true);
-                                children.put(child, new ArrayList<ZVNodeImpl>());
-                                children.get(parent).add(child);
-                                fireNodeCreated(child);
-                                populateChildren(childPath);
-                            }
-                        } else {
-                            child = new ZVNodeImpl(childPath, zk.getData(
-                                    childPath, watcher, stat));
-                            child.setStat(stat);
-                            nodes.put(childPath, child);
-                            children.put(child, new ArrayList<ZVNodeImpl>());
-                            children.get(parent).add(child);
-                            fireNodeCreated(child);
-                            populateChildren(childPath);
-                        }
-                    } catch (Exception ignore) {
-                        ignore.printStackTrace();
-                    }
+            }
+            if (pending.expected.isEmpty()) {
+                insertChildren(loader, parent, pending);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Called when the data of a node has been read.
+     * <p>
+     * An existing node is updated. Otherwise the node is added under its
+     * parent, along with the other children listed at the same time.
+     * </p>
+     * @param loader the loader which read the data
+     * @param path the node path
+     * @param data the node data
+     * @param stat the node stat
+     */
+    private void nodeLoaded(ZVLoader loader, String path, byte[] data,
+            Stat stat) {
+        fetching.remove(path);
+        boolean cached = reconciling.remove(path);
+        ZVNodeImpl child = nodes.get(path);
+        if ((child != null) && child.exists()) {
+            update(child, data, stat);
+            cacheData(child);
+            dataChanged(child);
+            if (cached) {
+                reconcileChildren(loader, child, stat);
+            }
+            return;
+        }
+        nodeFound(loader, path, data, stat, true);
+    }
+
+    /**
+     * Adds a node which has just been read under its parent, along with the
+     * other children listed at the same time.
+     * @param loader the loader which read the node
+     * @param path the node path
+     * @param data the node data
+     * @param stat the node stat
+     * @param withData <code>false</code> if only the stat has been read
+     */
+    private void nodeFound(ZVLoader loader, String path, byte[] data,
+            Stat stat, boolean withData) {
+        ZVNodeImpl parent = nodes.get(getParent(path));
+        if (parent == null) {
+            return;
+        }
+        synchronized (lockFor(parent)) {
+            if (!parent.exists()) {
+                return;
+            }
+            // The children of a parent are only created under its lock
+            ZVNodeImpl child = nodes.get(path);
+            if (child == null) {
+                child = new ZVNodeImpl(parent,
+                        path.substring(path.lastIndexOf('/') + 1));
+                nodes.put(path, child);
+            }
+            if (withData) {
+                update(child, data, stat);
+                cacheData(child);
+            } else {
+                child.setStat(stat);
+            }
+
+            PendingChildren pending = pendingChildren.get(parent);
+            if ((pending != null) && pending.expected.remove(child.getName())) {
+                pending.received.add(child);
+                if (pending.expected.isEmpty()) {
+                    insertChildren(loader, parent, pending);
+                }
+            } else if (!child.exists()
+                    && ((pending == null) || !pending.received.contains(child))) {
+                pending = new PendingChildren();
+                pending.received.add(child);
+                insertChildren(loader, parent, pending);
+            }
+        }
+    }
+
+    /**
+     * Called when the data of a node couldn't be read, typically because it
+     * has been deleted since its parent was listed.
+     * <p>
+     * A new child missed for another reason makes the children of its parent
+     * incomplete, so they are never cached as up to date.
+     * </p>
+     * @param loader the loader which issued the request
+     * @param path the node path
+     * @param deleted <code>true</code> if the node doesn't exist anymore
+     */
+    private void nodeMissed(ZVLoader loader, String path, boolean deleted) {
+        relisted.remove(path);
+        fetching.remove(path);
+        if (reconciling.remove(path) && deleted) {
+            // Deleted since it was cached
+            nodeDeleted(path);
+            return;
+        }
+        if ("/".equals(path)) {
+            return;
+        }
+        ZVNodeImpl parent = nodes.get(getParent(path));
+        if (parent == null) {
+            return;
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        synchronized (lockFor(parent)) {
+            PendingChildren pending = pendingChildren.get(parent);
+            if ((pending != null) && pending.expected.remove(name)) {
+                if (!deleted) {
+                    parent.setChildrenVersion(-1);
+                }
+                if (pending.expected.isEmpty()) {
+                    insertChildren(loader, parent, pending);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a data change, notified along with the other changes under the
+     * same parent when the loader is idle or when enough changes are pending.
+     * @param node the changed node
+     */
+    private void dataChanged(ZVNodeImpl node) {
+        ZVNodeImpl parent = node.getParent();
+        boolean full;
+        synchronized (changedData) {
+            Set<ZVNodeImpl> changed = changedData.get(parent);
+            if (changed == null) {
+                changed = new LinkedHashSet<ZVNodeImpl>();
+                changedData.put(parent, changed);
+            }
+            full = changed.add(node) && (++changedDataCount >= batchSize);
+        }
+        metrics.changesApplied(1);
+        if (full) {
+            fireChangedData();
+        }
+    }
+
+    /**
+     * Notifies the pending data changes, once per parent. Nodes deleted since
+     * their change are skipped.
+     */
+    private void fireChangedData() {
+        List<Map.Entry<ZVNodeImpl, Set<ZVNodeImpl>>> batches;
+        synchronized (changedData) {
+            if (changedData.isEmpty()) {
+                return;
+            }
+            batches = new ArrayList<Map.Entry<ZVNodeImpl, Set<ZVNodeImpl>>>(
+                    changedData.entrySet());
+            changedData.clear();
+            changedDataCount = 0;
+        }
+        for (Map.Entry<ZVNodeImpl, Set<ZVNodeImpl>> batch : batches) {
+            List<ZVNode> changed = new ArrayList<ZVNode>(batch.getValue()
+                    .size());
+            for (ZVNodeImpl node : batch.getValue()) {
+                if (node.exists()) {
+                    changed.add(node);
                 }
             }
-        };
-        zk.getChildren(path, watcher, cb, null);
+            if (!changed.isEmpty()) {
+                fireNodesDataChanged(batch.getKey(),
+                        changed.toArray(new ZVNode[changed.size()]));
+            }
+        }
+    }
+
+    /**
+     * Inserts the children read so far under their parent, and notifies the
+     * listeners once. Unless this model is lazy, their children are populated.
+     * <p>
+     * Must be called under the lock of the parent.
+     * </p>
+     * @param loader the loader which read the children
+     * @param parent the parent node
+     * @param pending the children read
+     */
+    private void insertChildren(ZVLoader loader, ZVNodeImpl parent,
+            PendingChildren pending) {
+        if (pendingChildren.get(parent) == pending) {
+            pendingChildren.remove(parent);
+        }
+        if (pending.received.isEmpty() || !parent.exists()) {
+            return;
+        }
+        for (ZVNodeImpl child : pending.received) {
+            markExists(child, true);
+        }
+        parent.setChildren(parent.getChildren().with(pending.received));
+        metrics.changesApplied(pending.received.size());
+        fireNodesCreated(parent, pending.received
+                .toArray(new ZVNode[pending.received.size()]));
+        if (!lazy) {
+            for (ZVNodeImpl child : pending.received) {
+                route(loader, child.getPath(), true).loadChildren(
+                        child.getPath());
+            }
+        }
+    }
+
+    /**
+     * Called when the stat of a node has been read.
+     * <p>
+     * In metadata-only mode, a new node is added under its parent, and a
+     * change of stat makes the cached data of a node stale. Otherwise, the
+     * node data is read again if it changed since it was loaded.
+     * </p>
+     * <p>
+     * The children of a node loaded from the cache are listed again if needed,
+     * see {@link #reconcileChildren(ZVLoader, ZVNodeImpl, Stat)}.
+     * </p>
+     * @param loader the loader which read the stat
+     * @param path the node path
+     * @param stat the node stat, or <code>null</code> if it has been deleted
+     */
+    private void nodeChecked(ZVLoader loader, String path, Stat stat) {
+        boolean cached = reconciling.remove(path);
+        ZVNodeImpl node = nodes.get(path);
+        if ((node == null) || !node.exists()) {
+            if (stat == null) {
+                nodeMissed(loader, path, true);
+            } else if (payloadCache != null) {
+                nodeFound(loader, path, null, stat, false);
+            }
+            return;
+        }
+        if (stat == null) {
+            nodeDeleted(path);
+        } else if (stat.getMzxid() == node.getSnapshot().getVersion()) {
+            node.setStat(stat);
+        } else if (payloadCache == null) {
+            route(loader, path, false).loadData(path);
+        } else if (!node.getSnapshot().hasStat(stat)) {
+            // Stale data is dropped, and read again if a view asks for it
+            payloadCache.remove(node);
+            dropData(node);
+            node.setStat(stat);
+            dataChanged(node);
+        }
+        if (cached && (stat != null)) {
+            reconcileChildren(loader, node, stat);
+        }
+    }
+
+    /**
+     * Sets the watches of the main session on every node loaded by other
+     * sessions, and catches up with the changes they missed.
+     */
+    private void armWatches() {
+        List<ZVNodeImpl> loadedNodes = new ArrayList<ZVNodeImpl>(
+                nodes.values());
+        for (ZVNodeImpl node : loadedNodes) {
+            if (!"/".equals(node.getPath())) {
+                route(loader, node.getPath(), false).loadStat(node.getPath());
+            }
+            route(loader, node.getPath(), true).loadChildren(node.getPath());
+        }
     }
 
     /*
@@ -312,9 +1322,11 @@ public class ZVModelImpl implements ZVModel {
         }
 
         try {
+            long start = System.nanoTime();
             zk.create(path, data,
                     org.apache.zookeeper.ZooDefs.Ids.OPEN_ACL_UNSAFE,
                     CreateMode.PERSISTENT);
+            metrics.operation("create", start);
         } catch (KeeperException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
@@ -322,52 +1334,62 @@ public class ZVModelImpl implements ZVModel {
         }
     }
 
+    /**
+     * Deletes a node and its descendants in the background, see
+     * {@link #deleteSubtrees(ZVNode[], ZVProgressListener)}.
+     */
     @Override
     public void deleteNode(ZVNode node) {
-        String path = node.getPath();
-        System.out.println("Delete requested on node " + path);
-        PathUtils.validatePath(path);
-        try {
-            // Checks if the node has children
-            List<String> childNodes = zk.getChildren(path, false);
-            if (childNodes != null && childNodes.size() > 0) {
-                // if the node has children, delete them recursively
-                for (Iterator<String> iterator = childNodes.iterator(); iterator
-                        .hasNext();) {
-                    String nodeName = (String) iterator.next();
-                    String childPath = path + (path.endsWith("/") ? "" : "/")
-                            + nodeName;
-                    deleteNode(getNode(childPath));
-                }
-            }
-            // finally, delete the node itself
-            Stat stat = zk.exists(path, false);
-            System.out.println("Deleting node " + path + "(stat =  " + stat);
-            zk.delete(path, -1);
-            Stat stat2 = zk.exists(path, false);
-            System.out.println("Deleting node " + path + "(stat = " + stat2);
-        } catch (KeeperException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
+        deleteSubtrees(new ZVNode[] { node }, null);
     }
 
+    /**
+     * Deletes nodes and their descendants in the background, see
+     * {@link #deleteSubtrees(ZVNode[], ZVProgressListener)}.
+     */
     @Override
     public void deleteNodes(ZVNode[] nodes) {
-        for (int i = 0; i < nodes.length; i++) {
-            deleteNode(nodes[i]);
-        }
+        deleteSubtrees(nodes, null);
+    }
 
+    /**
+     * Deletes nodes and their descendants in the background, with pipelined
+     * requests. The deletions are run one after the other, and their nodes
+     * are removed from this model as their watches fire.
+     * 
+     * @param roots
+     *            the roots of the subtrees
+     * @param listener
+     *            the listener notified of the progress, or <code>null</code>
+     * @return the deletion, which may be awaited or cancelled
+     * @see ZVBulkDelete
+     */
+    @Override
+    public ZVBulkDelete deleteSubtrees(ZVNode[] roots,
+            ZVProgressListener listener) {
+        String[] paths = new String[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            paths[i] = roots[i].getPath();
+            PathUtils.validatePath(paths[i]);
+            System.out.println("Delete requested on node " + paths[i]);
+        }
+        ZVBulkDelete deletion = new ZVBulkDelete(zk, nodes, paths, window,
+                metrics, listener);
+        deleteExecutor.execute(deletion);
+        return deletion;
     }
 
     @Override
     public void updateData(String path, byte[] data) {
         try {
+            long start = System.nanoTime();
             Stat stat = zk.setData(path, data, -1);
-            nodes.get(path).setStat(stat);
+            metrics.operation("setData", start);
+            ZVNodeImpl node = nodes.get(path);
+            if (node != null) {
+                // Unless deleted meanwhile
+                node.setStat(stat);
+            }
         } catch (KeeperException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
@@ -375,6 +1397,248 @@ public class ZVModelImpl implements ZVModel {
         }
     }
 
+    @Override
+    public void loadChildren(ZVNode node) {
+        ZVNodeImpl parent = nodes.get(node.getPath());
+        if ((parent == null) || !parent.exists()) {
+            return;
+        }
+        if (lazy && loaded.add(parent)) {
+            populateChildren(parent.getPath());
+        } else if (unwatchedChildren.remove(parent.getPath())) {
+            // Cached children, listed again to set their watch
+            loader.loadChildren(parent.getPath());
+        }
+    }
+
+    @Override
+    public void loadData(ZVNode node) {
+        if (payloadCache == null) {
+            return;
+        }
+        ZVNodeImpl cached = nodes.get(node.getPath());
+        if ((cached == null) || !cached.exists()) {
+            return;
+        }
+        if (cached.getSnapshot().getVersion() != ZVNodeSnapshot.UNKNOWN_VERSION) {
+            payloadCache.hit(cached);
+        } else if (fetching.add(cached.getPath())) {
+            payloadCache.miss();
+            route(loader, cached.getPath(), false).loadData(cached.getPath());
+        }
+    }
+
+    @Override
+    public void setExpanded(ZVNode node, boolean expanded) {
+        if (watchScope == null) {
+            return;
+        }
+        ZVNodeImpl expandedNode = nodes.get(node.getPath());
+        // A deleted node has been forgotten by the scope
+        if ((expandedNode != node) || !expandedNode.exists()) {
+            return;
+        }
+        if (expanded) {
+            revalidate(watchScope.setExpanded(expandedNode, true));
+        } else {
+            watchScope.setExpanded(expandedNode, false);
+            releaseWatches();
+        }
+    }
+
+    @Override
+    public void setSelected(ZVNode node, boolean selected) {
+        if (watchScope == null) {
+            return;
+        }
+        ZVNodeImpl selectedNode = nodes.get(node.getPath());
+        if ((selectedNode != node) || !selectedNode.exists()) {
+            return;
+        }
+        if (watchScope.setSelected(selectedNode, selected)) {
+            revalidate(Collections.singletonList(selectedNode));
+        } else if (!selected) {
+            releaseWatches();
+        }
+    }
+
+    @Override
+    public void setShown(ZVNode node, int count) {
+        if (watchScope == null) {
+            return;
+        }
+        ZVNodeImpl parent = nodes.get(node.getPath());
+        if ((parent != node) || !parent.exists()) {
+            return;
+        }
+        List<ZVNodeImpl> shown = watchScope.setShown(parent, count);
+        if (shown.isEmpty()) {
+            releaseWatches();
+        } else {
+            revalidate(shown);
+        }
+    }
+
+    /**
+     * Writes a subtree to a file, streamed while it is read. This call blocks
+     * until the whole subtree is written, and shouldn't be made from the event
+     * dispatch thread.
+     * 
+     * @param path
+     *            the path of the root of the subtree
+     * @param file
+     *            the file
+     * @param withStat
+     *            <code>true</code> to store the stat of the nodes
+     * @param listener
+     *            the listener notified of the progress, or <code>null</code>
+     * @return the number of nodes exported
+     * @throws IOException
+     *             if the file couldn't be written
+     * @throws KeeperException
+     *             if a node couldn't be read
+     * @throws InterruptedException
+     *             if the export was interrupted
+     * @see ZVSubtreeExport
+     */
+    public long exportSubtree(String path, File file, boolean withStat,
+            ZVProgressListener listener) throws IOException,
+            KeeperException, InterruptedException {
+        return new ZVSubtreeExport(zk, window, metrics).export(path, file,
+                withStat, listener);
+    }
+
+    /**
+     * Creates the nodes of a subtree written by
+     * {@link #exportSubtree(String, File, boolean, ZVProgressListener)}, with
+     * pipelined creations. This call blocks until the whole subtree is
+     * created, and shouldn't be made from the event dispatch thread.
+     * 
+     * @param file
+     *            the file
+     * @param path
+     *            the path of the root of the subtree, or <code>null</code>
+     *            for the path it was exported from
+     * @param listener
+     *            the listener notified of the progress, or <code>null</code>
+     * @return the number of nodes created, existing nodes being left
+     *         unchanged
+     * @throws IOException
+     *             if the file couldn't be read
+     * @throws KeeperException
+     *             if a node couldn't be created
+     * @throws InterruptedException
+     *             if the import was interrupted
+     * @see ZVSubtreeImport
+     */
+    public long importSubtree(File file, String path,
+            ZVProgressListener listener) throws IOException, KeeperException,
+            InterruptedException {
+        return new ZVSubtreeImport(zk, window, metrics).importTo(file, path,
+                listener);
+    }
+
+    /**
+     * Returns the number of watches held by the main session.
+     * 
+     * @return the number of watches, or <code>-1</code> unless they are
+     *         restricted to the displayed nodes
+     */
+    public int getWatchCount() {
+        return watchScope == null ? -1 : watchScope.getCount();
+    }
+
+    /**
+     * Returns the metrics of this model, also registered over JMX.
+     * 
+     * @return the metrics
+     */
+    public ZVMetrics getMetrics() {
+        return metrics;
+    }
+
+    int getPendingRequests() {
+        return loader.getQueueDepth() + quietLoader.getQueueDepth();
+    }
+
+    int getPendingChanges() {
+        int pending;
+        synchronized (changedData) {
+            pending = changedDataCount;
+        }
+        return pending + ((coalescer == null) ? 0 : coalescer.getPending());
+    }
+
+    /**
+     * Returns the number of existing nodes, leaving out the nodes read but not
+     * inserted under their parent yet.
+     */
+    int getNodeCount() {
+        return nodeCount.get();
+    }
+
+    /**
+     * Returns the size of the data held by the nodes: the cache size in
+     * metadata-only mode, otherwise the sum of the data of every node.
+     */
+    long getCachedPayloadBytes() {
+        if (payloadCache != null) {
+            return payloadCache.getBytes();
+        }
+        return dataBytes.get();
+    }
+
+    /**
+     * Marks a node as existing or deleted, counting it.
+     */
+    private void markExists(ZVNodeImpl node, boolean exists) {
+        if (node.setExists(exists)) {
+            nodeCount.addAndGet(exists ? 1 : -1);
+        }
+    }
+
+    /**
+     * Updates a node with its data and stat freshly read, accounting for its
+     * data.
+     */
+    private void update(ZVNodeImpl node, byte[] data, Stat stat) {
+        dataBytes.addAndGet(node.update(data, stat));
+    }
+
+    /**
+     * Drops the data of a node, accounting for it.
+     */
+    private void dropData(ZVNodeImpl node) {
+        dataBytes.addAndGet(-node.dropData());
+    }
+
+    /**
+     * Records the time spent by a listener handling an event.
+     */
+    private void dispatched(Object listener, long start) {
+        metrics.dispatched(listener, start);
+    }
+
+    /**
+     * Returns the cache of the data read on demand.
+     * 
+     * @return the cache, or <code>null</code> unless this model walks the
+     *         metadata only
+     */
+    public ZVPayloadCache getPayloadCache() {
+        return payloadCache;
+    }
+
+    /**
+     * Returns the stage merging the data changes of a node.
+     * 
+     * @return the coalescer, or <code>null</code> if every change is read at
+     *         once
+     */
+    public ZVChangeCoalescer getCoalescer() {
+        return coalescer;
+    }
+
     @Override
     public ZVNode getNode(String path) {
         return nodes.get(path);
@@ -382,18 +1646,16 @@ public class ZVModelImpl implements ZVModel {
 
     @Override
     public ZVNode getParent(ZVNode node) {
-        return getNode(getParent(node.getPath()));
+        return node.getParent();
     }
 
     @Override
     public List<ZVNode> getChildren(ZVNode parent) {
-        List<ZVNode> nodes = new ArrayList<ZVNode>();
-        for (ZVNode node : children.get(parent)) {
-            if (node.exists()) {
-                nodes.add(node);
-            }
+        // Only existing children are published
+        if (parent instanceof ZVNodeImpl) {
+            return ((ZVNodeImpl) parent).getChildren();
         }
-        return nodes;
+        return ZVChildList.EMPTY;
     }
 
     @Override
@@ -406,39 +1668,48 @@ public class ZVModelImpl implements ZVModel {
         listenerList.remove(ZVModelListener.class, listener);
     }
 
-    protected void fireNodeCreated(ZVNode newNode) {
+    protected void fireNodesCreated(ZVNode parent, ZVNode[] newNodes) {
         // Guaranteed to return a non-null array
         Object[] listeners = listenerList.getListenerList();
         // Process the listeners last to first, notifying
         // those that are interested in this event
         for (int i = listeners.length - 2; i >= 0; i -= 2) {
             if (listeners[i] == ZVModelListener.class) {
-                ((ZVModelListener) listeners[i + 1]).nodeCreated(newNode);
+                long start = System.nanoTime();
+                ((ZVModelListener) listeners[i + 1]).nodesCreated(parent,
+                        newNodes);
+                dispatched(listeners[i + 1], start);
             }
         }
     }
 
-    protected void fireNodeDeleted(ZVNode oldNode, int oldIndex) {
+    protected void fireNodesDeleted(ZVNode parent, ZVNode[] oldNodes,
+            int[] oldIndices) {
         // Guaranteed to return a non-null array
         Object[] listeners = listenerList.getListenerList();
         // Process the listeners last to first, notifying
         // those that are interested in this event
         for (int i = listeners.length - 2; i >= 0; i -= 2) {
             if (listeners[i] == ZVModelListener.class) {
-                ((ZVModelListener) listeners[i + 1]).nodeDeleted(oldNode,
-                        oldIndex);
+                long start = System.nanoTime();
+                ((ZVModelListener) listeners[i + 1]).nodesDeleted(parent,
+                        oldNodes, oldIndices);
+                dispatched(listeners[i + 1], start);
             }
         }
     }
 
-    protected void fireNodeDataChanged(ZVNode node) {
+    protected void fireNodesDataChanged(ZVNode parent, ZVNode[] changedNodes) {
         // Guaranteed to return a non-null array
         Object[] listeners = listenerList.getListenerList();
         // Process the listeners last to first, notifying
         // those that are interested in this event
         for (int i = listeners.length - 2; i >= 0; i -= 2) {
             if (listeners[i] == ZVModelListener.class) {
-                ((ZVModelListener) listeners[i + 1]).nodeDataChanged(node);
+                long start = System.nanoTime();
+                ((ZVModelListener) listeners[i + 1]).nodesDataChanged(parent,
+                        changedNodes);
+                dispatched(listeners[i + 1], start);
             }
         }
     }
@@ -18,10 +18,32 @@ import java.util.EventListener;
 
 import net.isammoc.zooviewer.node.ZVNode;
 
+/**
+ * Listener of the changes of a {@link ZVModel}.
+ * <p>
+ * Changes are notified in batches of nodes sharing the same parent.
+ * </p>
+ */
 public interface ZVModelListener extends EventListener {
-    void nodeCreated(ZVNode newNode);
+    /**
+     * Called once for several nodes created under the same parent.
+     * @param parent the parent node, or <code>null</code> for the root
+     * @param newNodes the new nodes
+     */
+    void nodesCreated(ZVNode parent, ZVNode[] newNodes);
 
-    void nodeDeleted(ZVNode oldNode, int oldIndex);
+    /**
+     * Called once for several nodes deleted under the same parent.
+     * @param parent the parent node
+     * @param oldNodes the deleted nodes
+     * @param oldIndices the former indices of the deleted nodes
+     */
+    void nodesDeleted(ZVNode parent, ZVNode[] oldNodes, int[] oldIndices);
 
-    void nodeDataChanged(ZVNode node);
-}
+    /**
+     * Called once for several nodes updated under the same parent.
+     * @param parent the parent node, or <code>null</code> for the root
+     * @param nodes the updated nodes
+     */
+    void nodesDataChanged(ZVNode parent, ZVNode[] nodes);
+}
\ No newline at end of file
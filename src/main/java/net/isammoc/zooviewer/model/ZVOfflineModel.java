@@ -0,0 +1,753 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+
+import javax.swing.event.EventListenerList;
+
+import net.isammoc.zooviewer.node.ZVNode;
+
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Read-only model of the tree saved by a ZooKeeper server in its data
+ * directory, browsed without any server.
+ * <p>
+ * The latest valid <code>snapshot.*</code> file is read, then the
+ * transactions of the <code>log.*</code> files which follow it are replayed.
+ * The files are read through a window of memory mapping, and the nodes are
+ * kept in a {@link ZVCompactStore} without their data: only the location of
+ * the data in the files is kept, so that loading a snapshot of several
+ * gigabytes only costs the metadata of its nodes. The data is read on demand
+ * by {@link #loadData(ZVNode)}, and kept in a cache bounded by
+ * {@link ZVModelConfig#getPayloadCache()}.
+ * </p>
+ * <p>
+ * The tree never changes once loaded, and changes are not supported.
+ * </p>
+ */
+public class ZVOfflineModel implements ZVModel {
+    /** Magic number of the snapshots, "ZKSN". */
+    private static final int SNAP_MAGIC = 0x5A4B534E;
+    /** Magic number of the transaction logs, "ZKLG". */
+    private static final int TXNLOG_MAGIC = 0x5A4B4C47;
+    private static final String SNAPSHOT_PREFIX = "snapshot.";
+    private static final String LOG_PREFIX = "log.";
+    /** Subdirectory of the data directory holding the files. */
+    private static final String VERSION_DIR = "version-2";
+    /** Number of snapshots tried, latest first, as by the server. */
+    private static final int MAX_SNAPSHOTS = 100;
+    /** End of a transaction in the logs. */
+    private static final int END_OF_RECORD = 'B';
+    /** Owner of the containers in the snapshots. */
+    private static final long CONTAINER_OWNER = Long.MIN_VALUE;
+    /** High byte of the owner of the TTL nodes in the snapshots. */
+    private static final long TTL_OWNER_BYTE = 0xFF;
+    /** Bits of the position in the location of the data. */
+    private static final int POSITION_BITS = 48;
+    private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+
+    protected final EventListenerList listenerList = new EventListenerList();
+
+    private ZVCompactStore store;
+    private final List<FileChannel> files = new ArrayList<FileChannel>();
+    /** Location of the data of each node by id: file index, then position. */
+    private long[] locations = new long[1024];
+    /** Ephemeral nodes by session, deleted when their session closes. */
+    private final Map<Long, List<Integer>> ephemerals = new HashMap<Long, List<Integer>>();
+    private final long zxid;
+
+    private final long payloadBudget;
+    /** Nodes holding their data and its size, in access order. */
+    private final LinkedHashMap<Integer, Integer> payloads = new LinkedHashMap<Integer, Integer>(
+            16, 0.75f, true);
+    private long payloadBytes = 0;
+    private final Set<Integer> fetching = Collections
+            .newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final ExecutorService reader = Executors
+            .newSingleThreadExecutor();
+
+    /**
+     * Loads a data directory, or a snapshot file. The transactions logs are
+     * read from the directory of the snapshot.
+     *
+     * @param path
+     *            the data directory, its <code>version-2</code> subdirectory
+     *            or a snapshot file
+     * @param config
+     *            the configuration, of which only the payload cache is used
+     * @throws IOException
+     *             if no snapshot could be read, or a log is corrupted
+     */
+    public ZVOfflineModel(File path, ZVModelConfig config) throws IOException {
+        this.payloadBudget = config.getPayloadCache();
+        File dir = path.isFile() ? path.getAbsoluteFile().getParentFile()
+                : path;
+        if (new File(dir, VERSION_DIR).isDirectory()) {
+            dir = new File(dir, VERSION_DIR);
+        }
+        List<File> snapshots = path.isFile() ? Collections
+                .singletonList(path) : list(dir, SNAPSHOT_PREFIX);
+        Collections.reverse(snapshots);
+        if (snapshots.isEmpty()) {
+            throw new IOException("No snapshot in " + path);
+        }
+
+        // A snapshot being written when the server stopped is skipped
+        long snapshotZxid = -1;
+        IOException failure = null;
+        for (int i = 0; (i < snapshots.size()) && (i < MAX_SNAPSHOTS)
+                && (store == null); i++) {
+            try {
+                loadSnapshot(snapshots.get(i));
+                snapshotZxid = zxidOf(snapshots.get(i), SNAPSHOT_PREFIX);
+                failure = null;
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                store = null;
+                ephemerals.clear();
+                closeFiles();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        try {
+            this.zxid = replay(dir, snapshotZxid);
+        } catch (IOException e) {
+            closeFiles();
+            throw e;
+        }
+        // Only needed by the replay
+        ephemerals.clear();
+    }
+
+    /**
+     * Returns the last transaction of the loaded tree.
+     *
+     * @return the <code>zxid</code>, <code>-1</code> if unknown
+     */
+    public long getZxid() {
+        return zxid;
+    }
+
+    /**
+     * Returns the number of nodes, including the root.
+     *
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return store.size();
+    }
+
+    /**
+     * Reads the tree of a snapshot, serialized depth first with the stat of
+     * each node, but not its number of children.
+     */
+    private void loadSnapshot(File file) throws IOException {
+        int fileIndex = files.size();
+        ZVMappedInput in = new ZVMappedInput(open(file), new Adler32());
+        if (in.readInt() != SNAP_MAGIC) {
+            throw new IOException("Not a snapshot: " + file);
+        }
+        // Version and database id
+        in.readInt();
+        in.readLong();
+        // Sessions: id and timeout
+        for (int count = in.readInt(); count > 0; count--) {
+            in.skip(12);
+        }
+        // ACLs, referenced by the nodes
+        for (int count = in.readInt(); count > 0; count--) {
+            in.readLong();
+            skipAcls(in);
+        }
+
+        store = new ZVCompactStore();
+        // Ancestors of the current node
+        String[] paths = new String[16];
+        int[] ids = new int[16];
+        Stat[] stats = new Stat[16];
+        int depth = 0;
+        // The root is the only node with an empty path
+        for (String path = in.readString(); !"/".equals(path); path = in
+                .readString()) {
+            if (path == null) {
+                throw new IOException("Corrupted snapshot: " + file);
+            }
+            long location = in.position() + 4;
+            int length = in.skipBuffer();
+            // ACL reference
+            in.readLong();
+            Stat stat = new Stat();
+            stat.setCzxid(in.readLong());
+            stat.setMzxid(in.readLong());
+            stat.setCtime(in.readLong());
+            stat.setMtime(in.readLong());
+            stat.setVersion(in.readInt());
+            stat.setCversion(in.readInt());
+            stat.setAversion(in.readInt());
+            stat.setEphemeralOwner(getClientOwner(in.readLong()));
+            stat.setPzxid(in.readLong());
+            stat.setDataLength(Math.max(length, 0));
+
+            int id;
+            if (path.length() == 0) {
+                id = ZVCompactStore.ROOT;
+            } else {
+                int slash = path.lastIndexOf('/');
+                String parentPath = path.substring(0, slash);
+                while ((depth > 0) && !paths[depth - 1].equals(parentPath)) {
+                    depth--;
+                    store.setStat(ids[depth], stats[depth]);
+                }
+                if (depth == 0) {
+                    throw new IOException("No parent for " + path + " in "
+                            + file);
+                }
+                id = store.add(ids[depth - 1], path.substring(slash + 1),
+                        null, null);
+                stats[depth - 1].setNumChildren(stats[depth - 1]
+                        .getNumChildren() + 1);
+            }
+            if (depth == paths.length) {
+                paths = Arrays.copyOf(paths, depth * 2);
+                ids = Arrays.copyOf(ids, depth * 2);
+                stats = Arrays.copyOf(stats, depth * 2);
+            }
+            paths[depth] = path;
+            ids[depth] = id;
+            stats[depth] = stat;
+            depth++;
+            locate(id, fileIndex, location);
+            if (stat.getEphemeralOwner() != 0) {
+                ephemeral(stat.getEphemeralOwner(), id);
+            }
+        }
+        while (depth > 0) {
+            depth--;
+            store.setStat(ids[depth], stats[depth]);
+        }
+
+        long checksum = in.getChecksum();
+        if (in.readLong() != checksum) {
+            throw new IOException("CRC corruption in snapshot: " + file);
+        }
+    }
+
+    /**
+     * Replays the transactions following a snapshot.
+     *
+     * @return the last transaction applied
+     */
+    private long replay(File dir, long snapshotZxid) throws IOException {
+        List<File> logs = list(dir, LOG_PREFIX);
+        // A log is named after its first transaction, so the one holding the
+        // transaction following the snapshot starts before it
+        int first = 0;
+        for (int i = 0; i < logs.size(); i++) {
+            if (zxidOf(logs.get(i), LOG_PREFIX) <= snapshotZxid) {
+                first = i;
+            }
+        }
+        long last = snapshotZxid;
+        for (int i = first; i < logs.size(); i++) {
+            last = replayLog(logs.get(i), last);
+        }
+        return last;
+    }
+
+    private long replayLog(File file, long last) throws IOException {
+        int fileIndex = files.size();
+        ZVMappedInput in = new ZVMappedInput(open(file), null);
+        if ((in.size() < 16) || (in.readInt() != TXNLOG_MAGIC)) {
+            throw new IOException("Not a transaction log: " + file);
+        }
+        // Version and database id
+        in.skip(12);
+        Adler32 crc = new Adler32();
+        byte[] bytes = new byte[1024];
+        try {
+            while (true) {
+                long expected = in.readLong();
+                int length = in.readInt();
+                if (length <= 0) {
+                    // Logs are padded with zeros
+                    break;
+                }
+                long start = in.position();
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                in.readFully(bytes, 0, length);
+                crc.reset();
+                crc.update(bytes, 0, length);
+                if (crc.getValue() != expected) {
+                    throw new IOException("CRC check failed in " + file
+                            + " at " + start);
+                }
+                if (in.readByte() != END_OF_RECORD) {
+                    throw new IOException("Last transaction was partial in "
+                            + file);
+                }
+                in.seek(start);
+                last = apply(in, fileIndex, last);
+                in.seek(start + length + 1);
+            }
+        } catch (EOFException e) {
+            // A transaction being written when the server stopped
+        }
+        return last;
+    }
+
+    /**
+     * Applies a transaction, unless it precedes the snapshot. The snapshot
+     * may already hold the following ones too, so they are applied only if
+     * they fit the tree.
+     *
+     * @return the last transaction applied
+     */
+    private long apply(ZVMappedInput in, int fileIndex, long last)
+            throws IOException {
+        long session = in.readLong();
+        // Client transaction id
+        in.readInt();
+        long txnZxid = in.readLong();
+        long time = in.readLong();
+        int type = in.readInt();
+        if (txnZxid <= last) {
+            return last;
+        }
+        if (type == OpCode.multi) {
+            // Operations of a same transaction, each one in its own buffer
+            int count = Math.max(in.readInt(), 0);
+            int[] types = new int[count];
+            long[] starts = new long[count];
+            boolean failed = false;
+            for (int i = 0; i < count; i++) {
+                types[i] = in.readInt();
+                int length = in.readInt();
+                starts[i] = in.position();
+                in.skip(length);
+                // The operations before a failed one are logged as well
+                failed |= (types[i] == OpCode.error);
+            }
+            for (int i = 0; (i < count) && !failed; i++) {
+                in.seek(starts[i]);
+                apply(in, types[i], session, txnZxid, time, fileIndex);
+            }
+        } else {
+            apply(in, type, session, txnZxid, time, fileIndex);
+        }
+        return txnZxid;
+    }
+
+    /**
+     * Applies an operation of a transaction.
+     */
+    private void apply(ZVMappedInput in, int type, long session,
+            long txnZxid, long time, int fileIndex) throws IOException {
+        switch (type) {
+        case OpCode.create:
+        case OpCode.create2: {
+            String path = in.readString();
+            long location = in.position() + 4;
+            int length = Math.max(in.skipBuffer(), 0);
+            skipAcls(in);
+            boolean ephemeral = in.readBoolean();
+            create(path, fileIndex, location, new Stat(txnZxid, txnZxid,
+                    time, time, 0, 0, 0, ephemeral ? session : 0, length, 0,
+                    txnZxid));
+            break;
+        }
+        case OpCode.createContainer:
+        case OpCode.createTTL: {
+            String path = in.readString();
+            long location = in.position() + 4;
+            int length = Math.max(in.skipBuffer(), 0);
+            // ACLs, version of the children of the parent, and time to live
+            // of a TTL node: these nodes have no owner for the clients
+            create(path, fileIndex, location, new Stat(txnZxid, txnZxid,
+                    time, time, 0, 0, 0, 0, length, 0, txnZxid));
+            break;
+        }
+        case OpCode.delete:
+        case OpCode.deleteContainer:
+            delete(store.find(in.readString()), txnZxid);
+            break;
+        case OpCode.setData:
+        case OpCode.reconfig: {
+            int id = store.find(in.readString());
+            long location = in.position() + 4;
+            int length = Math.max(in.skipBuffer(), 0);
+            int version = in.readInt();
+            if (id != ZVCompactStore.NO_NODE) {
+                Stat stat = store.getNode(id).getStat();
+                stat.setMzxid(txnZxid);
+                stat.setMtime(time);
+                stat.setVersion(version);
+                stat.setDataLength(length);
+                store.setStat(id, stat);
+                locate(id, fileIndex, location);
+            }
+            break;
+        }
+        case OpCode.setACL: {
+            int id = store.find(in.readString());
+            skipAcls(in);
+            int version = in.readInt();
+            if (id != ZVCompactStore.NO_NODE) {
+                Stat stat = store.getNode(id).getStat();
+                stat.setAversion(version);
+                store.setStat(id, stat);
+            }
+            break;
+        }
+        case OpCode.closeSession: {
+            List<Integer> owned = ephemerals.remove(session);
+            if (owned != null) {
+                for (int id : owned) {
+                    delete(id, txnZxid);
+                }
+            }
+            break;
+        }
+        case OpCode.createSession:
+        case OpCode.check:
+        case OpCode.error:
+            // Sessions created, versions checked and failed requests don't
+            // change the tree
+            break;
+        default:
+            System.err.println("Unknown transaction type " + type
+                    + " skipped at zxid 0x" + Long.toHexString(txnZxid)
+                    + ", the tree may differ from the server's");
+            break;
+        }
+    }
+
+    /**
+     * Returns the owner of a node reported to the clients. Containers and TTL
+     * nodes are stored with a special owner, but have none for the clients.
+     */
+    private static long getClientOwner(long owner) {
+        return (owner == CONTAINER_OWNER) || ((owner >>> 56) == TTL_OWNER_BYTE) ? 0
+                : owner;
+    }
+
+    private void create(String path, int fileIndex, long location, Stat stat) {
+        int slash = path.lastIndexOf('/');
+        int parent = store.find(slash == 0 ? "/" : path.substring(0, slash));
+        if ((parent == ZVCompactStore.NO_NODE)
+                || (store.find(path) != ZVCompactStore.NO_NODE)) {
+            return;
+        }
+        int id = store.add(parent, path.substring(slash + 1), null, stat);
+        locate(id, fileIndex, location);
+        if (stat.getEphemeralOwner() != 0) {
+            ephemeral(stat.getEphemeralOwner(), id);
+        }
+        childrenChanged(parent, stat.getCzxid(), 1);
+    }
+
+    private void delete(int id, long txnZxid) {
+        if ((id == ZVCompactStore.NO_NODE)
+                || !store.getNode(id).exists()) {
+            return;
+        }
+        int parent = store.getParent(id);
+        store.remove(id);
+        childrenChanged(parent, txnZxid, -1);
+    }
+
+    private void childrenChanged(int parent, long txnZxid, int delta) {
+        Stat stat = store.getNode(parent).getStat();
+        if (stat != null) {
+            stat.setCversion(stat.getCversion() + 1);
+            stat.setPzxid(txnZxid);
+            stat.setNumChildren(stat.getNumChildren() + delta);
+            store.setStat(parent, stat);
+        }
+    }
+
+    private void ephemeral(long session, int id) {
+        List<Integer> owned = ephemerals.get(session);
+        if (owned == null) {
+            owned = new ArrayList<Integer>();
+            ephemerals.put(session, owned);
+        }
+        owned.add(id);
+    }
+
+    private void locate(int id, int fileIndex, long position) {
+        if (id >= locations.length) {
+            locations = Arrays.copyOf(locations, Math.max(id + 1,
+                    locations.length + (locations.length >> 1)));
+        }
+        locations[id] = ((long) fileIndex << POSITION_BITS) | position;
+    }
+
+    private static void skipAcls(ZVMappedInput in) throws IOException {
+        // Permissions, then scheme and id
+        for (int count = in.readInt(); count > 0; count--) {
+            in.readInt();
+            in.skipBuffer();
+            in.skipBuffer();
+        }
+    }
+
+    private FileChannel open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        files.add(channel);
+        return channel;
+    }
+
+    private void closeFiles() {
+        for (FileChannel channel : files) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        files.clear();
+    }
+
+    /**
+     * Lists the files named after a <code>zxid</code>, in order.
+     */
+    private static List<File> list(File dir, final String prefix) {
+        File[] found = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && (zxidOf(file, prefix) >= 0);
+            }
+        });
+        List<File> sorted = new ArrayList<File>(found == null ? Collections
+                .<File> emptyList() : Arrays.asList(found));
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long zxid1 = zxidOf(o1, prefix);
+                long zxid2 = zxidOf(o2, prefix);
+                return zxid1 < zxid2 ? -1 : (zxid1 == zxid2 ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    private static long zxidOf(File file, String prefix) {
+        String name = file.getName();
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length()), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the data of a node from its file, and notifies it.
+     */
+    private void read(int id) throws IOException {
+        ZVNode node = store.getNode(id);
+        Stat stat = node.getStat();
+        ByteBuffer data = ByteBuffer.allocate(stat.getDataLength());
+        long location = locations[id];
+        FileChannel channel = files.get((int) (location >>> POSITION_BITS));
+        long position = location & POSITION_MASK;
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position()) < 0) {
+                throw new EOFException("Data of " + node.getPath()
+                        + " beyond the end of its file");
+            }
+        }
+        store.setData(id, data.array());
+        cache(id, data.capacity());
+        fireNodesDataChanged(node.getParent(), new ZVNode[] { node });
+    }
+
+    /**
+     * Adds a node whose data has just been read, dropping the data of the
+     * least recently used nodes beyond the budget.
+     */
+    private synchronized void cache(int id, int size) {
+        Integer old = payloads.put(id, size);
+        payloadBytes += size - (old == null ? 0 : old);
+        Iterator<Map.Entry<Integer, Integer>> eldest = payloads.entrySet()
+                .iterator();
+        while ((payloadBytes > payloadBudget) && (payloads.size() > 1)) {
+            Map.Entry<Integer, Integer> entry = eldest.next();
+            if (entry.getKey() == id) {
+                continue;
+            }
+            eldest.remove();
+            payloadBytes -= entry.getValue();
+            store.dropData(entry.getKey());
+        }
+    }
+
+    @Override
+    public void addModelListener(ZVModelListener listener) {
+        listenerList.add(ZVModelListener.class, listener);
+    }
+
+    @Override
+    public void removeModelListener(ZVModelListener listener) {
+        listenerList.remove(ZVModelListener.class, listener);
+    }
+
+    @Override
+    public void addNode(String path, byte[] data) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public void updateData(String path, byte[] data) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public void deleteNode(ZVNode node) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public void deleteNodes(ZVNode[] nodes) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public ZVBulkDelete deleteSubtrees(ZVNode[] roots,
+            ZVProgressListener listener) {
+        throw new UnsupportedOperationException("Read-only model");
+    }
+
+    @Override
+    public ZVNode getNode(String path) {
+        return store.getNode(path);
+    }
+
+    @Override
+    public ZVNode getParent(ZVNode node) {
+        return node.getParent();
+    }
+
+    @Override
+    public List<ZVNode> getChildren(ZVNode parent) {
+        return store.getChildren(parent);
+    }
+
+    @Override
+    public void loadChildren(ZVNode node) {
+        // Every node is loaded
+    }
+
+    @Override
+    public void loadData(ZVNode node) {
+        final int id = store.idOf(node);
+        if ((id == ZVCompactStore.NO_NODE) || !node.exists()) {
+            return;
+        }
+        synchronized (this) {
+            if (payloads.get(id) != null) {
+                return;
+            }
+        }
+        Stat stat = node.getStat();
+        if ((stat == null) || (stat.getDataLength() == 0)
+                || !fetching.add(id)) {
+            return;
+        }
+        reader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read(id);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    fetching.remove(id);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setExpanded(ZVNode node, boolean expanded) {
+        // No watch
+    }
+
+    @Override
+    public void setSelected(ZVNode node, boolean selected) {
+        // No watch
+    }
+
+    @Override
+    public void setShown(ZVNode node, int count) {
+        // No watch
+    }
+
+    @Override
+    public String getFullPath(String parentPath, String childName) {
+        return ("/".equals(parentPath) ? "/" : (parentPath + "/")) + childName;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        reader.shutdownNow();
+        closeFiles();
+    }
+
+    protected void fireNodesDataChanged(ZVNode parent, ZVNode[] changedNodes) {
+        // Guaranteed to return a non-null array
+        Object[] listeners = listenerList.getListenerList();
+        // Process the listeners last to first, notifying
+        // those that are interested in this event
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == ZVModelListener.class) {
+                ((ZVModelListener) listeners[i + 1]).nodesDataChanged(parent,
+                        changedNodes);
+            }
+        }
+    }
+}
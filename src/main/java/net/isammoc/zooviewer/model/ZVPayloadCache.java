@@ -0,0 +1,173 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+
+/**
+ * Least recently used set of the nodes holding their data, bounded by the
+ * total size of this data.
+ * <p>
+ * The data itself stays in the snapshot of the nodes: evicting a node drops
+ * its data, which is read again the next time it is needed.
+ * </p>
+ */
+public final class ZVPayloadCache {
+    private final long budget;
+    /** Cached nodes and the size of their data, in access order. */
+    private final LinkedHashMap<ZVNodeImpl, Integer> entries = new LinkedHashMap<ZVNodeImpl, Integer>(
+            16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a cache.
+     *
+     * @param budget
+     *            the maximum total size of the cached data, in bytes
+     */
+    ZVPayloadCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Records an access to the data of a node, which must be cached.
+     *
+     * @param node
+     *            the node
+     */
+    synchronized void hit(ZVNodeImpl node) {
+        hits++;
+        entries.get(node);
+    }
+
+    /**
+     * Records a read of the data of a node, issued because it wasn't cached.
+     */
+    synchronized void miss() {
+        misses++;
+    }
+
+    /**
+     * Adds a node whose data has just been read, evicting the least recently
+     * used nodes beyond the budget.
+     * <p>
+     * A node whose data alone exceeds the budget is kept until the next
+     * addition, so that it can be displayed.
+     * </p>
+     *
+     * @param node
+     *            the node
+     * @param size
+     *            the size of its data
+     */
+    synchronized void put(ZVNodeImpl node, int size) {
+        Integer old = entries.put(node, size);
+        bytes += size - (old == null ? 0 : old);
+        Iterator<Map.Entry<ZVNodeImpl, Integer>> eldest = entries.entrySet()
+                .iterator();
+        while ((bytes > budget) && (entries.size() > 1)) {
+            Map.Entry<ZVNodeImpl, Integer> entry = eldest.next();
+            if (entry.getKey() == node) {
+                continue;
+            }
+            eldest.remove();
+            bytes -= entry.getValue();
+            evictions++;
+            entry.getKey().dropData();
+        }
+    }
+
+    /**
+     * Removes a node, whose data is stale or deleted.
+     *
+     * @param node
+     *            the node
+     */
+    synchronized void remove(ZVNodeImpl node) {
+        Integer size = entries.remove(node);
+        if (size != null) {
+            bytes -= size;
+        }
+    }
+
+    /**
+     * Empties this cache, without dropping the data of the nodes.
+     */
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the maximum total size of the cached data.
+     *
+     * @return the budget, in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the total size of the cached data.
+     *
+     * @return the size, in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of cached nodes.
+     *
+     * @return the number of nodes
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of accesses served from this cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of reads issued because the data wasn't cached.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of nodes whose data was dropped to honor the budget.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
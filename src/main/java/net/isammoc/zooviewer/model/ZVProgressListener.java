@@ -0,0 +1,35 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.util.EventListener;
+
+/**
+ * Receives the progress of an operation on a whole subtree.
+ */
+public interface ZVProgressListener extends EventListener {
+    /**
+     * Called periodically while the operation runs, and once when it ends,
+     * from the thread running the operation.
+     * 
+     * @param done
+     *            the number of nodes processed so far
+     * @param total
+     *            the total number of nodes, or <code>-1</code> if unknown
+     * @param elapsed
+     *            the time since the operation started, in nanoseconds
+     */
+    void progress(long done, long total, long elapsed);
+}
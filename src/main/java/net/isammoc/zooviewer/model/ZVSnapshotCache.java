@@ -0,0 +1,265 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import net.isammoc.zooviewer.node.ZVChildList;
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+import net.isammoc.zooviewer.node.ZVNodeSnapshot;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Local copy of the nodes of a model, saved on close and loaded at the next
+ * start before being reconciled with the ensemble.
+ * <p>
+ * The nodes are stored breadth first, so that a parent precedes its children
+ * and the children of a parent are contiguous. Each node is stored with its
+ * stat, its number of children, the <code>pzxid</code> of its last children
+ * listing and, optionally, its data. The file is read through a memory mapping.
+ * </p>
+ */
+final class ZVSnapshotCache {
+    private static final int MAGIC = 0x5A56534E;
+    private static final int FORMAT_VERSION = 1;
+    /** Data length of a node whose data is not stored. */
+    private static final int NO_DATA = -1;
+
+    private final File file;
+    private final String connectString;
+
+    /**
+     * Creates a cache.
+     * 
+     * @param file
+     *            the cache file
+     * @param connectString
+     *            the ensemble, a cache saved for another one being ignored
+     */
+    ZVSnapshotCache(File file, String connectString) {
+        this.file = file;
+        this.connectString = connectString;
+    }
+
+    /**
+     * Saves the subtree of a root. The nodes are written to a temporary file
+     * which is then atomically moved over the cache, so that a failed save
+     * keeps the previous cache and a reader never sees a partial one.
+     * 
+     * @param root
+     *            the root node
+     * @param withData
+     *            <code>true</code> to store the data known to the nodes
+     * @throws IOException
+     *             if the cache couldn't be written
+     */
+    void save(ZVNodeImpl root, boolean withData) throws IOException {
+        List<ZVNodeImpl> order = new ArrayList<ZVNodeImpl>();
+        order.add(root);
+        for (int i = 0; i < order.size(); i++) {
+            ZVChildList children = order.get(i).getChildren();
+            for (int j = 0; j < children.size(); j++) {
+                order.add((ZVNodeImpl) children.get(j));
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(connectString);
+            out.writeInt(order.size());
+            for (ZVNodeImpl node : order) {
+                out.writeUTF(node.getName());
+                writeStat(out, node.getStat());
+                out.writeInt(node.getChildren().size());
+                out.writeLong(node.getChildrenVersion());
+                ZVNodeSnapshot snapshot = node.getSnapshot();
+                if (withData
+                        && (snapshot.getVersion() != ZVNodeSnapshot.UNKNOWN_VERSION)) {
+                    out.writeInt(snapshot.getDataLength());
+                    ByteBuffer data = snapshot.getData();
+                    if (data != null) {
+                        byte[] bytes = new byte[data.remaining()];
+                        data.get(bytes);
+                        out.write(bytes);
+                    }
+                } else {
+                    out.writeInt(NO_DATA);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the cached nodes. They are marked as existing, and indexed by
+     * path.
+     * 
+     * @param nodes
+     *            receives the loaded nodes, by path
+     * @return the root, or <code>null</code> if there is no cache for the
+     *         ensemble
+     * @throws IOException
+     *             if the cache couldn't be read
+     */
+    ZVNodeImpl load(Map<String, ZVNodeImpl> nodes) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                System.err.println("Cache " + file + " is too large to map");
+                return null;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            DataInputStream in = new DataInputStream(new BufferInputStream(
+                    mapped));
+            if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT_VERSION)
+                    || !connectString.equals(in.readUTF())) {
+                return null;
+            }
+            int count = in.readInt();
+            ZVNodeImpl[] order = new ZVNodeImpl[count];
+            int[] childCounts = new int[count];
+            List<ZVNodeImpl> batch = new ArrayList<ZVNodeImpl>();
+            // Parent of the next node, and its children left to read
+            int parent = 0;
+            int remaining = 0;
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    while (remaining == 0) {
+                        flush(batch);
+                        parent++;
+                        if (parent >= i) {
+                            throw new IOException("Corrupted cache " + file);
+                        }
+                        remaining = childCounts[parent];
+                    }
+                    remaining--;
+                }
+                String name = in.readUTF();
+                Stat stat = readStat(in);
+                childCounts[i] = in.readInt();
+                if (i == 0) {
+                    remaining = childCounts[0];
+                }
+                long childrenVersion = in.readLong();
+                int length = in.readInt();
+                ZVNodeImpl node = (i == 0) ? new ZVNodeImpl("/", null)
+                        : new ZVNodeImpl(order[parent], name);
+                if (length == NO_DATA) {
+                    node.setStat(stat);
+                } else {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    node.update(data, stat);
+                }
+                node.setChildrenVersion(childrenVersion);
+                node.setExists(true);
+                order[i] = node;
+                nodes.put(node.getPath(), node);
+                if (i > 0) {
+                    batch.add(node);
+                }
+            }
+            flush(batch);
+            return order[0];
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void flush(List<ZVNodeImpl> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ZVNodeImpl parent = batch.get(0).getParent();
+        parent.setChildren(parent.getChildren().with(batch));
+        batch.clear();
+    }
+
+    static void writeStat(DataOutputStream out, Stat stat)
+            throws IOException {
+        out.writeLong(stat.getCzxid());
+        out.writeLong(stat.getMzxid());
+        out.writeLong(stat.getCtime());
+        out.writeLong(stat.getMtime());
+        out.writeInt(stat.getVersion());
+        out.writeInt(stat.getCversion());
+        out.writeInt(stat.getAversion());
+        out.writeLong(stat.getEphemeralOwner());
+        out.writeInt(stat.getDataLength());
+        out.writeInt(stat.getNumChildren());
+        out.writeLong(stat.getPzxid());
+    }
+
+    static Stat readStat(DataInputStream in) throws IOException {
+        return new Stat(in.readLong(), in.readLong(), in.readLong(),
+                in.readLong(), in.readInt(), in.readInt(), in.readInt(),
+                in.readLong(), in.readInt(), in.readInt(), in.readLong());
+    }
+
+    /**
+     * Reads a buffer, without copying it.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.common.PathUtils;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Export of a subtree to a file, written while the subtree is walked.
+ * <p>
+ * The nodes are written depth first, so that a parent precedes its children.
+ * Each node is stored with its path relative to the root of the export, its
+ * data and optionally its stat. A path is stored as the length of the prefix
+ * it shares with the previous one, followed by the rest of it.
+ * </p>
+ * <p>
+ * The reads are pipelined with the asynchronous API, keeping at most
+ * <code>window</code> nodes in flight, and written in the order they were
+ * issued: only these nodes and the paths waiting to be visited are held in
+ * memory. Ephemeral nodes are not exported, since they belong to their
+ * session.
+ * </p>
+ */
+final class ZVSubtreeExport {
+    static final int MAGIC = 0x5A564558;
+    static final int FORMAT_VERSION = 1;
+    /** Offset of the number of nodes, written once the walk is over. */
+    static final int COUNT_OFFSET = 8;
+    /** Marks a node record. */
+    static final int NODE = 1;
+    /** Marks the end of the nodes. */
+    static final int END = 0;
+    /** Number of nodes between two progress notifications. */
+    static final int PROGRESS_INTERVAL = 1000;
+
+    private final ZooKeeper zk;
+    private final int window;
+    private final ZVMetrics metrics;
+
+    /**
+     * Reads of a node, completed by the ZooKeeper event thread.
+     */
+    private final class Read implements DataCallback, ChildrenCallback {
+        private final String path;
+        private final CountDownLatch done = new CountDownLatch(2);
+        private final long start = System.nanoTime();
+        private int code = Code.OK.intValue();
+        private byte[] data;
+        private Stat stat;
+        private List<String> children;
+
+        Read(String path) {
+            this.path = path;
+        }
+
+        void issue() {
+            zk.getData(path, false, this, null);
+            zk.getChildren(path, false, this, null);
+        }
+
+        @Override
+        public void processResult(int rc, String path, Object ctx,
+                byte[] data, Stat stat) {
+            metrics.operation("getData", start);
+            this.data = data;
+            this.stat = stat;
+            completed(rc);
+        }
+
+        @Override
+        public void processResult(int rc, String path, Object ctx,
+                List<String> children) {
+            metrics.operation("getChildren", start);
+            this.children = children;
+            completed(rc);
+        }
+
+        private void completed(int rc) {
+            if (code == Code.OK.intValue()) {
+                code = rc;
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * Creates an export.
+     *
+     * @param zk
+     *            the ZooKeeper session used to read the nodes
+     * @param window
+     *            the maximum number of nodes read at once
+     * @param metrics
+     *            the metrics recording the latency of the reads
+     */
+    ZVSubtreeExport(ZooKeeper zk, int window, ZVMetrics metrics) {
+        this.zk = zk;
+        this.window = window;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Writes a subtree to a file. The nodes are written to a temporary file
+     * which is then atomically moved over the target, so that a failed export
+     * keeps the previous one.
+     *
+     * @param root
+     *            the path of the root of the subtree
+     * @param file
+     *            the file
+     * @param withStat
+     *            <code>true</code> to store the stat of the nodes
+     * @param listener
+     *            the listener notified of the progress, or <code>null</code>
+     * @return the number of nodes exported
+     * @throws IOException
+     *             if the file couldn't be written
+     * @throws KeeperException
+     *             if a node couldn't be read
+     * @throws InterruptedException
+     *             if the export was interrupted
+     */
+    long export(String root, File file, boolean withStat,
+            ZVProgressListener listener) throws IOException, KeeperException,
+            InterruptedException {
+        PathUtils.validatePath(root);
+        long start = System.nanoTime();
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), 64 * 1024));
+        long count = 0;
+        boolean complete = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            // Number of nodes, unknown yet
+            out.writeLong(-1);
+            out.writeUTF(root);
+            out.writeBoolean(withStat);
+
+            LinkedList<String> toVisit = new LinkedList<String>();
+            toVisit.add(root);
+            LinkedList<Read> inFlight = new LinkedList<Read>();
+            String previous = "";
+            while (!toVisit.isEmpty() || !inFlight.isEmpty()) {
+                while ((inFlight.size() < window) && !toVisit.isEmpty()) {
+                    Read read = new Read(toVisit.removeFirst());
+                    read.issue();
+                    inFlight.add(read);
+                }
+                Read read = inFlight.removeFirst();
+                read.done.await();
+                if (read.code == Code.NONODE.intValue()) {
+                    // Deleted during the export
+                    continue;
+                }
+                if (read.code != Code.OK.intValue()) {
+                    throw KeeperException.create(Code.get(read.code),
+                            read.path);
+                }
+                if (read.stat.getEphemeralOwner() != 0) {
+                    continue;
+                }
+
+                String relative = relative(root, read.path);
+                int shared = 0;
+                int max = Math.min(Math.min(previous.length(), relative
+                        .length()), Character.MAX_VALUE);
+                while ((shared < max)
+                        && (previous.charAt(shared) == relative.charAt(shared))) {
+                    shared++;
+                }
+                out.writeByte(NODE);
+                out.writeChar(shared);
+                out.writeUTF(relative.substring(shared));
+                if (read.data == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(read.data.length);
+                    out.write(read.data);
+                }
+                if (withStat) {
+                    ZVSnapshotCache.writeStat(out, read.stat);
+                }
+                previous = relative;
+
+                // Visited next, in name order
+                Collections.sort(read.children);
+                for (ListIterator<String> it = read.children
+                        .listIterator(read.children.size()); it.hasPrevious();) {
+                    String name = it.previous();
+                    toVisit.addFirst("/".equals(read.path) ? "/" + name
+                            : read.path + "/" + name);
+                }
+                count++;
+                if ((listener != null) && (count % PROGRESS_INTERVAL == 0)) {
+                    listener.progress(count, -1, System.nanoTime() - start);
+                }
+            }
+            out.writeByte(END);
+            complete = true;
+        } finally {
+            out.close();
+            if (!complete) {
+                tmp.delete();
+            }
+        }
+
+        RandomAccessFile header = new RandomAccessFile(tmp, "rw");
+        try {
+            header.seek(COUNT_OFFSET);
+            header.writeLong(count);
+        } finally {
+            header.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        if (listener != null) {
+            listener.progress(count, count, System.nanoTime() - start);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the path of a node relative to the root of the export: empty
+     * for the root itself, starting with a slash otherwise.
+     */
+    private static String relative(String root, String path) {
+        if (path.equals(root)) {
+            return "";
+        }
+        return "/".equals(root) ? path : path.substring(root.length());
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.common.PathUtils;
+
+/**
+ * Import of a subtree written by a {@link ZVSubtreeExport}.
+ * <p>
+ * The nodes are created in the order of the file, a parent before its
+ * children, with the asynchronous API and at most <code>window</code>
+ * creations in flight. A session handles its requests in order, so that a
+ * parent is always created before the creation of its children is
+ * processed. The file is read as the creations complete, and only the nodes
+ * in flight are held in memory.
+ * </p>
+ * <p>
+ * The nodes are created persistent, with an open ACL as by
+ * {@link ZVModel#addNode(String, byte[])}. Nodes which already exist are
+ * left unchanged.
+ * </p>
+ */
+final class ZVSubtreeImport {
+    private final ZooKeeper zk;
+    private final int window;
+    private final ZVMetrics metrics;
+
+    private final Semaphore slots;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    /** First error, which stops the import. */
+    private final AtomicReference<KeeperException> failure = new AtomicReference<KeeperException>();
+
+    private final StringCallback callback = new StringCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, String name) {
+            metrics.operation("create", (Long) ctx);
+            if (rc == Code.OK.intValue()) {
+                created.incrementAndGet();
+            } else if (rc != Code.NODEEXISTS.intValue()) {
+                failure.compareAndSet(null, KeeperException.create(Code
+                        .get(rc), path));
+            }
+            completed.incrementAndGet();
+            slots.release();
+        }
+    };
+
+    /**
+     * Creates an import.
+     *
+     * @param zk
+     *            the ZooKeeper session used to create the nodes
+     * @param window
+     *            the maximum number of creations in flight
+     * @param metrics
+     *            the metrics recording the latency of the creations
+     */
+    ZVSubtreeImport(ZooKeeper zk, int window, ZVMetrics metrics) {
+        this.zk = zk;
+        this.window = window;
+        this.metrics = metrics;
+        this.slots = new Semaphore(window);
+    }
+
+    /**
+     * Creates the nodes of a file.
+     *
+     * @param file
+     *            the file
+     * @param root
+     *            the path of the root of the imported subtree, or
+     *            <code>null</code> for the path it was exported from
+     * @param listener
+     *            the listener notified of the progress, or <code>null</code>
+     * @return the number of nodes created
+     * @throws IOException
+     *             if the file couldn't be read
+     * @throws KeeperException
+     *             if a node couldn't be created
+     * @throws InterruptedException
+     *             if the import was interrupted, the creations in flight
+     *             completing anyway
+     */
+    long importTo(File file, String root, ZVProgressListener listener)
+            throws IOException, KeeperException, InterruptedException {
+        long start = System.nanoTime();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 64 * 1024));
+        long total;
+        try {
+            if ((in.readInt() != ZVSubtreeExport.MAGIC)
+                    || (in.readInt() != ZVSubtreeExport.FORMAT_VERSION)) {
+                throw new IOException("Not a subtree export: " + file);
+            }
+            total = in.readLong();
+            String exported = in.readUTF();
+            if (root == null) {
+                root = exported;
+            }
+            PathUtils.validatePath(root);
+            boolean withStat = in.readBoolean();
+
+            String previous = "";
+            long issued = 0;
+            while (in.readByte() == ZVSubtreeExport.NODE) {
+                String relative = previous.substring(0, in.readChar())
+                        + in.readUTF();
+                previous = relative;
+                int length = in.readInt();
+                byte[] data = null;
+                if (length >= 0) {
+                    data = new byte[length];
+                    in.readFully(data);
+                }
+                if (withStat) {
+                    // Informative only, a stat can't be restored
+                    ZVSnapshotCache.readStat(in);
+                }
+                if (failure.get() != null) {
+                    break;
+                }
+                slots.acquire();
+                zk.create(absolute(root, relative), data,
+                        ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+                        callback, System.nanoTime());
+                issued++;
+                if ((listener != null)
+                        && (issued % ZVSubtreeExport.PROGRESS_INTERVAL == 0)) {
+                    listener.progress(completed.get(), total, System
+                            .nanoTime()
+                            - start);
+                }
+            }
+        } finally {
+            in.close();
+            // Waits for the creations in flight
+            slots.acquireUninterruptibly(window);
+            slots.release(window);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        if (listener != null) {
+            listener.progress(completed.get(), total, System.nanoTime()
+                    - start);
+        }
+        return created.get();
+    }
+
+    private static String absolute(String root, String relative) {
+        if (relative.length() == 0) {
+            return root;
+        }
+        return "/".equals(root) ? relative : root + relative;
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.EventListenerList;
+
+import net.isammoc.zooviewer.node.ZVChildList;
+import net.isammoc.zooviewer.node.ZVNode;
+
+/**
+ * Model seen by the Swing views, dispatching the events of an underlying
+ * model on the event dispatch thread.
+ * <p>
+ * Events are queued from any thread, and drained at most once per frame: all
+ * the changes of the children of a parent are merged into one removal and one
+ * insertion, and all the data changes of a node into one change.
+ * </p>
+ * <p>
+ * On the event dispatch thread, {@link #getChildren(ZVNode)} returns the
+ * children as of the last events notified, so that the views never see a
+ * change before its event. Requests are forwarded to the underlying model.
+ * </p>
+ */
+public class ZVSwingModel implements ZVModel {
+    /** System property defining the maximum number of drains per second. */
+    public static final String FRAME_RATE_PROPERTY = "zooviewer.ui.fps";
+    /** Default maximum number of drains per second. */
+    public static final int DEFAULT_FRAME_RATE = 60;
+
+    protected final EventListenerList listenerList = new EventListenerList();
+    private final ZVModel model;
+    /** Metrics of the underlying model, or <code>null</code>. */
+    private final ZVMetrics metrics;
+    private final Timer timer;
+    private final Object lock = new Object();
+    /** Root created since the last drain, or <code>null</code>. */
+    private ZVNode createdRoot = null;
+    /** Parents whose children changed since the last drain. */
+    private Set<ZVNode> changedChildren = new LinkedHashSet<ZVNode>();
+    /** Nodes whose data changed since the last drain, by parent. */
+    private Map<ZVNode, Set<ZVNode>> changedData = new LinkedHashMap<ZVNode, Set<ZVNode>>();
+    /**
+     * Children notified to the views, by parent. Only accessed on the event
+     * dispatch thread.
+     */
+    private final Map<ZVNode, List<ZVNode>> published = new HashMap<ZVNode, List<ZVNode>>();
+
+    /**
+     * Queues the events of the underlying model.
+     */
+    private final class QueueingListener implements ZVModelListener {
+        @Override
+        public void nodesCreated(ZVNode parent, ZVNode[] newNodes) {
+            synchronized (lock) {
+                if (parent == null) {
+                    createdRoot = newNodes[0];
+                } else {
+                    changedChildren.add(parent);
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void nodesDeleted(ZVNode parent, ZVNode[] oldNodes,
+                int[] oldIndices) {
+            synchronized (lock) {
+                changedChildren.add(parent);
+            }
+            schedule();
+        }
+
+        @Override
+        public void nodesDataChanged(ZVNode parent, ZVNode[] nodes) {
+            synchronized (lock) {
+                Set<ZVNode> changed = changedData.get(parent);
+                if (changed == null) {
+                    changed = new LinkedHashSet<ZVNode>();
+                    changedData.put(parent, changed);
+                }
+                for (int i = 0; i < nodes.length; i++) {
+                    changed.add(nodes[i]);
+                }
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Creates a model drained at {@link #DEFAULT_FRAME_RATE}.
+     *
+     * @param model
+     *            the underlying model
+     */
+    public ZVSwingModel(ZVModel model) {
+        this(model, DEFAULT_FRAME_RATE);
+    }
+
+    /**
+     * Creates a model.
+     *
+     * @param model
+     *            the underlying model
+     * @param frameRate
+     *            the maximum number of drains per second
+     */
+    public ZVSwingModel(ZVModel model, int frameRate) {
+        if (frameRate < 1) {
+            throw new IllegalArgumentException("Frame rate must be positive: "
+                    + frameRate);
+        }
+        this.model = model;
+        this.metrics = (model instanceof ZVModelImpl) ? ((ZVModelImpl) model)
+                .getMetrics() : null;
+        this.timer = new Timer(1000 / frameRate, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                drain();
+            }
+        });
+        this.timer.setRepeats(false);
+        model.addModelListener(new QueueingListener());
+    }
+
+    /**
+     * Starts the timer of the next drain, unless it is already started.
+     */
+    private void schedule() {
+        // Swing timers may be started from any thread
+        if (!timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Notifies the changes queued since the last drain, on the event dispatch
+     * thread.
+     */
+    private void drain() {
+        ZVNode root;
+        Set<ZVNode> parents;
+        Map<ZVNode, Set<ZVNode>> changes;
+        synchronized (lock) {
+            root = createdRoot;
+            parents = changedChildren;
+            changes = changedData;
+            createdRoot = null;
+            changedChildren = new LinkedHashSet<ZVNode>();
+            changedData = new LinkedHashMap<ZVNode, Set<ZVNode>>();
+        }
+        if (root != null) {
+            published.clear();
+            fireNodesCreated(null, new ZVNode[] { root });
+        }
+        for (ZVNode parent : parents) {
+            publish(parent);
+        }
+        for (Map.Entry<ZVNode, Set<ZVNode>> change : changes.entrySet()) {
+            List<ZVNode> nodes = new ArrayList<ZVNode>(change.getValue()
+                    .size());
+            for (ZVNode node : change.getValue()) {
+                if (node.exists()) {
+                    nodes.add(node);
+                }
+            }
+            if (!nodes.isEmpty()) {
+                fireNodesDataChanged(change.getKey(),
+                        nodes.toArray(new ZVNode[nodes.size()]));
+            }
+        }
+    }
+
+    /**
+     * Diffs the current children of a parent against the published ones, and
+     * notifies the removed children, then the added ones. The children of a
+     * parent never read by the views are not notified.
+     *
+     * @param parent
+     *            the parent node
+     */
+    private void publish(ZVNode parent) {
+        List<ZVNode> old = published.get(parent);
+        if (old == null) {
+            return;
+        }
+        List<ZVNode> current = model.getChildren(parent);
+        if (current == old) {
+            return;
+        }
+
+        Set<ZVNode> kept = new HashSet<ZVNode>(current);
+        int[] removedIndices = new int[old.size()];
+        List<ZVNode> removed = new ArrayList<ZVNode>();
+        for (int i = 0; i < old.size(); i++) {
+            if (!kept.contains(old.get(i))) {
+                removedIndices[removed.size()] = i;
+                removed.add(old.get(i));
+            }
+        }
+        if (!removed.isEmpty()) {
+            // The views see the removal alone before the insertion
+            published.put(parent, without(old, removedIndices, removed.size()));
+            for (ZVNode node : removed) {
+                unpublish(node);
+            }
+            int[] indices = new int[removed.size()];
+            System.arraycopy(removedIndices, 0, indices, 0, indices.length);
+            fireNodesDeleted(parent,
+                    removed.toArray(new ZVNode[removed.size()]), indices);
+        }
+
+        Set<ZVNode> previous = new HashSet<ZVNode>(old);
+        List<ZVNode> added = new ArrayList<ZVNode>();
+        for (ZVNode node : current) {
+            if (!previous.contains(node)) {
+                added.add(node);
+            }
+        }
+        published.put(parent, current);
+        if (!added.isEmpty()) {
+            fireNodesCreated(parent, added.toArray(new ZVNode[added.size()]));
+        }
+    }
+
+    private static List<ZVNode> without(List<ZVNode> list, int[] indices,
+            int count) {
+        if (list instanceof ZVChildList) {
+            return ((ZVChildList) list).without(indices, count);
+        }
+        List<ZVNode> kept = new ArrayList<ZVNode>(list);
+        for (int i = count - 1; i >= 0; i--) {
+            kept.remove(indices[i]);
+        }
+        return kept;
+    }
+
+    /**
+     * Forgets the published children of a removed node and of its
+     * descendants.
+     */
+    private void unpublish(ZVNode node) {
+        List<ZVNode> children = published.remove(node);
+        if (children != null) {
+            for (ZVNode child : children) {
+                unpublish(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the children of the specified parent. On the event dispatch
+     * thread, these are the children as of the last events notified.
+     */
+    @Override
+    public List<ZVNode> getChildren(ZVNode parent) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            return model.getChildren(parent);
+        }
+        List<ZVNode> children = published.get(parent);
+        if (children == null) {
+            children = model.getChildren(parent);
+            published.put(parent, children);
+        }
+        return children;
+    }
+
+    @Override
+    public void addModelListener(ZVModelListener listener) {
+        listenerList.add(ZVModelListener.class, listener);
+    }
+
+    @Override
+    public void removeModelListener(ZVModelListener listener) {
+        listenerList.remove(ZVModelListener.class, listener);
+    }
+
+    @Override
+    public void addNode(String path, byte[] data) {
+        model.addNode(path, data);
+    }
+
+    @Override
+    public void updateData(String path, byte[] data) {
+        model.updateData(path, data);
+    }
+
+    @Override
+    public void deleteNode(ZVNode node) {
+        model.deleteNode(node);
+    }
+
+    @Override
+    public void deleteNodes(ZVNode[] nodes) {
+        model.deleteNodes(nodes);
+    }
+
+    @Override
+    public ZVBulkDelete deleteSubtrees(ZVNode[] roots,
+            ZVProgressListener listener) {
+        return model.deleteSubtrees(roots, listener);
+    }
+
+    @Override
+    public ZVNode getNode(String path) {
+        return model.getNode(path);
+    }
+
+    @Override
+    public ZVNode getParent(ZVNode node) {
+        return model.getParent(node);
+    }
+
+    @Override
+    public void loadChildren(ZVNode node) {
+        model.loadChildren(node);
+    }
+
+    @Override
+    public void loadData(ZVNode node) {
+        model.loadData(node);
+    }
+
+    @Override
+    public void setExpanded(ZVNode node, boolean expanded) {
+        model.setExpanded(node, expanded);
+    }
+
+    @Override
+    public void setSelected(ZVNode node, boolean selected) {
+        model.setSelected(node, selected);
+    }
+
+    @Override
+    public void setShown(ZVNode node, int count) {
+        model.setShown(node, count);
+    }
+
+    @Override
+    public String getFullPath(String parentPath, String childName) {
+        return model.getFullPath(parentPath, childName);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        timer.stop();
+        model.close();
+        ZVModelListener[] listeners = listenerList
+                .getListeners(ZVModelListener.class);
+        for (int i = 0; i < listeners.length; i++) {
+            listenerList.remove(ZVModelListener.class, listeners[i]);
+        }
+    }
+
+    /**
+     * Returns the underlying model.
+     *
+     * @return the model
+     */
+    public ZVModel getModel() {
+        return model;
+    }
+
+    /**
+     * Records the time spent by a listener handling an event.
+     */
+    private void dispatched(Object listener, long start) {
+        if (metrics != null) {
+            metrics.dispatched(listener, start);
+        }
+    }
+
+    protected void fireNodesCreated(ZVNode parent, ZVNode[] newNodes) {
+        // Guaranteed to return a non-null array
+        Object[] listeners = listenerList.getListenerList();
+        // Process the listeners last to first, notifying
+        // those that are interested in this event
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == ZVModelListener.class) {
+                long start = System.nanoTime();
+                ((ZVModelListener) listeners[i + 1]).nodesCreated(parent,
+                        newNodes);
+                dispatched(listeners[i + 1], start);
+            }
+        }
+    }
+
+    protected void fireNodesDeleted(ZVNode parent, ZVNode[] oldNodes,
+            int[] oldIndices) {
+        // Guaranteed to return a non-null array
+        Object[] listeners = listenerList.getListenerList();
+        // Process the listeners last to first, notifying
+        // those that are interested in this event
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == ZVModelListener.class) {
+                long start = System.nanoTime();
+                ((ZVModelListener) listeners[i + 1]).nodesDeleted(parent,
+                        oldNodes, oldIndices);
+                dispatched(listeners[i + 1], start);
+            }
+        }
+    }
+
+    protected void fireNodesDataChanged(ZVNode parent, ZVNode[] changedNodes) {
+        // Guaranteed to return a non-null array
+        Object[] listeners = listenerList.getListenerList();
+        // Process the listeners last to first, notifying
+        // those that are interested in this event
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == ZVModelListener.class) {
+                long start = System.nanoTime();
+                ((ZVModelListener) listeners[i + 1]).nodesDataChanged(parent,
+                        changedNodes);
+                dispatched(listeners[i + 1], start);
+            }
+        }
+    }
+}
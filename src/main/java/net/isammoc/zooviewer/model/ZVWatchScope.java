@@ -0,0 +1,375 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+
+/**
+ * Watches of the main session, restricted to the nodes displayed by the
+ * views.
+ * <p>
+ * A node is displayed when all its ancestors are expanded, and when it is in
+ * the page of children shown by its parent, if the views page them. A
+ * displayed or selected node may hold a data watch, and a displayed and
+ * expanded node may hold a children watch, as long as the total number of
+ * watches stays under the budget. The other nodes are read without watch, and
+ * revalidated when they are displayed again.
+ * </p>
+ * <p>
+ * The nodes denied a watch by the budget are remembered, and offered the
+ * watches released later on.
+ * </p>
+ */
+final class ZVWatchScope {
+    private final Map<String, ZVNodeImpl> nodes;
+    private final int max;
+    /** Paths holding a data watch, set by <code>getData</code> or <code>exists</code>. */
+    private final Set<String> dataWatches = new HashSet<String>();
+    /** Paths holding a children watch. */
+    private final Set<String> childWatches = new HashSet<String>();
+    /** Number of views expanding each node. */
+    private final Map<ZVNodeImpl, Integer> expanded = new HashMap<ZVNodeImpl, Integer>();
+    /** Number of views selecting each node. */
+    private final Map<ZVNodeImpl, Integer> selected = new HashMap<ZVNodeImpl, Integer>();
+    /** Number of children shown by the parents whose children are paged. */
+    private final Map<ZVNodeImpl, Integer> shown = new HashMap<ZVNodeImpl, Integer>();
+    /** Paths in scope denied a watch by the budget, oldest first. */
+    private final Set<String> denied = new LinkedHashSet<String>();
+
+    /**
+     * Creates a scope.
+     *
+     * @param nodes
+     *            the nodes of the model, by path
+     * @param max
+     *            the maximum number of watches, <code>0</code> for no limit
+     */
+    ZVWatchScope(Map<String, ZVNodeImpl> nodes, int max) {
+        this.nodes = nodes;
+        this.max = max;
+    }
+
+    /**
+     * Checks if a read of the specified node should set a watch, and records
+     * this watch if so. A node being loaded is displayed if its parent is
+     * displayed and expanded, and doesn't page its children.
+     *
+     * @param path
+     *            the node path
+     * @param children
+     *            <code>true</code> for a children watch, <code>false</code>
+     *            for a data watch
+     * @return <code>true</code> if the read should set a watch
+     */
+    synchronized boolean claim(String path, boolean children) {
+        Set<String> watches = children ? childWatches : dataWatches;
+        if (watches.contains(path)) {
+            return true;
+        }
+        if (!inScope(path, children)) {
+            return false;
+        }
+        if ((max > 0) && (getCount() >= max)) {
+            denied.add(path);
+            return false;
+        }
+        watches.add(path);
+        if (holds(path, !children) || !inScope(path, !children)) {
+            denied.remove(path);
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the specified watch is held.
+     *
+     * @param path
+     *            the node path
+     * @param children
+     *            <code>true</code> for a children watch
+     * @return <code>true</code> if the watch is held
+     */
+    synchronized boolean holds(String path, boolean children) {
+        return (children ? childWatches : dataWatches).contains(path);
+    }
+
+    /**
+     * Records that watches have fired, and so are not held anymore.
+     *
+     * @param path
+     *            the node path
+     * @param data
+     *            <code>true</code> if the data watch fired
+     * @param children
+     *            <code>true</code> if the children watch fired
+     */
+    synchronized void fired(String path, boolean data, boolean children) {
+        if (data) {
+            dataWatches.remove(path);
+        }
+        if (children) {
+            childWatches.remove(path);
+        }
+    }
+
+    /**
+     * Records that a view expands or collapses a node.
+     *
+     * @param node
+     *            the node
+     * @param expand
+     *            <code>true</code> if the node is expanded
+     * @return the nodes which are displayed from now on, if the node is
+     *         expanded
+     */
+    synchronized List<ZVNodeImpl> setExpanded(ZVNodeImpl node, boolean expand) {
+        List<ZVNodeImpl> displayed = new ArrayList<ZVNodeImpl>();
+        if (!count(expanded, node, expand)) {
+            return displayed;
+        }
+        if (!expand) {
+            // Shown again from the first page when expanded again
+            shown.remove(node);
+        } else if (isDisplayed(node)) {
+            displayed.add(node);
+            addDisplayed(node, 0, displayed);
+        }
+        return displayed;
+    }
+
+    /**
+     * Records the number of children shown by a view under a node whose
+     * children are paged. The children after them are not displayed. When
+     * several views page a same node, the last count is kept.
+     *
+     * @param node
+     *            the parent node
+     * @param count
+     *            the number of children shown
+     * @return the nodes which are displayed from now on
+     */
+    synchronized List<ZVNodeImpl> setShown(ZVNodeImpl node, int count) {
+        List<ZVNodeImpl> displayed = new ArrayList<ZVNodeImpl>();
+        Integer old = shown.put(node, count);
+        if ((old != null) && (old < count) && isDisplayed(node)
+                && isExpanded(node)) {
+            addDisplayed(node, old, displayed);
+        }
+        return displayed;
+    }
+
+    /**
+     * Records that a view selects or deselects a node.
+     *
+     * @param node
+     *            the node
+     * @param select
+     *            <code>true</code> if the node is selected
+     * @return <code>true</code> if the node is selected by one view only
+     *         from now on
+     */
+    synchronized boolean setSelected(ZVNodeImpl node, boolean select) {
+        return count(selected, node, select) && select;
+    }
+
+    /**
+     * Forgets a deleted node: it is neither expanded, selected nor paged
+     * anymore, and no longer waits for a watch. The watches it held are
+     * released by their deletion events.
+     *
+     * @param node
+     *            the deleted node
+     */
+    synchronized void forget(ZVNodeImpl node) {
+        expanded.remove(node);
+        selected.remove(node);
+        shown.remove(node);
+        denied.remove(node.getPath());
+    }
+
+    /**
+     * Forgets the watches which are out of scope, typically after a node has
+     * been collapsed or deselected.
+     *
+     * @param dataPaths
+     *            receives the paths whose data watch is out of scope
+     * @param childPaths
+     *            receives the paths whose children watch is out of scope
+     */
+    synchronized void release(List<String> dataPaths, List<String> childPaths) {
+        release(dataWatches, false, dataPaths);
+        release(childWatches, true, childPaths);
+        for (Iterator<String> it = denied.iterator(); it.hasNext();) {
+            String path = it.next();
+            if (!inScope(path, false) && !inScope(path, true)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Takes the nodes denied a watch by the budget, as many as watches can be
+     * set again. They are removed from the denied ones, and are denied again
+     * if their next read doesn't fit in the budget.
+     *
+     * @return the nodes to read again with a watch
+     */
+    synchronized List<ZVNodeImpl> offer() {
+        List<ZVNodeImpl> offered = new ArrayList<ZVNodeImpl>();
+        int free = (max > 0) ? max - getCount() : denied.size();
+        for (Iterator<String> it = denied.iterator(); it.hasNext()
+                && (offered.size() < free);) {
+            ZVNodeImpl node = nodes.get(it.next());
+            it.remove();
+            if ((node != null) && node.exists()) {
+                offered.add(node);
+            }
+        }
+        return offered;
+    }
+
+    /**
+     * Returns the number of watches held.
+     *
+     * @return the number of watches
+     */
+    synchronized int getCount() {
+        return dataWatches.size() + childWatches.size();
+    }
+
+    synchronized void clear() {
+        dataWatches.clear();
+        childWatches.clear();
+        expanded.clear();
+        selected.clear();
+        shown.clear();
+        denied.clear();
+    }
+
+    /**
+     * Adds the displayed children of an expanded node, from the specified
+     * index, and the displayed descendants of the expanded ones.
+     */
+    private void addDisplayed(ZVNodeImpl node, int from,
+            List<ZVNodeImpl> displayed) {
+        List<ZVNodeImpl> parents = new ArrayList<ZVNodeImpl>();
+        List<Integer> starts = new ArrayList<Integer>();
+        parents.add(node);
+        starts.add(from);
+        while (!parents.isEmpty()) {
+            ZVNodeImpl parent = parents.remove(parents.size() - 1);
+            int start = starts.remove(starts.size() - 1);
+            int end = getShownCount(parent);
+            for (int i = start; i < end; i++) {
+                ZVNodeImpl child = (ZVNodeImpl) parent.getChildren().get(i);
+                displayed.add(child);
+                if (isExpanded(child)) {
+                    parents.add(child);
+                    starts.add(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of displayed children of an expanded node.
+     */
+    private int getShownCount(ZVNodeImpl node) {
+        int size = node.getChildren().size();
+        Integer count = shown.get(node);
+        return (count == null) ? size : Math.min(size, count);
+    }
+
+    private void release(Set<String> watches, boolean children,
+            List<String> released) {
+        for (Iterator<String> it = watches.iterator(); it.hasNext();) {
+            String path = it.next();
+            if (!inScope(path, children)) {
+                it.remove();
+                released.add(path);
+            }
+        }
+    }
+
+    private boolean inScope(String path, boolean children) {
+        ZVNodeImpl node = nodes.get(path);
+        if (node == null) {
+            // Not loaded yet, so neither expanded nor selected
+            int index = path.lastIndexOf('/');
+            ZVNodeImpl parent = index < 0 ? null : nodes.get(index == 0 ? "/"
+                    : path.substring(0, index));
+            return !children && (parent != null) && isDisplayed(parent)
+                    && isExpanded(parent) && !shown.containsKey(parent);
+        }
+        return children ? isDisplayed(node) && isExpanded(node)
+                : isDisplayed(node) || selected.containsKey(node);
+    }
+
+    private boolean isExpanded(ZVNodeImpl node) {
+        // A tree shows its root expanded without notifying it
+        return (node.getParent() == null) || expanded.containsKey(node);
+    }
+
+    private boolean isDisplayed(ZVNodeImpl node) {
+        ZVNodeImpl child = node;
+        for (ZVNodeImpl parent = node.getParent(); parent != null; parent = parent
+                .getParent()) {
+            if (!isExpanded(parent)) {
+                return false;
+            }
+            Integer count = shown.get(parent);
+            if (count != null) {
+                int index = parent.getChildren().indexOf(child);
+                if ((index < 0) || (index >= count)) {
+                    return false;
+                }
+            }
+            child = parent;
+        }
+        return true;
+    }
+
+    /**
+     * Increments or decrements the number of views for a node.
+     *
+     * @return <code>true</code> if the node has been added or removed
+     */
+    private static boolean count(Map<ZVNodeImpl, Integer> views,
+            ZVNodeImpl node, boolean add) {
+        Integer count = views.get(node);
+        if (add) {
+            views.put(node, count == null ? 1 : count + 1);
+            return count == null;
+        }
+        if (count == null) {
+            return false;
+        }
+        if (count > 1) {
+            views.put(node, count - 1);
+            return false;
+        }
+        views.remove(node);
+        return true;
+    }
+}
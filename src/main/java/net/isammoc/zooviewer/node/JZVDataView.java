@@ -0,0 +1,313 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.node;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.ButtonGroup;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JRadioButton;
+import javax.swing.JScrollPane;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
+
+/**
+ * Read-only view of the data of a node, in text or in hex.
+ * <p>
+ * Only the lines in the visible window are decoded, when they are painted.
+ * In text mode, the offsets of the lines are indexed off the event dispatch
+ * thread, so that large data doesn't freeze the views.
+ * </p>
+ */
+public class JZVDataView extends JPanel {
+    /** */
+    private static final long serialVersionUID = 1L;
+
+    /** Number of bytes per line in hex mode. */
+    private static final int HEX_BYTES_PER_LINE = 16;
+    /** Maximum number of bytes per line in text mode, longer lines wrap. */
+    private static final int TEXT_BYTES_PER_LINE = 256;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    /** Charset of the data, which the text lines are wrapped on. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ResourceBundle bundle = ResourceBundle
+            .getBundle(JZVDataView.class.getCanonicalName());
+
+    private final JRadioButton jrbText = new JRadioButton(
+            bundle.getString("rb.text"), true);
+    private final JRadioButton jrbHex = new JRadioButton(
+            bundle.getString("rb.hex"));
+    private final JLabel jlSize = new JLabel();
+    private final DataCanvas canvas = new DataCanvas();
+
+    private ZVNodeSnapshot snapshot = null;
+    private ByteBuffer data = null;
+    /** Offsets of the text lines, followed by the data length. */
+    private int[] lines = null;
+    private SwingWorker<int[], Void> indexer = null;
+
+    /**
+     * Paints the visible lines only.
+     */
+    private final class DataCanvas extends JComponent implements Scrollable {
+        /** */
+        private static final long serialVersionUID = 1L;
+
+        DataCanvas() {
+            this.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        }
+
+        private int getLineCount() {
+            if (data == null) {
+                return 0;
+            }
+            if (jrbHex.isSelected()) {
+                return (data.limit() + HEX_BYTES_PER_LINE - 1)
+                        / HEX_BYTES_PER_LINE;
+            }
+            return lines == null ? 0 : lines.length - 1;
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            FontMetrics metrics = this.getFontMetrics(this.getFont());
+            int columns = jrbHex.isSelected() ? 10 + 4 * HEX_BYTES_PER_LINE
+                    : TEXT_BYTES_PER_LINE;
+            return new Dimension(columns * metrics.charWidth('0'),
+                    Math.max(1, getLineCount()) * metrics.getHeight());
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            if (data == null) {
+                return;
+            }
+            FontMetrics metrics = g.getFontMetrics(this.getFont());
+            int height = metrics.getHeight();
+            Rectangle clip = g.getClipBounds();
+            int first = Math.max(0, clip.y / height);
+            int last = Math.min(getLineCount(), (clip.y + clip.height)
+                    / height + 1);
+            g.setFont(this.getFont());
+            for (int line = first; line < last; line++) {
+                String text = jrbHex.isSelected() ? hexLine(line)
+                        : textLine(line);
+                g.drawString(text, 2, line * height + metrics.getAscent());
+            }
+        }
+
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            return new Dimension(300, 10 * this.getFontMetrics(
+                    this.getFont()).getHeight());
+        }
+
+        @Override
+        public int getScrollableUnitIncrement(Rectangle visibleRect,
+                int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? this
+                    .getFontMetrics(this.getFont()).getHeight() : this
+                    .getFontMetrics(this.getFont()).charWidth('0');
+        }
+
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect,
+                int orientation, int direction) {
+            return orientation == SwingConstants.VERTICAL ? visibleRect.height
+                    : visibleRect.width;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportWidth() {
+            return false;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return false;
+        }
+    }
+
+    public JZVDataView() {
+        super(new BorderLayout());
+        ButtonGroup group = new ButtonGroup();
+        group.add(this.jrbText);
+        group.add(this.jrbHex);
+        ActionListener modeListener = new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        };
+        this.jrbText.addActionListener(modeListener);
+        this.jrbHex.addActionListener(modeListener);
+
+        JPanel modes = new JPanel(new FlowLayout(FlowLayout.LEFT, 2, 0));
+        modes.add(this.jrbText);
+        modes.add(this.jrbHex);
+        modes.add(this.jlSize);
+        this.add(modes, BorderLayout.NORTH);
+        this.add(new JScrollPane(this.canvas));
+    }
+
+    /**
+     * Displays the data of a snapshot. The data is not copied.
+     *
+     * @param snapshot
+     *            the snapshot, or <code>null</code> to clear the view
+     */
+    public void setSnapshot(ZVNodeSnapshot snapshot) {
+        if (snapshot == this.snapshot) {
+            return;
+        }
+        this.snapshot = snapshot;
+        this.data = snapshot == null ? null : snapshot.getData();
+        this.lines = null;
+        this.jlSize.setText(this.data == null ? "" : String.format(
+                bundle.getString("lbl.size"), this.data.limit()));
+        this.canvas.scrollRectToVisible(new Rectangle());
+        refresh();
+    }
+
+    /**
+     * Indexes the text lines if needed, and repaints the view.
+     */
+    private void refresh() {
+        if (this.indexer != null) {
+            this.indexer.cancel(true);
+            this.indexer = null;
+        }
+        if ((this.data != null) && this.jrbText.isSelected()
+                && (this.lines == null)) {
+            final ByteBuffer indexed = this.data;
+            this.indexer = new SwingWorker<int[], Void>() {
+                @Override
+                protected int[] doInBackground() {
+                    return indexLines(indexed);
+                }
+
+                @Override
+                protected void done() {
+                    if (isCancelled() || (indexed != data)) {
+                        return;
+                    }
+                    try {
+                        lines = get();
+                        indexer = null;
+                        canvas.revalidate();
+                        canvas.repaint();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
+                    }
+                }
+            };
+            this.indexer.execute();
+        }
+        this.canvas.revalidate();
+        this.canvas.repaint();
+    }
+
+    /**
+     * Computes the offsets of the text lines. Lines longer than
+     * {@link #TEXT_BYTES_PER_LINE} are wrapped, on a character boundary in
+     * UTF-8.
+     */
+    private static int[] indexLines(ByteBuffer data) {
+        int length = data.limit();
+        int[] offsets = new int[16];
+        int count = 0;
+        int start = 0;
+        while (start < length) {
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count++] = start;
+            int end = start;
+            int max = Math.min(length, start + TEXT_BYTES_PER_LINE);
+            while ((end < max) && (data.get(end) != '\n')) {
+                end++;
+            }
+            if (end < max) {
+                // Skips the line feed
+                start = end + 1;
+            } else {
+                while ((end < length) && (end > start + 1)
+                        && ((data.get(end) & 0xC0) == 0x80)) {
+                    end--;
+                }
+                start = end;
+            }
+        }
+        offsets[count] = length;
+        return Arrays.copyOf(offsets, count + 1);
+    }
+
+    private String textLine(int line) {
+        int start = this.lines[line];
+        int end = this.lines[line + 1];
+        if ((end > start) && (this.data.get(end - 1) == '\n')) {
+            end--;
+        }
+        ByteBuffer slice = this.data.duplicate();
+        slice.limit(end).position(start);
+        return UTF8.decode(slice).toString()
+                .replace('\r', ' ').replace('\t', ' ');
+    }
+
+    private String hexLine(int line) {
+        int start = line * HEX_BYTES_PER_LINE;
+        int end = Math.min(this.data.limit(), start + HEX_BYTES_PER_LINE);
+        StringBuilder text = new StringBuilder(10 + 4 * HEX_BYTES_PER_LINE);
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            text.append(HEX_DIGITS[(start >>> shift) & 0xF]);
+        }
+        text.append("  ");
+        for (int i = start; i < start + HEX_BYTES_PER_LINE; i++) {
+            if (i < end) {
+                int b = this.data.get(i) & 0xFF;
+                text.append(HEX_DIGITS[b >>> 4]).append(HEX_DIGITS[b & 0xF]);
+            } else {
+                text.append("  ");
+            }
+            text.append(' ');
+        }
+        text.append(' ');
+        for (int i = start; i < end; i++) {
+            int b = this.data.get(i) & 0xFF;
+            text.append((b >= 0x20) && (b < 0x7F) ? (char) b : '.');
+        }
+        return text.toString();
+    }
+}
@@ -20,9 +20,12 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ResourceBundle;
 
 import javax.swing.AbstractAction;
@@ -35,6 +38,9 @@ import javax.swing.JPanel;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.BevelBorder;
 import javax.swing.border.Border;
 import javax.swing.border.TitledBorder;
@@ -42,9 +48,12 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 
+import net.isammoc.zooviewer.model.ZVBulkDelete;
 import net.isammoc.zooviewer.model.ZVModel;
 import net.isammoc.zooviewer.model.ZVModelListener;
 
+import org.apache.zookeeper.KeeperException;
+
 /**
  * Editor panel for a node.
  * 
@@ -57,6 +66,12 @@ public class JZVNode extends JPanel {
     private static final String ADD_CHILD_NODE_KEY = "btn.add.child";
     private static final String UPDATE_NODE_KEY = "btn.update";
     private static final String DELETE_NODE_KEY = "btn.delete";
+    /** Maximum length of the data loaded in the update area, in bytes. */
+    private static final int MAX_EDITED_LENGTH = 64 * 1024;
+    /** Delay between two refreshes of the deletion progress, in milliseconds. */
+    private static final int PROGRESS_DELAY = 200;
+    /** Charset of the data, as shown by the data view and the labels. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     /** */
     private static final long serialVersionUID = 1L;
@@ -69,6 +84,7 @@ public class JZVNode extends JPanel {
 
     private ZVNode[] nodes;
     private final ZVModel model;
+    private boolean editable = true;
 
     private final JButton jbNewChild = new JButton();
     private final JButton jbUpdate = new JButton();
@@ -78,6 +94,7 @@ public class JZVNode extends JPanel {
     private final JTextField jtfChildName = new JTextField();
     private final JZVStat jzvStat = new JZVStat();
     private final JTextArea taUpdate = new JTextArea();
+    private final JZVDataView dataView = new JZVDataView();
 
     private Action addChildAction = null;
     private Action updateAction = null;
@@ -92,7 +109,17 @@ public class JZVNode extends JPanel {
     private final PropertyChangeListener propertyListener = new PropertyChangeListener() {
         @Override
         public void propertyChange(PropertyChangeEvent evt) {
-            updateView();
+            // Nodes are updated by the ZooKeeper threads
+            if (SwingUtilities.isEventDispatchThread()) {
+                updateView();
+            } else {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateView();
+                    }
+                });
+            }
         }
     };
 
@@ -205,6 +232,9 @@ public class JZVNode extends JPanel {
             dataPanel.add(this.taUpdate, new GridBagConstraints(1, 0, 1, 1,
                     1, .5, GridBagConstraints.CENTER, GridBagConstraints.BOTH,
                     new Insets(2, 2, 2, 2), 0, 0));
+            dataPanel.add(this.dataView, new GridBagConstraints(0, 1, 2, 1,
+                    1, 1, GridBagConstraints.CENTER, GridBagConstraints.BOTH,
+                    new Insets(2, 2, 2, 2), 0, 0));
         }
         return dataPanel;
     }
@@ -261,7 +291,7 @@ public class JZVNode extends JPanel {
                         model.addNode(
                                 nodes[0].getPath() + "/"
                                         + jtfChildName.getText(), taChildData
-                                        .getText().getBytes());
+                                        .getText().getBytes(UTF8));
                     }
                 }
 
@@ -311,7 +341,7 @@ public class JZVNode extends JPanel {
                             + e.getActionCommand());
                     if (checkAction()) {
                         model.updateData(nodes[0].getPath(), taUpdate
-                                .getText().getBytes());
+                                .getText().getBytes(UTF8));
                     }
                 }
 
@@ -355,12 +385,7 @@ public class JZVNode extends JPanel {
                     System.out.println("actionPerformed(): action = "
                             + e.getActionCommand());
                     if (checkAction()) {
-                        // Checks if several nodes will be deleted
-                        if (nodes.length > 1) {
-                            model.deleteNodes(nodes);
-                        } else {
-                            model.deleteNode(nodes[0]);
-                        }
+                        deleteSubtrees(nodes);
                     }
                 }
 
@@ -385,6 +410,55 @@ public class JZVNode extends JPanel {
         return this.deleteAction;
     }
 
+    /**
+     * Deletes subtrees in the background, showing the progress in a dialog
+     * which cancels the deletion. A failure is reported once the deletion is
+     * over.
+     * 
+     * @param roots
+     *            the roots of the subtrees
+     */
+    private void deleteSubtrees(ZVNode[] roots) {
+        final ZVBulkDelete deletion = model.deleteSubtrees(roots, null);
+        final ProgressMonitor monitor = new ProgressMonitor(this, bundle
+                .getString("dlg.delete.progress"), "", 0, 1);
+        final Timer timer = new Timer(PROGRESS_DELAY, null);
+        timer.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (monitor.isCanceled()) {
+                    deletion.cancel();
+                }
+                if (!deletion.isDone()) {
+                    long total = deletion.getTotal();
+                    long deleted = Math.min(total, deletion.getDeleted());
+                    // Kept under the maximum, which would close the dialog
+                    monitor.setMaximum((int) Math.min(Integer.MAX_VALUE - 1,
+                            total) + 1);
+                    monitor.setProgress((int) Math.min(Integer.MAX_VALUE - 1,
+                            deleted));
+                    monitor.setNote(String.format(bundle
+                            .getString("dlg.delete.note"), deleted, total));
+                    return;
+                }
+                timer.stop();
+                monitor.close();
+                try {
+                    deletion.await();
+                } catch (KeeperException ex) {
+                    JOptionPane.showMessageDialog(JZVNode.this, String.format(
+                            bundle.getString("dlg.error.delete"), ex
+                                    .getMessage()), bundle
+                            .getString("dlg.error.title"),
+                            JOptionPane.ERROR_MESSAGE);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        timer.start();
+    }
+
     /**
      * Defines the list of selected nodes.
      * 
@@ -396,6 +470,7 @@ public class JZVNode extends JPanel {
             for (int i = 0; i < this.nodes.length; i++) {
                 this.nodes[i].removePropertyChangeListener(
                         ZVNode.PROPERTY_EXISTS, this.propertyListener);
+                this.model.setSelected(this.nodes[i], false);
             }
         }
         this.nodes = nodes;
@@ -403,11 +478,28 @@ public class JZVNode extends JPanel {
             for (int i = 0; i < this.nodes.length; i++) {
                 this.nodes[i].addPropertyChangeListener(ZVNode.PROPERTY_EXISTS,
                         this.propertyListener);
+                this.model.setSelected(this.nodes[i], true);
             }
         }
         this.updateView();
     }
 
+    /**
+     * Defines whether the nodes can be changed from this view. A view which
+     * is not editable only displays the selected node, typically for a
+     * read-only model.
+     * 
+     * @param editable
+     *            <code>false</code> to disable the changes
+     */
+    public void setEditable(boolean editable) {
+        this.editable = editable;
+        this.taUpdate.setEditable(editable);
+        this.jtfChildName.setEditable(editable);
+        this.taChildData.setEditable(editable);
+        this.updateView();
+    }
+
     private void initListeners() {
         taUpdate.getDocument().addDocumentListener( new DocumentListener() {
             @Override
@@ -471,21 +563,42 @@ public class JZVNode extends JPanel {
             this.titleBorder.setTitle("-");
             this.jzvStat.setStat(null);
             this.taUpdate.setText("");
+            this.dataView.setSnapshot(null);
             this.taChildData.setText("");
             this.jbUpdate.setEnabled(false);
             this.jbNewChild.setEnabled(false);
             this.jbDelete.setEnabled(this.nodes != null);
         } else {
             this.titleBorder.setTitle(this.nodes[0].getPath());
+            this.model.loadData(this.nodes[0]);
             this.jzvStat.setStat(this.nodes[0].getStat());
-            byte[] data = this.nodes[0].getData();
-            this.taUpdate.setText(new String(data == null ? "null".getBytes()
-                    : data));
+            ZVNodeSnapshot snapshot = this.nodes[0].getSnapshot();
+            this.dataView.setSnapshot(snapshot);
+            boolean large = snapshot.getDataLength() > MAX_EDITED_LENGTH;
+            if (large) {
+                // Large data is only displayed, by the visible window
+                this.taUpdate.setText("");
+                this.taUpdate.setToolTipText(bundle
+                        .getString("pnl.data.tooLarge"));
+            } else {
+                ByteBuffer data = snapshot.getData();
+                this.taUpdate.setText(data == null ? "null" : UTF8
+                        .decode(data).toString());
+                this.taUpdate.setToolTipText(null);
+            }
+            // Updating from the blank area would truncate the large data
+            this.taUpdate.setEditable(this.editable && !large);
             this.taChildData.setText("");
-            this.jbUpdate.setEnabled( !this.taUpdate.getText().trim().equals("") );
+            getUpdateAction().setEnabled(!large
+                    && !this.taUpdate.getText().trim().equals(""));
             this.jbNewChild.setEnabled( !this.jtfChildName.getText().trim().equals("") );
             this.jbDelete.setEnabled(true);
         }
+        if (!this.editable) {
+            getUpdateAction().setEnabled(false);
+            getAddChildAction().setEnabled(false);
+            getDeleteAction().setEnabled(false);
+        }
         this.repaint();
     }
 
@@ -494,11 +607,11 @@ public class JZVNode extends JPanel {
      */
     private final class RefreshZVModelListener implements ZVModelListener {
         @Override
-        public void nodeDeleted(ZVNode oldNode, int oldIndex) {
+        public void nodesDeleted(ZVNode parent, ZVNode[] oldNodes,
+                int[] oldIndices) {
             if (nodes != null) {
                 for (int i = 0; i < nodes.length; i++) {
-                    if ((nodes[i] == oldNode)
-                            || (nodes[i] == model.getParent(oldNode))) {
+                    if (nodes[i].equals(parent) || contains(oldNodes, nodes[i])) {
                         updateView();
                         break;
                     }
@@ -507,33 +620,37 @@ public class JZVNode extends JPanel {
         }
 
         @Override
-        public void nodeDataChanged(ZVNode node) {
-            boolean updateView = false;
+        public void nodesDataChanged(ZVNode parent, ZVNode[] changedNodes) {
             if (nodes != null) {
                 for (int i = 0; i < nodes.length; i++) {
-                    if ((nodes[i] == node)) {
-                        updateView = true;
+                    if (contains(changedNodes, nodes[i])) {
+                        updateView();
+                        break;
                     }
                 }
             }
-            if (updateView) {
-                updateView();
-            }
         }
 
         @Override
-        public void nodeCreated(ZVNode newNode) {
-            boolean updateView = false;
+        public void nodesCreated(ZVNode parent, ZVNode[] newNodes) {
             if (nodes != null) {
                 for (int i = 0; i < nodes.length; i++) {
-                    if ((nodes[i] == newNode)) {
-                        updateView = true;
+                    if (contains(newNodes, nodes[i])) {
+                        updateView();
+                        break;
                     }
                 }
             }
-            if (updateView) {
-                updateView();
+        }
+
+        private boolean contains(ZVNode[] array, ZVNode node) {
+            for (int i = 0; i < array.length; i++) {
+                // Some models hand out several instances of a node
+                if (array[i].equals(node)) {
+                    return true;
+                }
             }
+            return false;
         }
     }
 }
\ No newline at end of file
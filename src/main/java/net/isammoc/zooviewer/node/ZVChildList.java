@@ -0,0 +1,156 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.node;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of the existing children of a node, sorted by name.
+ * <p>
+ * The size and the positional access are O(1), and {@link #indexOf(Object)}
+ * is a binary search on the child name. Reads never allocate. Changes return
+ * a new list, so a list can be shared with readers without locking.
+ * </p>
+ */
+public final class ZVChildList extends AbstractList<ZVNode> implements
+        RandomAccess {
+    /** The list without children. */
+    public static final ZVChildList EMPTY = new ZVChildList(new ZVNode[0]);
+
+    private static final Comparator<ZVNode> BY_NAME = new Comparator<ZVNode>() {
+        @Override
+        public int compare(ZVNode node1, ZVNode node2) {
+            return node1.getName().compareTo(node2.getName());
+        }
+    };
+
+    private final ZVNode[] nodes;
+
+    private ZVChildList(ZVNode[] nodes) {
+        this.nodes = nodes;
+    }
+
+    @Override
+    public ZVNode get(int index) {
+        return nodes[index];
+    }
+
+    @Override
+    public int size() {
+        return nodes.length;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof ZVNode)) {
+            return -1;
+        }
+        int index = indexOfName(((ZVNode) o).getName());
+        return (index >= 0) && nodes[index].equals(o) ? index : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        // Names are unique
+        return indexOf(o);
+    }
+
+    /**
+     * Returns the index of the child with the specified name.
+     *
+     * @param name
+     *            the child name
+     * @return the index, or a negative value if there is no such child
+     */
+    public int indexOfName(String name) {
+        int low = 0;
+        int high = nodes.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = nodes[mid].getName().compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a list with the specified children added.
+     *
+     * @param added
+     *            the new children, whose names are not in this list
+     * @return the new list
+     */
+    public ZVChildList with(Collection<? extends ZVNode> added) {
+        if (added.isEmpty()) {
+            return this;
+        }
+        ZVNode[] sorted = added.toArray(new ZVNode[added.size()]);
+        Arrays.sort(sorted, BY_NAME);
+
+        // Merges both sorted arrays
+        ZVNode[] merged = new ZVNode[nodes.length + sorted.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while ((i < nodes.length) && (j < sorted.length)) {
+            if (BY_NAME.compare(nodes[i], sorted[j]) <= 0) {
+                merged[k++] = nodes[i++];
+            } else {
+                merged[k++] = sorted[j++];
+            }
+        }
+        System.arraycopy(nodes, i, merged, k, nodes.length - i);
+        System.arraycopy(sorted, j, merged, k, sorted.length - j);
+        return new ZVChildList(merged);
+    }
+
+    /**
+     * Returns a list with the children at the specified indices removed.
+     *
+     * @param indices
+     *            the indices of the removed children, in ascending order
+     * @param count
+     *            the number of indices to use in the array
+     * @return the new list
+     */
+    public ZVChildList without(int[] indices, int count) {
+        if (count == 0) {
+            return this;
+        }
+        if (count == nodes.length) {
+            return EMPTY;
+        }
+        ZVNode[] kept = new ZVNode[nodes.length - count];
+        int from = 0;
+        int k = 0;
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(nodes, from, kept, k, indices[i] - from);
+            k += indices[i] - from;
+            from = indices[i] + 1;
+        }
+        System.arraycopy(nodes, from, kept, k, nodes.length - from);
+        return new ZVChildList(kept);
+    }
+}
@@ -16,6 +16,8 @@ package net.isammoc.zooviewer.node;
 
 import java.beans.PropertyChangeListener;
 
+import javax.swing.tree.TreePath;
+
 import org.apache.zookeeper.data.Stat;
 
 /**
@@ -40,8 +42,21 @@ public interface ZVNode {
     String getName();
 
     /**
-     * Returns this node's data.
+     * Returns this node's parent.
+     * @return the parent, or <code>null</code> for the root
+     */
+    ZVNode getParent();
+
+    /**
+     * Returns the path from the root to this node, as expected by Swing trees.
+     * @return the tree path, whose last component is this node
+     */
+    TreePath getTreePath();
+
+    /**
+     * Returns a copy of this node's data.
      * @return the data
+     * @see #getSnapshot()
      */
     byte[] getData();
 
@@ -51,6 +66,13 @@ public interface ZVNode {
      */
     Stat getStat();
 
+    /**
+     * Returns the current data and stat of this node, which can be read
+     * without copy.
+     * @return the snapshot
+     */
+    ZVNodeSnapshot getSnapshot();
+
     /**
      * Checks if this node exists in the ZooKeeper model.
      * @return
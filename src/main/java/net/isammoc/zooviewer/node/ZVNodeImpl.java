@@ -18,19 +18,29 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.Arrays;
 
+import javax.swing.tree.TreePath;
+
 import org.apache.zookeeper.data.Stat;
 
 public class ZVNodeImpl implements ZVNode {
 
     private final String path;
     private final String name;
-    private boolean exists;
-    private byte[] data;
+    private final ZVNodeImpl parent;
+    /** Existing children, replaced as a whole by the model. */
+    private volatile ZVChildList children = ZVChildList.EMPTY;
+    /** <code>pzxid</code> of the last listing of the children, or -1. */
+    private volatile long childrenVersion = -1;
+    /** Path from the root, built on first use. */
+    private volatile TreePath treePath;
+    private volatile boolean exists;
+    /** Data and stat, replaced as a whole on every change. */
+    private volatile ZVNodeSnapshot snapshot = ZVNodeSnapshot.EMPTY;
     private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
-    private Stat stat;
 
     public ZVNodeImpl(String path) {
 	this.path = path;
+	this.parent = null;
 	if ("/".equals(path)) {
 	    this.name = "/";
 	} else {
@@ -41,15 +51,36 @@ public class ZVNodeImpl implements ZVNode {
 
     public ZVNodeImpl(String path, byte[] data) {
 	this.path = path;
+	this.parent = null;
 	if ("/".equals(path)) {
 	    this.name = "/";
 	} else {
 	    this.name = path.substring(path.lastIndexOf("/") + 1);
 	}
-	this.data = (data == null ? null : Arrays.copyOf(data, data.length));
+	this.snapshot = new ZVNodeSnapshot(data == null ? null : Arrays.copyOf(
+		data, data.length), ZVNodeSnapshot.UNKNOWN_VERSION, null);
 	this.exists = true;
     }
 
+    /**
+     * Creates a node under the specified parent.
+     * <p>
+     * The name is interned, so that nodes with the same name share it.
+     * </p>
+     * 
+     * @param parent
+     *            the parent node
+     * @param name
+     *            the node name
+     */
+    public ZVNodeImpl(ZVNodeImpl parent, String name) {
+	this.parent = parent;
+	this.name = name.intern();
+	this.path = ("/".equals(parent.path) ? "/" : parent.path + "/")
+		+ this.name;
+	this.exists = false;
+    }
+
     @Override
     public String getPath() {
 	return this.path;
@@ -61,20 +92,100 @@ public class ZVNodeImpl implements ZVNode {
     }
 
     @Override
-    public byte[] getData() {
-	if (this.data == null) {
-	    return null;
-	} else {
-	    return Arrays.copyOf(this.data, this.data.length);
+    public ZVNodeImpl getParent() {
+	return this.parent;
+    }
+
+    /**
+     * Returns the existing children of this node.
+     * 
+     * @return the children, sorted by name
+     */
+    public ZVChildList getChildren() {
+	return this.children;
+    }
+
+    public void setChildren(ZVChildList children) {
+	this.children = children;
+    }
+
+    /**
+     * Returns the version of the children of this node: the
+     * <code>pzxid</code> of the stat they were last listed with. It may be
+     * older than the stat of the node.
+     * 
+     * @return the version, or <code>-1</code> if the children were never
+     *         listed
+     */
+    public long getChildrenVersion() {
+	return this.childrenVersion;
+    }
+
+    public void setChildrenVersion(long childrenVersion) {
+	this.childrenVersion = childrenVersion;
+    }
+
+    @Override
+    public TreePath getTreePath() {
+	// Built once from the parent path, so it costs one hop per level
+	TreePath result = this.treePath;
+	if (result == null) {
+	    result = (this.parent == null ? new TreePath(this) : this.parent
+		    .getTreePath().pathByAddingChild(this));
+	    this.treePath = result;
 	}
+	return result;
+    }
+
+    @Override
+    public byte[] getData() {
+	return this.snapshot.copyData();
+    }
+
+    @Override
+    public ZVNodeSnapshot getSnapshot() {
+	return this.snapshot;
     }
 
-    public void setData(byte[] data) {
-	if (!Arrays.equals(this.data, data)) {
-	    byte[] old = this.data;
-	    this.data = (data == null ? null : Arrays.copyOf(data, data.length));
-	    this.pcs.firePropertyChange(PROPERTY_DATA, old, data);
+    /**
+     * Updates this node with its data and stat freshly read.
+     * <p>
+     * The data is considered changed only if the <code>mzxid</code> of the
+     * stat differs from the version of the current data, so the bytes are
+     * never compared. The array is kept as is: the caller must not modify it
+     * afterwards.
+     * </p>
+     * 
+     * @param data
+     *            the node data
+     * @param stat
+     *            the node stat
+     * @return the change of the length of the data held, in bytes
+     */
+    public int update(byte[] data, Stat stat) {
+	ZVNodeSnapshot old;
+	ZVNodeSnapshot updated;
+	synchronized (this) {
+	    old = this.snapshot;
+	    if (old.getVersion() == stat.getMzxid()) {
+		if (old.hasStat(stat)) {
+		    return 0;
+		}
+		// Same data, only the children or the ACL changed
+		updated = old.withStat(stat);
+	    } else {
+		updated = new ZVNodeSnapshot(data, stat.getMzxid(),
+			ZVNodeSnapshot.copyStat(stat));
+	    }
+	    this.snapshot = updated;
 	}
+	if (old.getVersion() != updated.getVersion()) {
+	    firePropertyChange(PROPERTY_DATA, old, updated);
+	}
+	if (!old.hasStat(stat)) {
+	    firePropertyChange(PROPERTY_STAT, old, updated);
+	}
+	return updated.getDataLength() - old.getDataLength();
     }
 
     @Override
@@ -82,12 +193,22 @@ public class ZVNodeImpl implements ZVNode {
 	return this.exists;
     }
 
-    public void setExists(boolean newExists) {
-	if (newExists != this.exists) {
+    /**
+     * Marks this node as existing or deleted.
+     * 
+     * @param newExists
+     *            <code>true</code> if the node exists
+     * @return <code>true</code> if the flag changed
+     */
+    public boolean setExists(boolean newExists) {
+	synchronized (this) {
+	    if (newExists == this.exists) {
+		return false;
+	    }
 	    this.exists = newExists;
-	    this.pcs.firePropertyChange(PROPERTY_EXISTS, !this.exists,
-		    this.exists);
 	}
+	this.pcs.firePropertyChange(PROPERTY_EXISTS, !newExists, newExists);
+	return true;
     }
 
     @Override
@@ -132,27 +253,63 @@ public class ZVNodeImpl implements ZVNode {
     @Override
     public String toString() {
 	return String.format("ZVNodeImpl[path='%s', " + this.exists
-		+ ", length='%d']", this.path, (this.data == null ? -1
-		: this.data.length));
+		+ ", length='%d']", this.path, (this.snapshot
+		.getData() == null ? -1 : this.snapshot.getDataLength()));
+    }
+
+    /**
+     * Drops the data of this node to save memory, keeping its stat. The
+     * version of the data becomes unknown, so the next update will notify a
+     * data change. Listeners are not notified.
+     * 
+     * @return the length of the data dropped, in bytes
+     */
+    public synchronized int dropData() {
+	int length = this.snapshot.getDataLength();
+	this.snapshot = this.snapshot.withoutData();
+	return length;
     }
 
     @Override
     public Stat getStat() {
-	return this.stat == null ? null : copyStat(this.stat);
+	return this.snapshot.getStat();
     }
 
+    /**
+     * Updates the stat of this node, keeping its data.
+     * 
+     * @param stat
+     *            the node stat, or <code>null</code> if unknown
+     */
     public void setStat(Stat stat) {
-	if (this.stat == null ? stat != null : !this.stat.equals(stat)) {
-	    Stat old = this.stat;
-	    this.stat = stat == null ? null : copyStat(stat);
-	    this.pcs.firePropertyChange(PROPERTY_STAT, old, stat);
+	ZVNodeSnapshot old;
+	ZVNodeSnapshot updated;
+	synchronized (this) {
+	    old = this.snapshot;
+	    if (old.hasStat(stat)) {
+		return;
+	    }
+	    updated = old.withStat(stat);
+	    this.snapshot = updated;
 	}
+	firePropertyChange(PROPERTY_STAT, old, updated);
     }
 
-    private static Stat copyStat(Stat stat) {
-	return new Stat(stat.getCzxid(), stat.getMzxid(), stat.getCtime(),
-		stat.getMtime(), stat.getVersion(), stat.getCversion(),
-		stat.getAversion(), stat.getEphemeralOwner(),
-		stat.getDataLength(), stat.getNumChildren(), stat.getPzxid());
+    /**
+     * Notifies a change of data or stat. The values are only copied if some
+     * listener is interested.
+     */
+    private void firePropertyChange(String propertyName, ZVNodeSnapshot old,
+	    ZVNodeSnapshot updated) {
+	if (!this.pcs.hasListeners(propertyName)) {
+	    return;
+	}
+	if (PROPERTY_DATA.equals(propertyName)) {
+	    this.pcs.firePropertyChange(propertyName, old.copyData(),
+		    updated.copyData());
+	} else {
+	    this.pcs.firePropertyChange(propertyName, old.getStat(),
+		    updated.getStat());
+	}
     }
 }
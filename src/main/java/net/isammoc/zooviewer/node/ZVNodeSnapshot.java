@@ -0,0 +1,164 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.node;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Immutable state of a node: its data, the version of this data and its stat.
+ * <p>
+ * A node publishes a new snapshot on every change, so a snapshot can be read
+ * without copy nor lock. The version of the data is the <code>mzxid</code> of
+ * the node when the data was read: two snapshots with the same version hold
+ * the same data.
+ * </p>
+ */
+public final class ZVNodeSnapshot {
+    /** Version of data read without its stat. */
+    public static final long UNKNOWN_VERSION = -1;
+
+    /** Snapshot of a node not read yet. */
+    public static final ZVNodeSnapshot EMPTY = new ZVNodeSnapshot(null,
+            UNKNOWN_VERSION, null);
+
+    private final byte[] data;
+    private final long version;
+    private final Stat stat;
+
+    /**
+     * Creates a snapshot. The array and the stat are kept as is, so they must
+     * not be modified afterwards.
+     *
+     * @param data
+     *            the node data, or <code>null</code>
+     * @param version
+     *            the <code>mzxid</code> of the data, or
+     *            {@link #UNKNOWN_VERSION}
+     * @param stat
+     *            the node stat, or <code>null</code> if unknown
+     */
+    public ZVNodeSnapshot(byte[] data, long version, Stat stat) {
+        this.data = data;
+        this.version = version;
+        this.stat = stat;
+    }
+
+    /**
+     * Returns a read-only view of the data, without copy.
+     *
+     * @return the data, or <code>null</code> if the node has none
+     */
+    public ByteBuffer getData() {
+        return data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the length of the data.
+     *
+     * @return the number of bytes, <code>0</code> if the node has no data
+     */
+    public int getDataLength() {
+        return data == null ? 0 : data.length;
+    }
+
+    /**
+     * Returns a copy of the data.
+     *
+     * @return the data, or <code>null</code> if the node has none
+     */
+    public byte[] copyData() {
+        return data == null ? null : Arrays.copyOf(data, data.length);
+    }
+
+    /**
+     * Returns the version of the data.
+     *
+     * @return the <code>mzxid</code> of the node when the data was read, or
+     *         {@link #UNKNOWN_VERSION}
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of children of the node, without copying its stat.
+     *
+     * @return the number of children, or <code>-1</code> if the stat is
+     *         unknown
+     */
+    public int getNumChildren() {
+        return stat == null ? -1 : stat.getNumChildren();
+    }
+
+    /**
+     * Returns a copy of the stat.
+     *
+     * @return the stat, or <code>null</code> if unknown
+     */
+    public Stat getStat() {
+        return stat == null ? null : copyStat(stat);
+    }
+
+    /**
+     * Checks if this snapshot has the specified stat, without copying it.
+     *
+     * @param other
+     *            a stat, or <code>null</code>
+     * @return <code>true</code> if the stats are equal
+     */
+    public boolean hasStat(Stat other) {
+        return stat == null ? other == null : stat.equals(other);
+    }
+
+    /**
+     * Returns a snapshot with the same data and the specified stat. The data
+     * is shared, not copied.
+     *
+     * @param stat
+     *            the new stat, or <code>null</code> if unknown
+     * @return the new snapshot
+     */
+    public ZVNodeSnapshot withStat(Stat stat) {
+        return new ZVNodeSnapshot(data, version, stat == null ? null
+                : copyStat(stat));
+    }
+
+    /**
+     * Returns a snapshot with the same stat and no data, whose version is
+     * unknown.
+     *
+     * @return the new snapshot
+     */
+    public ZVNodeSnapshot withoutData() {
+        return new ZVNodeSnapshot(null, UNKNOWN_VERSION, stat);
+    }
+
+    /**
+     * Copies a stat.
+     *
+     * @param stat
+     *            the stat
+     * @return the copy
+     */
+    public static Stat copyStat(Stat stat) {
+        return new Stat(stat.getCzxid(), stat.getMzxid(), stat.getCtime(),
+                stat.getMtime(), stat.getVersion(), stat.getCversion(),
+                stat.getAversion(), stat.getEphemeralOwner(),
+                stat.getDataLength(), stat.getNumChildren(), stat.getPzxid());
+    }
+}
@@ -14,21 +14,199 @@
  */
 package net.isammoc.zooviewer.tree;
 
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ResourceBundle;
+
+import javax.swing.JOptionPane;
 import javax.swing.JTree;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeSelectionEvent;
+import javax.swing.event.TreeSelectionListener;
+import javax.swing.event.TreeWillExpandListener;
+import javax.swing.tree.ExpandVetoException;
+import javax.swing.tree.TreePath;
 
 import net.isammoc.zooviewer.model.ZVModel;
 import net.isammoc.zooviewer.node.ZVNode;
+import net.isammoc.zooviewer.tree.ZVTreeModel.PageRow;
 
 public class JZVTree extends JTree {
     /** */
     private static final long serialVersionUID = 1L;
 
+    private static final ResourceBundle bundle = ResourceBundle
+	    .getBundle(JZVTree.class.getCanonicalName());
+
+    /** Rows whose data was last asked for, and the row count then. */
+    private int loadedFirst = -1;
+    private int loadedLast = -1;
+    private int loadedRowCount = -1;
+    private final ChangeListener viewportListener = new ChangeListener() {
+	@Override
+	public void stateChanged(ChangeEvent e) {
+	    loadVisibleData();
+	}
+    };
+
     public JZVTree(ZVModel model) {
-	super(new ZVTreeModel(model));
+	this(new ZVTreeModel(model));
     }
 
     public JZVTree(ZVTreeModel model) {
 	super(model);
+	this.addTreeWillExpandListener(new TreeWillExpandListener() {
+	    @Override
+	    public void treeWillExpand(TreeExpansionEvent event)
+		    throws ExpandVetoException {
+		Object node = event.getPath().getLastPathComponent();
+		if ((node instanceof ZVNode)
+			&& (getModel() instanceof ZVTreeModel)) {
+		    // Expanded first, so that the children are loaded watched
+		    ((ZVTreeModel) getModel()).setExpanded((ZVNode) node, true);
+		    ((ZVTreeModel) getModel()).loadChildren((ZVNode) node);
+		}
+	    }
+
+	    @Override
+	    public void treeWillCollapse(TreeExpansionEvent event)
+		    throws ExpandVetoException {
+		Object node = event.getPath().getLastPathComponent();
+		if ((node instanceof ZVNode)
+			&& (getModel() instanceof ZVTreeModel)) {
+		    ((ZVTreeModel) getModel()).setExpanded((ZVNode) node, false);
+		}
+	    }
+	});
+	// Selecting the page row of a parent shows its next page
+	this.addTreeSelectionListener(new TreeSelectionListener() {
+	    @Override
+	    public void valueChanged(TreeSelectionEvent e) {
+		final TreePath path = e.getNewLeadSelectionPath();
+		if ((path == null)
+			|| !(path.getLastPathComponent() instanceof PageRow)) {
+		    return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+		    @Override
+		    public void run() {
+			removeSelectionPath(path);
+			((ZVTreeModel) getModel())
+				.showNextPage((PageRow) path
+					.getLastPathComponent());
+		    }
+		});
+	    }
+	});
+	// The popup trigger on a page row jumps to a child by name
+	this.addMouseListener(new MouseAdapter() {
+	    @Override
+	    public void mousePressed(MouseEvent e) {
+		jumpOnPopup(e);
+	    }
+
+	    @Override
+	    public void mouseReleased(MouseEvent e) {
+		jumpOnPopup(e);
+	    }
+	});
+    }
+
+    @Override
+    public void addNotify() {
+	super.addNotify();
+	if (this.getParent() instanceof JViewport) {
+	    ((JViewport) this.getParent()).addChangeListener(viewportListener);
+	}
+    }
+
+    @Override
+    public void removeNotify() {
+	if (this.getParent() instanceof JViewport) {
+	    ((JViewport) this.getParent())
+		    .removeChangeListener(viewportListener);
+	}
+	super.removeNotify();
+    }
+
+    /**
+     * Asks the model for the data of the rows in the viewport, so that their
+     * labels show a preview.
+     * <p>
+     * This is done when the visible rows change only, never while painting:
+     * data evicted from a bounded cache is not read again in a loop.
+     * </p>
+     */
+    private void loadVisibleData() {
+	if (!(this.getModel() instanceof ZVTreeModel)) {
+	    return;
+	}
+	Rectangle visible = this.getVisibleRect();
+	int first = this.getClosestRowForLocation(visible.x, visible.y);
+	int last = this.getClosestRowForLocation(visible.x, visible.y
+		+ visible.height - 1);
+	int rowCount = this.getRowCount();
+	if ((first == loadedFirst) && (last == loadedLast)
+		&& (rowCount == loadedRowCount)) {
+	    return;
+	}
+	loadedFirst = first;
+	loadedLast = last;
+	loadedRowCount = rowCount;
+	if (first < 0) {
+	    return;
+	}
+	ZVTreeModel model = (ZVTreeModel) this.getModel();
+	for (int row = first; row <= last; row++) {
+	    TreePath path = this.getPathForRow(row);
+	    if ((path != null) && (path.getLastPathComponent() instanceof ZVNode)) {
+		model.loadData((ZVNode) path.getLastPathComponent());
+	    }
+	}
+    }
+
+    private void jumpOnPopup(MouseEvent e) {
+	if (!e.isPopupTrigger()) {
+	    return;
+	}
+	TreePath path = this.getPathForLocation(e.getX(), e.getY());
+	if ((path == null)
+		|| !(path.getLastPathComponent() instanceof PageRow)) {
+	    return;
+	}
+	String name = JOptionPane.showInputDialog(this,
+		bundle.getString("page.jump.message"));
+	if ((name != null) && (name.trim().length() > 0)) {
+	    this.jumpTo(((PageRow) path.getLastPathComponent()).getParent(),
+		    name.trim());
+	}
+    }
+
+    /**
+     * Shows, selects and scrolls to the child with the specified name,
+     * loading the pages of children up to it.
+     * 
+     * @param parent
+     *            the parent node
+     * @param name
+     *            the child name
+     * @return <code>true</code> if the child is found
+     */
+    public boolean jumpTo(ZVNode parent, String name) {
+	ZVTreeModel model = (ZVTreeModel) this.getModel();
+	ZVNode child = model.showChild(parent, name);
+	if (child == null) {
+	    return false;
+	}
+	TreePath path = model.getTreePath(child);
+	this.setSelectionPath(path);
+	this.scrollPathToVisible(path);
+	return true;
     }
 
     @Override
@@ -37,6 +215,11 @@ public class JZVTree extends JTree {
 	if (value instanceof ZVNode) {
 	    return ((ZVNode) value).getName();
 	}
+	if (value instanceof PageRow) {
+	    PageRow page = (PageRow) value;
+	    return String.format(bundle.getString("page.more"),
+		    page.getShown(), page.getTotal());
+	}
 	return super.convertValueToText(value, selected, expanded, leaf, row,
 		hasFocus);
     }
@@ -0,0 +1,144 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.tree;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.isammoc.zooviewer.node.ZVNode;
+import net.isammoc.zooviewer.node.ZVNodeSnapshot;
+
+/**
+ * Labels of the tree rows: the node name, followed by a preview of its data
+ * truncated to a maximum length.
+ * <p>
+ * A label is computed once per version of the data, so that painting rows
+ * allocates nothing. The cache is meant to be shared by the trees, and used
+ * on the event dispatch thread only.
+ * </p>
+ */
+public final class ZVLabelCache {
+    /** System property defining the maximum length of a data preview. */
+    public static final String PREVIEW_LENGTH_PROPERTY = "zooviewer.tree.previewLength";
+    /** Default maximum length of a data preview, in characters. */
+    public static final int DEFAULT_PREVIEW_LENGTH = 80;
+
+    private static final String ELLIPSIS = "...";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int previewLength;
+    private final CharsetDecoder decoder;
+    private final CharBuffer preview;
+    /** Labels, released with their node. */
+    private final Map<ZVNode, Label> labels = new WeakHashMap<ZVNode, Label>();
+
+    /**
+     * Label of a version of the data. The snapshot itself is not kept, so
+     * that data dropped by the model is not retained.
+     */
+    private static final class Label {
+        private final long version;
+        private final int length;
+        private final String text;
+
+        Label(ZVNodeSnapshot snapshot, String text) {
+            this.version = snapshot.getVersion();
+            this.length = snapshot.getDataLength();
+            this.text = text;
+        }
+
+        /**
+         * Checks if this label is up to date: same <code>mzxid</code>, or no
+         * data at all when it is unknown.
+         */
+        boolean isCurrent(ZVNodeSnapshot snapshot) {
+            if ((version != snapshot.getVersion())
+                    || (length != snapshot.getDataLength())) {
+                return false;
+            }
+            return (version != ZVNodeSnapshot.UNKNOWN_VERSION) || (length == 0);
+        }
+    }
+
+    /**
+     * Creates a cache of previews bounded by {@link #PREVIEW_LENGTH_PROPERTY}.
+     */
+    public ZVLabelCache() {
+        this(Integer.getInteger(PREVIEW_LENGTH_PROPERTY,
+                DEFAULT_PREVIEW_LENGTH));
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param previewLength
+     *            the maximum length of a data preview, in characters
+     */
+    public ZVLabelCache(int previewLength) {
+        if (previewLength < 0) {
+            throw new IllegalArgumentException(
+                    "Preview length can't be negative: " + previewLength);
+        }
+        this.previewLength = previewLength;
+        this.decoder = UTF8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.preview = CharBuffer.allocate(previewLength + 1);
+    }
+
+    /**
+     * Returns the label of a node.
+     *
+     * @param node
+     *            the node
+     * @return the label
+     */
+    public String getLabel(ZVNode node) {
+        ZVNodeSnapshot snapshot = node.getSnapshot();
+        Label label = labels.get(node);
+        if ((label == null) || !label.isCurrent(snapshot)) {
+            label = new Label(snapshot, format(node.getName(), snapshot));
+            labels.put(node, label);
+        }
+        return label.text;
+    }
+
+    private String format(String name, ZVNodeSnapshot snapshot) {
+        if (snapshot.getDataLength() == 0) {
+            return name;
+        }
+        // Only the bytes of the preview are decoded, not the whole data
+        ByteBuffer data = snapshot.getData();
+        preview.clear();
+        decoder.reset();
+        decoder.decode(data, preview, true);
+        preview.flip();
+        StringBuilder text = new StringBuilder(name.length() + 1
+                + previewLength + ELLIPSIS.length());
+        text.append(name).append('=');
+        if (preview.remaining() > previewLength) {
+            preview.limit(previewLength);
+            text.append(preview).append(ELLIPSIS);
+        } else {
+            text.append(preview);
+        }
+        return text.toString();
+    }
+}
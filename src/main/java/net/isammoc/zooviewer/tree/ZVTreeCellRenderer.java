@@ -0,0 +1,61 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.tree;
+
+import java.awt.Component;
+
+import javax.swing.JLabel;
+import javax.swing.JTree;
+import javax.swing.tree.DefaultTreeCellRenderer;
+
+import net.isammoc.zooviewer.node.ZVNode;
+
+/**
+ * Renderer of the tree rows, labelled by a {@link ZVLabelCache}.
+ * <p>
+ * Rendering reads nothing from the model: a row whose data isn't loaded is
+ * labelled without a preview until {@link JZVTree} or the node view loads it.
+ * </p>
+ */
+public class ZVTreeCellRenderer extends DefaultTreeCellRenderer {
+    /** */
+    private static final long serialVersionUID = 1L;
+
+    private final ZVLabelCache labels;
+
+    /**
+     * Creates a renderer.
+     * 
+     * @param labels
+     *            the labels of the rows, which may be shared by several trees
+     */
+    public ZVTreeCellRenderer(ZVLabelCache labels) {
+        this.labels = labels;
+    }
+
+    @Override
+    public Component getTreeCellRendererComponent(JTree tree, Object value,
+            boolean sel, boolean expanded, boolean leaf, int row,
+            boolean hasFocus) {
+        Component comp = super.getTreeCellRendererComponent(tree, value, sel,
+                expanded, leaf, row, hasFocus);
+        if ((comp instanceof JLabel) && (value instanceof ZVNode)) {
+            ZVNode node = (ZVNode) value;
+            ((JLabel) comp).setText(labels.getLabel(node));
+            ((JLabel) comp).validate();
+        }
+        return comp;
+    }
+}
@@ -14,7 +14,11 @@
  */
 package net.isammoc.zooviewer.tree;
 
-import java.util.StringTokenizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.event.EventListenerList;
 import javax.swing.event.TreeModelEvent;
@@ -24,73 +28,432 @@ import javax.swing.tree.TreePath;
 
 import net.isammoc.zooviewer.model.ZVModel;
 import net.isammoc.zooviewer.model.ZVModelListener;
+import net.isammoc.zooviewer.node.ZVChildList;
 import net.isammoc.zooviewer.node.ZVNode;
 
+/**
+ * Tree model over a {@link ZVModel}.
+ * <p>
+ * With a page size, a parent shows its first children only, followed by a
+ * {@link PageRow} standing for the others. More children are shown page by
+ * page with {@link #showNextPage(PageRow)}, so that expanding a parent with a
+ * huge number of children costs one page only. The underlying model is told
+ * how many children are shown, so that it watches these ones only.
+ * </p>
+ */
 public class ZVTreeModel implements TreeModel {
+    /** System property defining the number of children shown at once. */
+    public static final String PAGE_SIZE_PROPERTY = "zooviewer.tree.pageSize";
+
     /** Listeners. */
     protected EventListenerList listenerList = new EventListenerList();
     private final ZVModel model;
+    private final int pageSize;
+    /** Rows standing for the hidden children, by parent read by the views. */
+    private final Map<ZVNode, PageRow> pages = new HashMap<ZVNode, PageRow>();
+
+    /**
+     * Synthetic last row of a parent, standing for the children which are not
+     * shown yet.
+     */
+    public final class PageRow {
+	private final ZVNode parent;
+	/** Number of children shown before this row. */
+	private int shown;
+
+	private PageRow(ZVNode parent, int shown) {
+	    this.parent = parent;
+	    this.shown = shown;
+	}
+
+	/**
+	 * Returns the parent of the hidden children.
+	 * 
+	 * @return the parent node
+	 */
+	public ZVNode getParent() {
+	    return parent;
+	}
 
+	/**
+	 * Returns the number of children shown before this row.
+	 * 
+	 * @return the number of children
+	 */
+	public int getShown() {
+	    return shown;
+	}
+
+	/**
+	 * Returns the total number of children.
+	 * 
+	 * @return the number of children
+	 */
+	public int getTotal() {
+	    return model.getChildren(parent).size();
+	}
+
+	private boolean isPresent() {
+	    return getTotal() > shown;
+	}
+    }
+
+    /**
+     * Creates a tree model, paged by the size defined by
+     * {@link #PAGE_SIZE_PROPERTY}.
+     * 
+     * @param model
+     *            the underlying model
+     */
     public ZVTreeModel(ZVModel model) {
+	this(model, Integer.getInteger(PAGE_SIZE_PROPERTY, 0));
+    }
+
+    /**
+     * Creates a tree model.
+     * 
+     * @param model
+     *            the underlying model
+     * @param pageSize
+     *            the number of children shown at once, <code>0</code> to show
+     *            all of them
+     */
+    public ZVTreeModel(ZVModel model, int pageSize) {
+	if (pageSize < 0) {
+	    throw new IllegalArgumentException("Page size can't be negative: "
+		    + pageSize);
+	}
 	this.model = model;
+	this.pageSize = pageSize;
 	model.addModelListener(new ZVModelListener() {
 
 	    @Override
-	    public void nodeDeleted(ZVNode oldNode, int oldIndex) {
-		System.out.println("nodeDeleted : " + oldNode);
-		ZVTreeModel.this.fireTreeNodesRemoved(this, ZVTreeModel.this
-			.getTreePath(oldNode).getParentPath(),
-			new int[] { oldIndex }, new Object[] { oldNode });
+	    public void nodesDeleted(ZVNode parent, ZVNode[] oldNodes,
+		    int[] oldIndices) {
+		PageRow page = pages.get(parent);
+		boolean wasPresent = (page != null)
+			&& ((page.getTotal() + oldNodes.length) > page.shown);
+		int[] indices = (page == null) ? oldIndices : ZVTreeModel.this
+			.hideRemoved(page, oldIndices);
+		IndexedChildren removed = new IndexedChildren(indices,
+			oldNodes);
+		ZVTreeModel.this.forget(oldNodes);
+		if (removed.indices.length > 0) {
+		    ZVTreeModel.this.fireTreeNodesRemoved(this,
+			    ZVTreeModel.this.getTreePath(parent),
+			    removed.indices, removed.children);
+		}
+		if (wasPresent && !page.isPresent()) {
+		    ZVTreeModel.this.fireTreeNodesRemoved(this,
+			    ZVTreeModel.this.getTreePath(parent),
+			    new int[] { page.shown }, new Object[] { page });
+		}
 	    }
 
 	    @Override
-	    public void nodeDataChanged(ZVNode node) {
-	        System.out.println("nodeDataChanged : " + node);
-	        // FLE+
-	        System.out.println("nodeDataChanged : " + node);
-	        TreePath parentPath = ZVTreeModel.this.getTreePath(node)
-	        .getParentPath();
-	        int index = ZVTreeModel.this.getIndexOfChild(
-	                parentPath.getLastPathComponent(), node);
-	        ZVTreeModel.this.fireTreeNodesChanged(this,
-	                parentPath.getPath(), new int[] { index },
-	                new Object[] { node });
+	    public void nodesDataChanged(ZVNode parent, ZVNode[] nodes) {
+		if (parent == null) {
+		    // Only the root has no parent
+		    ZVTreeModel.this.fireTreeNodesChanged(this,
+			    new Object[] { nodes[0] }, null, null);
+		    return;
+		}
+		IndexedChildren changed = new IndexedChildren(
+			ZVTreeModel.this.getIndices(parent, nodes), nodes);
+		if (changed.indices.length > 0) {
+		    ZVTreeModel.this.fireTreeNodesChanged(this, ZVTreeModel.this
+			    .getTreePath(parent).getPath(), changed.indices,
+			    changed.children);
+		}
 	    }
 
 	    @Override
-	    public void nodeCreated(ZVNode newNode) {
-		System.out.println("nodeCreated : " + newNode);
-		if (newNode == ZVTreeModel.this.getRoot()) {
+	    public void nodesCreated(ZVNode parent, ZVNode[] newNodes) {
+		if (parent == null) {
+		    // Only the root has no parent
 		    ZVTreeModel.this.fireTreeStructureChanged(this,
-			    new TreePath(newNode));
-		} else {
-		    try {
-			TreePath treePath = ZVTreeModel.this.getTreePath(
-				newNode).getParentPath();
-			ZVTreeModel.this.fireTreeNodesInserted(this, treePath,
-				new int[] { ZVTreeModel.this.getIndexOfChild(
-					treePath.getLastPathComponent(),
-					newNode) }, new Object[] { newNode });
-			// System.out.println("fire done");
-		    } catch (Exception e) {
-			e.printStackTrace();
-		    }
+			    new TreePath(newNodes[0]));
+		    return;
+		}
+		PageRow page = pages.get(parent);
+		boolean wasPresent = (page != null)
+			&& ((page.getTotal() - newNodes.length) > page.shown);
+		int[] indices = ZVTreeModel.this.getModelIndices(parent,
+			newNodes);
+		if (page != null) {
+		    ZVTreeModel.this.showInserted(page, indices);
+		}
+		IndexedChildren inserted = new IndexedChildren(indices,
+			newNodes);
+		if (inserted.indices.length > 0) {
+		    ZVTreeModel.this.fireTreeNodesInserted(this,
+			    ZVTreeModel.this.getTreePath(parent),
+			    inserted.indices, inserted.children);
+		}
+		if ((page != null) && !wasPresent && page.isPresent()) {
+		    ZVTreeModel.this.fireTreeNodesInserted(this,
+			    ZVTreeModel.this.getTreePath(parent),
+			    new int[] { page.shown }, new Object[] { page });
 		}
 	    }
 	});
     }
 
-    public TreePath getTreePath(ZVNode node) {
-	String path = node.getPath();
-	TreePath treePath = new TreePath(this.model.getNode("/"));
-	String currentPath = "";
-	StringTokenizer st = new StringTokenizer(path, "/", false);
-	while (st.hasMoreTokens()) {
-	    currentPath += "/" + st.nextToken();
-	    treePath = treePath.pathByAddingChild(this.model
-		    .getNode(currentPath));
+    /**
+     * Returns the page row of a parent, created the first time the parent is
+     * read by a view.
+     * 
+     * @param parent
+     *            the parent node
+     * @return the page row, or <code>null</code> if children are not paged
+     */
+    private PageRow getPage(ZVNode parent) {
+	if (pageSize == 0) {
+	    return null;
+	}
+	PageRow page = pages.get(parent);
+	if (page == null) {
+	    page = new PageRow(parent, Math.min(pageSize, this.model
+		    .getChildren(parent).size()));
+	    pages.put(parent, page);
+	}
+	return page;
+    }
+
+    /**
+     * Tells the underlying model how many children of a parent are shown.
+     * 
+     * @param page
+     *            the page row of the parent
+     * @see ZVModel#setShown(ZVNode, int)
+     */
+    private void reportShown(PageRow page) {
+	this.model.setShown(page.parent, page.shown);
+    }
+
+    /**
+     * Forgets the pages of removed nodes and of their descendants.
+     */
+    private void forget(ZVNode[] removed) {
+	boolean known = false;
+	for (int i = 0; i < removed.length; i++) {
+	    known |= (pages.remove(removed[i]) != null);
+	}
+	if (known) {
+	    for (Iterator<ZVNode> it = pages.keySet().iterator(); it.hasNext();) {
+		if (!it.next().exists()) {
+		    it.remove();
+		}
+	    }
+	}
+    }
+
+    /**
+     * Shows the inserted children which are contiguous with the shown ones,
+     * until the page is full. The indices of the others are replaced by
+     * <code>-1</code>.
+     * 
+     * @param page
+     *            the page row of the parent
+     * @param indices
+     *            the indices of the inserted children in the parent
+     */
+    private void showInserted(PageRow page, int[] indices) {
+	int[] sorted = indices.clone();
+	Arrays.sort(sorted);
+	int shown = page.shown;
+	// Children inserted after a hidden one are hidden as well
+	for (int i = 0; i < sorted.length; i++) {
+	    if (sorted[i] < 0) {
+		continue;
+	    }
+	    if ((sorted[i] > shown)
+		    || ((sorted[i] == shown) && (shown >= pageSize))) {
+		break;
+	    }
+	    shown++;
+	}
+	if (shown != page.shown) {
+	    page.shown = shown;
+	    this.reportShown(page);
+	}
+	for (int i = 0; i < indices.length; i++) {
+	    if (indices[i] >= shown) {
+		indices[i] = -1;
+	    }
+	}
+    }
+
+    /**
+     * Hides the removed children which were not shown.
+     * 
+     * @param page
+     *            the page row of the parent
+     * @param oldIndices
+     *            the indices of the removed children in the parent
+     * @return the indices of the shown children, <code>-1</code> for the
+     *         others
+     */
+    private int[] hideRemoved(PageRow page, int[] oldIndices) {
+	int[] indices = oldIndices.clone();
+	int removed = 0;
+	for (int i = 0; i < indices.length; i++) {
+	    if (indices[i] < page.shown) {
+		removed++;
+	    } else {
+		indices[i] = -1;
+	    }
+	}
+	if (removed > 0) {
+	    page.shown -= removed;
+	    this.reportShown(page);
+	}
+	return indices;
+    }
+
+    /**
+     * Shows the next page of children.
+     * 
+     * @param page
+     *            the page row
+     */
+    public void showNextPage(PageRow page) {
+	// The last page may be partial
+	this.showUpTo(page, Math.min(page.getTotal(), page.shown + pageSize));
+    }
+
+    /**
+     * Shows the pages of children up to the one with the specified name.
+     * 
+     * @param parent
+     *            the parent node
+     * @param name
+     *            the child name
+     * @return the child, or <code>null</code> if there is no such child
+     */
+    public ZVNode showChild(ZVNode parent, String name) {
+	List<ZVNode> children = this.model.getChildren(parent);
+	int index = -1;
+	if (children instanceof ZVChildList) {
+	    index = ((ZVChildList) children).indexOfName(name);
+	} else {
+	    for (int i = 0; (index < 0) && (i < children.size()); i++) {
+		if (children.get(i).getName().equals(name)) {
+		    index = i;
+		}
+	    }
+	}
+	return this.showChild(parent, index);
+    }
+
+    /**
+     * Shows the pages of children up to the specified one.
+     * 
+     * @param parent
+     *            the parent node
+     * @param index
+     *            the index of the child to show among all the children
+     * @return the child, or <code>null</code> if the index is out of range
+     */
+    public ZVNode showChild(ZVNode parent, int index) {
+	List<ZVNode> children = this.model.getChildren(parent);
+	if ((index < 0) || (index >= children.size())) {
+	    return null;
+	}
+	PageRow page = pages.get(parent);
+	if ((page != null) && (index >= page.shown)) {
+	    this.showUpTo(page, Math.min(children.size(),
+		    (index / pageSize + 1) * pageSize));
+	}
+	return children.get(index);
+    }
+
+    /**
+     * Shows the children of a parent up to the specified count.
+     * 
+     * @param page
+     *            the page row of the parent
+     * @param count
+     *            the number of children shown from now on, not greater than
+     *            the number of children
+     */
+    private void showUpTo(PageRow page, int count) {
+	if (count <= page.shown) {
+	    return;
+	}
+	List<ZVNode> children = this.model.getChildren(page.parent);
+	int old = page.shown;
+	page.shown = count;
+	this.reportShown(page);
+	int[] indices = new int[count - old];
+	Object[] shown = new Object[indices.length];
+	for (int i = 0; i < indices.length; i++) {
+	    indices[i] = old + i;
+	    shown[i] = children.get(old + i);
+	}
+	TreePath path = this.getTreePath(page.parent);
+	this.fireTreeNodesInserted(this, path, indices, shown);
+	if (!page.isPresent()) {
+	    this.fireTreeNodesRemoved(this, path, new int[] { page.shown },
+		    new Object[] { page });
+	}
+    }
+
+    /**
+     * Children of a same parent sorted by ascending index, as expected by
+     * {@link TreeModelEvent}.
+     */
+    private static final class IndexedChildren {
+	private final int[] indices;
+	private final Object[] children;
+
+	/**
+	 * Sorts the specified children, dropping those which are not found
+	 * under their parent (negative index).
+	 * 
+	 * @param indices
+	 *            the indices of the children
+	 * @param nodes
+	 *            the children
+	 */
+	IndexedChildren(int[] indices, ZVNode[] nodes) {
+	    // Sorting (index, position) pairs packed in longs avoids boxing
+	    long[] keys = new long[indices.length];
+	    int count = 0;
+	    for (int i = 0; i < indices.length; i++) {
+		if (indices[i] >= 0) {
+		    keys[count++] = ((long) indices[i] << 32) | i;
+		}
+	    }
+	    Arrays.sort(keys, 0, count);
+	    this.indices = new int[count];
+	    this.children = new Object[count];
+	    for (int i = 0; i < count; i++) {
+		this.indices[i] = (int) (keys[i] >>> 32);
+		this.children[i] = nodes[(int) keys[i]];
+	    }
 	}
-	return treePath;
+    }
+
+    private int[] getIndices(ZVNode parent, ZVNode[] nodes) {
+	int[] indices = new int[nodes.length];
+	for (int i = 0; i < nodes.length; i++) {
+	    indices[i] = this.getIndexOfChild(parent, nodes[i]);
+	}
+	return indices;
+    }
+
+    private int[] getModelIndices(ZVNode parent, ZVNode[] nodes) {
+	List<ZVNode> children = this.model.getChildren(parent);
+	int[] indices = new int[nodes.length];
+	for (int i = 0; i < nodes.length; i++) {
+	    indices[i] = children.indexOf(nodes[i]);
+	}
+	return indices;
+    }
+
+    public TreePath getTreePath(ZVNode node) {
+	return node.getTreePath();
     }
 
     @Override
@@ -99,11 +462,15 @@ public class ZVTreeModel implements TreeModel {
     }
 
     @Override
-    public ZVNode getChild(Object parent, int index) {
+    public Object getChild(Object parent, int index) {
 	if (!(parent instanceof ZVNode)) {
 	    throw new IllegalArgumentException("parent must be a ZVNode");
 	}
 
+	PageRow page = this.getPage((ZVNode) parent);
+	if ((page != null) && (index == page.shown)) {
+	    return page;
+	}
 	return this.model.getChildren((ZVNode) parent).get(index);
     }
 
@@ -113,16 +480,71 @@ public class ZVTreeModel implements TreeModel {
 	    throw new IllegalArgumentException("parent must be a ZVNode");
 	}
 
+	PageRow page = this.getPage((ZVNode) parent);
+	if (page != null) {
+	    return page.isPresent() ? page.shown + 1 : page.shown;
+	}
 	return this.model.getChildren((ZVNode) parent).size();
     }
 
     @Override
     public boolean isLeaf(Object node) {
+	if (node instanceof PageRow) {
+	    return true;
+	}
 	if (!(node instanceof ZVNode)) {
 	    throw new IllegalArgumentException("node must be a ZVNode");
 	}
 
-	return this.model.getChildren((ZVNode) node).size() == 0;
+	if (this.model.getChildren((ZVNode) node).size() > 0) {
+	    return false;
+	}
+	// The stat knows about children which are not loaded yet
+	int numChildren = ((ZVNode) node).getSnapshot().getNumChildren();
+	return numChildren <= 0;
+    }
+
+    /**
+     * Ensures the children of the specified node are loaded in the underlying
+     * model.
+     * 
+     * @param node
+     *            the node about to be expanded
+     * @see ZVModel#loadChildren(ZVNode)
+     */
+    public void loadChildren(ZVNode node) {
+	this.model.loadChildren(node);
+    }
+
+    /**
+     * Ensures the data of the specified node is loaded in the underlying
+     * model.
+     * 
+     * @param node
+     *            the node about to be displayed
+     * @see ZVModel#loadData(ZVNode)
+     */
+    public void loadData(ZVNode node) {
+	this.model.loadData(node);
+    }
+
+    /**
+     * Notifies the underlying model that a node is expanded or collapsed,
+     * with the number of children shown if they are paged.
+     * 
+     * @param node
+     *            the node
+     * @param expanded
+     *            <code>true</code> if the node is expanded
+     * @see ZVModel#setExpanded(ZVNode, boolean)
+     */
+    public void setExpanded(ZVNode node, boolean expanded) {
+	PageRow page = expanded ? this.getPage(node) : null;
+	if (page != null) {
+	    // Before the expansion, so that the hidden children aren't watched
+	    this.reportShown(page);
+	}
+	this.model.setExpanded(node, expanded);
     }
 
     @Override
@@ -135,10 +557,15 @@ public class ZVTreeModel implements TreeModel {
 	if (!(parent instanceof ZVNode)) {
 	    throw new IllegalArgumentException("parent must be a ZVNode");
 	}
+	PageRow page = this.pages.get(parent);
+	if (child instanceof PageRow) {
+	    return (child == page) && page.isPresent() ? page.shown : -1;
+	}
 	if (!(child instanceof ZVNode)) {
 	    throw new IllegalArgumentException("child must be a ZVNode");
 	}
-	return this.model.getChildren((ZVNode) parent).indexOf(child);
+	int index = this.model.getChildren((ZVNode) parent).indexOf(child);
+	return (page != null) && (index >= page.shown) ? -1 : index;
     }
 
     /**
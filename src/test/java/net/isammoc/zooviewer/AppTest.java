@@ -0,0 +1,75 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AppTest {
+    private EmbeddedServer server;
+    private ZooKeeper zk;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedServer();
+        zk = server.connect();
+        file = File.createTempFile("zooviewer", ".export");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        if (zk != null) {
+            zk.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void subtreeIsCopiedFromTheCommandLine() throws Exception {
+        zk.create("/src", "a".getBytes("UTF-8"), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        zk.create("/src/child", "b".getBytes("UTF-8"),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        String connectString = server.getConnectString();
+
+        assertEquals(0, App.transfer(new String[] { "--export",
+                connectString, "/src", file.getPath() }));
+        assertEquals(0, App.transfer(new String[] { "--import",
+                connectString, file.getPath(), "/copy" }));
+
+        assertEquals("b", new String(zk.getData("/copy/child", false, null),
+                "UTF-8"));
+    }
+
+    @Test
+    public void missingArgumentsShowTheUsage() {
+        assertEquals(2, App.transfer(new String[] { "--export",
+                server.getConnectString(), "/src" }));
+        assertEquals(2, App.transfer(new String[] { "--import",
+                server.getConnectString() }));
+    }
+}
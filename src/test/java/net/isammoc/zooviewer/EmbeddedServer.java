@@ -0,0 +1,166 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+/**
+ * Standalone ZooKeeper server for the tests, on a free port of the loopback
+ * interface, with its data in a temporary directory.
+ */
+public final class EmbeddedServer {
+    private static final int TICK_TIME = 2000;
+    /** Maximum time waited for a condition, in milliseconds. */
+    private static final long TIMEOUT = 30000;
+
+    static {
+        // TTL nodes are disabled by default
+        System.setProperty("zookeeper.extendedTypesEnabled", "true");
+        System.setProperty("zookeeper.forceSync", "no");
+    }
+
+    private final File dir;
+    private ServerCnxnFactory factory = null;
+
+    /**
+     * Starts a server in a new data directory.
+     * 
+     * @throws IOException
+     *             if the server couldn't be started
+     */
+    public EmbeddedServer() throws IOException, InterruptedException {
+        this.dir = File.createTempFile("zooviewer-test", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Can't create " + dir);
+        }
+        start();
+    }
+
+    /**
+     * Starts this server again on its data directory, after
+     * {@link #stop()}. The port changes.
+     * 
+     * @throws IOException
+     *             if the server couldn't be started
+     */
+    public void start() throws IOException, InterruptedException {
+        ZooKeeperServer server = new ZooKeeperServer(dir, dir, TICK_TIME);
+        factory = ServerCnxnFactory.createFactory(new InetSocketAddress(
+                "127.0.0.1", 0), 0);
+        factory.startup(server);
+    }
+
+    /**
+     * Returns the connection string of this server.
+     * 
+     * @return the connection string
+     */
+    public String getConnectString() {
+        return "127.0.0.1:" + factory.getLocalPort();
+    }
+
+    /**
+     * Returns the data directory of this server, holding the snapshots and
+     * the transaction logs in its <code>version-2</code> subdirectory.
+     * 
+     * @return the directory
+     */
+    public File getDataDir() {
+        return dir;
+    }
+
+    /**
+     * Opens a session and waits until it is connected.
+     * 
+     * @return the session
+     * @throws IOException
+     *             if the session couldn't be opened
+     */
+    public ZooKeeper connect() throws IOException, InterruptedException {
+        final CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper zk = new ZooKeeper(getConnectString(), 30000, new Watcher() {
+            @Override
+            public void process(WatchedEvent event) {
+                if (event.getState() == Event.KeeperState.SyncConnected) {
+                    connected.countDown();
+                }
+            }
+        });
+        if (!connected.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+            zk.close();
+            throw new IOException("Not connected to " + getConnectString());
+        }
+        return zk;
+    }
+
+    /**
+     * Stops this server, keeping its data.
+     */
+    public void stop() {
+        if (factory != null) {
+            // Shuts down the server as well
+            factory.shutdown();
+            factory = null;
+        }
+    }
+
+    /**
+     * Stops this server and deletes its data.
+     */
+    public void shutdown() {
+        stop();
+        delete(dir);
+    }
+
+    /**
+     * Waits until a condition holds.
+     * 
+     * @param condition
+     *            the condition, checked every few milliseconds
+     * @throws AssertionError
+     *             if the condition still doesn't hold after 30 seconds
+     */
+    public static void waitFor(Callable<Boolean> condition) throws Exception {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("Condition not met in " + TIMEOUT
+                        + " ms");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
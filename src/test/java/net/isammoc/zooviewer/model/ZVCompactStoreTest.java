@@ -0,0 +1,161 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.isammoc.zooviewer.node.ZVNode;
+import net.isammoc.zooviewer.node.ZVNodeSnapshot;
+
+import org.apache.zookeeper.data.Stat;
+import org.junit.Test;
+
+public class ZVCompactStoreTest {
+    private final ZVCompactStore store = new ZVCompactStore();
+    private final List<String> events = new ArrayList<String>();
+    private final PropertyChangeListener recorder = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            events.add(evt.getPropertyName());
+        }
+    };
+
+    private static Stat stat(long mzxid, int dataLength) {
+        Stat stat = new Stat();
+        stat.setMzxid(mzxid);
+        stat.setDataLength(dataLength);
+        return stat;
+    }
+
+    private static List<String> names(List<ZVNode> nodes) {
+        List<String> names = new ArrayList<String>();
+        for (ZVNode node : nodes) {
+            names.add(node.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void nodesAreFoundByPathUntilRemoved() {
+        int a = store.add(ZVCompactStore.ROOT, "a", null, null);
+        int b = store.add(a, "b", null, null);
+        int c = store.add(a, "c", null, null);
+
+        assertEquals(4, store.size());
+        assertEquals(ZVCompactStore.ROOT, store.find("/"));
+        assertEquals(b, store.find("/a/b"));
+        assertEquals(a, store.getParent(c));
+        assertEquals("/a/c", store.getNode(c).getPath());
+        assertEquals(ZVCompactStore.NO_NODE, store.find("/a/d"));
+        assertNull(store.getNode("/x"));
+
+        store.remove(a);
+        assertEquals(1, store.size());
+        assertEquals(ZVCompactStore.NO_NODE, store.find("/a"));
+        assertEquals(ZVCompactStore.NO_NODE, store.find("/a/b"));
+        assertEquals(0, store.getChildCount(ZVCompactStore.ROOT));
+        // The root is never removed
+        store.remove(ZVCompactStore.ROOT);
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void childrenAreSortedByName() {
+        for (String name : new String[] { "c", "a", "d", "b" }) {
+            store.add(ZVCompactStore.ROOT, name, null, null);
+        }
+        store.remove(store.find("/c"));
+
+        ZVNode root = store.getNode(ZVCompactStore.ROOT);
+        List<ZVNode> children = store.getChildren(root);
+        assertEquals(Arrays.asList("a", "b", "d"), names(children));
+        assertEquals(store.find("/b"), store.getChild(ZVCompactStore.ROOT, 1));
+        assertEquals(2, children.indexOf(store.getNode("/d")));
+        assertEquals(-1, children.indexOf(store.getNode("/d/e")));
+    }
+
+    @Test
+    public void addingAnExistingNameUpdatesTheNode() {
+        int id = store.add(ZVCompactStore.ROOT, "a", new byte[] { 1 },
+                stat(1, 1));
+        store.getNode(id).addPropertyChangeListener(recorder);
+
+        assertEquals(id, store.add(ZVCompactStore.ROOT, "a", new byte[] { 2 },
+                stat(2, 1)));
+        assertEquals(2, store.size());
+        assertArrayEquals(new byte[] { 2 }, store.getNode(id).getData());
+        assertEquals(2, store.getNode(id).getStat().getMzxid());
+        assertEquals(Arrays.asList(ZVNode.PROPERTY_DATA, ZVNode.PROPERTY_STAT),
+                events);
+    }
+
+    @Test
+    public void droppedDataIsUnknownWithoutANotification() {
+        int id = store.add(ZVCompactStore.ROOT, "a", new byte[] { 1, 2 },
+                stat(5, 2));
+        ZVNode node = store.getNode(id);
+        node.addPropertyChangeListener(recorder);
+        assertEquals(5, node.getSnapshot().getVersion());
+
+        store.setData(id, new byte[] { 3 });
+        // The same data again is not a change
+        store.setData(id, new byte[] { 3 });
+        assertEquals(Arrays.asList(ZVNode.PROPERTY_DATA), events);
+
+        store.dropData(id);
+        assertNull(node.getData());
+        assertEquals(ZVNodeSnapshot.UNKNOWN_VERSION, node.getSnapshot()
+                .getVersion());
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void staleFlyweightsReportTheirNodeAsDeleted() {
+        int id = store.add(ZVCompactStore.ROOT, "a", null, null);
+        ZVNode stale = store.getNode("/a");
+        stale.addPropertyChangeListener(ZVNode.PROPERTY_EXISTS, recorder);
+        assertTrue(stale.equals(store.getNode(id)));
+
+        store.remove(id);
+        assertFalse(stale.exists());
+        assertEquals("/a", stale.getPath());
+        assertEquals(Arrays.asList(ZVNode.PROPERTY_EXISTS), events);
+        try {
+            store.setData(id, new byte[] { 1 });
+            fail("Removed node updated");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // The id is not reused by a node created again at the same path
+        int again = store.add(ZVCompactStore.ROOT, "a", null, null);
+        assertTrue(again != id);
+        assertFalse(stale.equals(store.getNode(again)));
+        assertFalse(stale.exists());
+        assertEquals(ZVCompactStore.NO_NODE, store.idOf(new ZVCompactStore()
+                .getNode(ZVCompactStore.ROOT)));
+    }
+}
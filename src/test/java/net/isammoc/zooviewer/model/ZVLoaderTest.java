@@ -0,0 +1,208 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.isammoc.zooviewer.EmbeddedServer;
+
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZVLoaderTest {
+    private static final int WINDOW = 4;
+
+    private EmbeddedServer server;
+    private CountingZooKeeper zk;
+    private final RecordingSink sink = new RecordingSink();
+
+    /**
+     * Session counting the requests issued through it.
+     */
+    private static final class CountingZooKeeper extends ZooKeeper {
+        private final AtomicInteger issued = new AtomicInteger();
+
+        CountingZooKeeper(String connectString) throws IOException {
+            super(connectString, 30000, new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                }
+            });
+        }
+
+        @Override
+        public void getData(String path, Watcher watcher, DataCallback cb,
+                Object ctx) {
+            issued.incrementAndGet();
+            super.getData(path, watcher, cb, ctx);
+        }
+
+        @Override
+        public void exists(String path, Watcher watcher, StatCallback cb,
+                Object ctx) {
+            issued.incrementAndGet();
+            super.exists(path, watcher, cb, ctx);
+        }
+    }
+
+    /**
+     * Sink recording the results, and the most requests seen in flight.
+     */
+    private final class RecordingSink implements ZVLoader.Sink {
+        private final Map<String, byte[]> data = new ConcurrentHashMap<String, byte[]>();
+        private final Map<String, Stat> stats = new ConcurrentHashMap<String, Stat>();
+        private final List<String> missing = new ArrayList<String>();
+        private final Map<String, Code> failures = new ConcurrentHashMap<String, Code>();
+        private final AtomicInteger received = new AtomicInteger();
+        private volatile int maxInFlight = 0;
+        private volatile int idle = 0;
+
+        private void received() {
+            // The next request is issued once the sink returns
+            maxInFlight = Math.max(maxInFlight, zk.issued.get()
+                    - received.getAndIncrement());
+        }
+
+        @Override
+        public void childrenLoaded(ZVLoader loader, String path,
+                List<String> childrenNames, Stat stat) {
+            received();
+        }
+
+        @Override
+        public void dataLoaded(ZVLoader loader, String path, byte[] data,
+                Stat stat) {
+            received();
+            this.data.put(path, data);
+        }
+
+        @Override
+        public void statLoaded(ZVLoader loader, String path, Stat stat) {
+            received();
+            if (stat == null) {
+                synchronized (missing) {
+                    missing.add(path);
+                }
+            } else {
+                stats.put(path, stat);
+            }
+        }
+
+        @Override
+        public void requestFailed(ZVLoader loader, String path, Code code) {
+            received();
+            failures.put(path, code);
+        }
+
+        @Override
+        public void loaderIdle(ZVLoader loader) {
+            idle++;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedServer();
+        zk = new CountingZooKeeper(server.getConnectString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (zk != null) {
+            zk.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    private ZVLoader newLoader() {
+        return new ZVLoader(zk, null, sink, WINDOW, new ZVMetrics(null));
+    }
+
+    @Test
+    public void windowBoundsTheRequestsInFlight() throws Exception {
+        zk.create("/l", null, ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT);
+        for (int i = 0; i < 50; i++) {
+            zk.create("/l/n" + i, Integer.toString(i).getBytes("UTF-8"),
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        }
+        ZVLoader loader = newLoader();
+
+        for (int i = 0; i < 50; i++) {
+            loader.loadData("/l/n" + i);
+        }
+        assertTrue(loader.getQueueDepth() <= 50);
+        loader.awaitIdle();
+
+        assertEquals(50, sink.data.size());
+        assertEquals("49", new String(sink.data.get("/l/n49"), "UTF-8"));
+        assertEquals(50, zk.issued.get());
+        assertTrue("max in flight " + sink.maxInFlight,
+                sink.maxInFlight <= WINDOW);
+        assertEquals(0, loader.getQueueDepth());
+        assertTrue(loader.isIdle());
+    }
+
+    @Test
+    public void missingNodeHasANullStat() throws Exception {
+        ZVLoader loader = newLoader();
+
+        loader.loadStat("/missing");
+        loader.loadStat("/zookeeper");
+        loader.awaitIdle();
+
+        assertEquals(1, sink.missing.size());
+        assertEquals("/missing", sink.missing.get(0));
+        assertTrue(sink.stats.containsKey("/zookeeper"));
+        assertTrue(sink.failures.isEmpty());
+    }
+
+    @Test
+    public void statErrorIsReportedAsAFailure() throws Exception {
+        ZVLoader loader = newLoader();
+        zk.close();
+
+        loader.loadStat("/zookeeper");
+        loader.awaitIdle();
+
+        Code code = sink.failures.get("/zookeeper");
+        assertTrue(String.valueOf(code), (code == Code.CONNECTIONLOSS)
+                || (code == Code.SESSIONEXPIRED));
+        assertNull(sink.stats.get("/zookeeper"));
+        assertTrue(loader.isIdle());
+        assertEquals(1, sink.idle);
+    }
+}
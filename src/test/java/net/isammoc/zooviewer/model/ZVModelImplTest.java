@@ -0,0 +1,465 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.isammoc.zooviewer.EmbeddedServer;
+import net.isammoc.zooviewer.node.ZVNode;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZVModelImplTest {
+    private EmbeddedServer server;
+    private ZooKeeper zk;
+    private ZVModelImpl model;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedServer();
+        zk = server.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (model != null) {
+            model.close();
+        }
+        if (zk != null) {
+            zk.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    private ZVModelImpl open(ZVModelConfig config) throws Exception {
+        model = new ZVModelImpl(server.getConnectString(), config);
+        awaitNode("/zookeeper");
+        return model;
+    }
+
+    private void create(String path, String data) throws Exception {
+        zk.create(path, data == null ? null : data.getBytes("UTF-8"),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    private void awaitNode(final String path) throws Exception {
+        EmbeddedServer.waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                ZVNode node = model.getNode(path);
+                return (node != null) && node.exists();
+            }
+        });
+    }
+
+    private void awaitDeleted(final String path) throws Exception {
+        EmbeddedServer.waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                ZVNode node = model.getNode(path);
+                return (node == null) || !node.exists();
+            }
+        });
+    }
+
+    private void awaitData(final String path, final String data)
+            throws Exception {
+        EmbeddedServer.waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                ZVNode node = model.getNode(path);
+                return (node != null) && node.exists()
+                        && data.equals(new String(node.getData(), "UTF-8"));
+            }
+        });
+    }
+
+    @Test
+    public void recursiveWatchFollowsTheSubtree() throws Exception {
+        create("/app", "a");
+        ZVModelConfig config = new ZVModelConfig();
+        config.setRecursiveWatch("/app");
+        open(config);
+        awaitNode("/app");
+        assertTrue(model.getMetrics().getOperations().containsKey("addWatch"));
+
+        create("/app/child", "1");
+        awaitData("/app/child", "1");
+        create("/app/child/grandchild", "2");
+        awaitData("/app/child/grandchild", "2");
+        zk.setData("/app/child", "3".getBytes("UTF-8"), -1);
+        awaitData("/app/child", "3");
+        zk.delete("/app/child/grandchild", -1);
+        awaitDeleted("/app/child/grandchild");
+        assertEquals(0, model.getChildren(model.getNode("/app/child")).size());
+    }
+
+    private long getOperationCount(String operation) {
+        ZVLatencySummary summary = model.getMetrics().getOperations()
+                .get(operation);
+        return (summary == null) ? 0 : summary.getCount();
+    }
+
+    private void awaitOperation(final String operation) throws Exception {
+        EmbeddedServer.waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return getOperationCount(operation) > 0;
+            }
+        });
+    }
+
+    private void awaitSettled() throws Exception {
+        EmbeddedServer.waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return model.getMetrics().getPendingRequests() == 0;
+            }
+        });
+    }
+
+    @Test
+    public void changesUnderTheRecursiveWatchAreMerged() throws Exception {
+        create("/app", "a");
+        ZVModelConfig config = new ZVModelConfig();
+        config.setRecursiveWatch("/app");
+        config.setCoalesceWindow(1000);
+        open(config);
+        awaitNode("/app");
+        awaitSettled();
+        long reads = getOperationCount("getData");
+
+        for (int i = 0; i < 5; i++) {
+            zk.setData("/app", Integer.toString(i).getBytes("UTF-8"), -1);
+        }
+        awaitData("/app", "4");
+        awaitSettled();
+
+        assertEquals(reads + 1, getOperationCount("getData"));
+        assertTrue(model.getCoalescer().getMerged() > 0);
+    }
+
+    @Test
+    public void lazyWarmStartListsTheChangedChildrenOnly() throws Exception {
+        create("/w", null);
+        create("/w/changed", null);
+        create("/w/unchanged", null);
+        create("/w/unchanged/child", null);
+        File cache = File.createTempFile("zooviewer", ".cache");
+        cache.delete();
+        try {
+            ZVModelConfig config = new ZVModelConfig();
+            config.setLazy(true);
+            config.setCacheFile(cache);
+            open(config);
+            awaitNode("/w");
+            model.loadChildren(model.getNode("/w"));
+            awaitNode("/w/unchanged");
+            model.loadChildren(model.getNode("/w/changed"));
+            model.loadChildren(model.getNode("/w/unchanged"));
+            awaitNode("/w/unchanged/child");
+            awaitSettled();
+            model.close();
+            assertTrue(cache.isFile());
+
+            create("/w/changed/new", null);
+            zk.setData("/w/unchanged", "x".getBytes("UTF-8"), -1);
+            open(config);
+            awaitNode("/w/changed/new");
+            awaitData("/w/unchanged", "x");
+            awaitSettled();
+            // The root, always watched, and the changed parent
+            assertEquals(2, getOperationCount("getChildren"));
+            // The data is not cached, so it is read without checking the stat
+            assertEquals(0, getOperationCount("exists"));
+
+            // Expanding a cached parent sets its children watch
+            model.loadChildren(model.getNode("/w/unchanged"));
+            awaitSettled();
+            create("/w/unchanged/other", null);
+            awaitNode("/w/unchanged/other");
+        } finally {
+            cache.delete();
+        }
+    }
+
+    @Test
+    public void warmStartWatchesTheChildrenOfCachedLeaves() throws Exception {
+        create("/w", null);
+        create("/w/leaf", null);
+        File cache = File.createTempFile("zooviewer", ".cache");
+        cache.delete();
+        try {
+            ZVModelConfig config = new ZVModelConfig();
+            config.setCacheFile(cache);
+            open(config);
+            awaitNode("/w/leaf");
+            awaitSettled();
+            model.close();
+
+            open(config);
+            awaitSettled();
+            // Neither expanded nor changed, but watched all the same
+            create("/w/leaf/child", null);
+            awaitNode("/w/leaf/child");
+            assertEquals(1, model.getNode("/w/leaf").getStat().getNumChildren());
+        } finally {
+            cache.delete();
+        }
+    }
+
+    @Test
+    public void listedChildrenAreDiffedAgainstTheKnownOnes()
+            throws Exception {
+        create("/c", null);
+        create("/c/a", null);
+        create("/c/b", null);
+        open(new ZVModelConfig());
+        awaitNode("/c/b");
+        ZVNode c = model.getNode("/c");
+        ZVNode b = model.getNode("/c/b");
+
+        zk.delete("/c/a", -1);
+        create("/c/c", "3");
+        create("/c/d", "4");
+        awaitData("/c/d", "4");
+        awaitDeleted("/c/a");
+
+        List<ZVNode> children = model.getChildren(c);
+        assertEquals(3, children.size());
+        assertEquals("b", children.get(0).getName());
+        assertEquals("c", children.get(1).getName());
+        assertEquals("d", children.get(2).getName());
+        // The children still listed are kept as they are
+        assertSame(b, children.get(0));
+        assertNull(model.getNode("/c/a"));
+    }
+
+    @Test
+    public void deletedSubtreeIsDiscarded() throws Exception {
+        create("/d", null);
+        create("/d/a", null);
+        create("/d/a/b", null);
+        open(new ZVModelConfig());
+        awaitNode("/d/a/b");
+        ZVNode a = model.getNode("/d/a");
+        ZVNode b = model.getNode("/d/a/b");
+
+        zk.delete("/d/a/b", -1);
+        zk.delete("/d/a", -1);
+        awaitDeleted("/d/a");
+
+        assertFalse(a.exists());
+        assertFalse(b.exists());
+        assertEquals(0, model.getChildren(a).size());
+        assertNull(model.getNode("/d/a/b"));
+        // The root, /zookeeper with its 2 children, and /d
+        assertEquals(5, model.getMetrics().getNodeCount());
+        long bytes = model.getMetrics().getCachedPayloadBytes();
+
+        // A node created again at the same path is a new one
+        create("/d/a", "again");
+        awaitData("/d/a", "again");
+        assertNotSame(a, model.getNode("/d/a"));
+        assertFalse(a.exists());
+        assertEquals(6, model.getMetrics().getNodeCount());
+        assertEquals(bytes + 5, model.getMetrics().getCachedPayloadBytes());
+    }
+
+    @Test
+    public void failedSessionRegistersNoMBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName models = new ObjectName("net.isammoc.zooviewer:type=Model,*");
+        int registered = server.queryNames(models, null).size();
+        try {
+            new ZVModelImpl("localhost:port", new ZVModelConfig());
+            fail("Invalid connect string accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(registered, server.queryNames(models, null).size());
+    }
+
+    @Test
+    public void bulkDeleteRemovesTheSubtrees() throws Exception {
+        create("/x", null);
+        for (int i = 0; i < 3; i++) {
+            create("/x/n" + i, null);
+            for (int j = 0; j < 3; j++) {
+                create("/x/n" + i + "/m" + j, null);
+            }
+        }
+        create("/y", null);
+        open(new ZVModelConfig());
+        awaitNode("/x/n2/m2");
+
+        ZVBulkDelete deletion = model.deleteSubtrees(new ZVNode[] {
+                model.getNode("/x/n0"), model.getNode("/x/n1"),
+                model.getNode("/y") }, null);
+
+        assertEquals(9, deletion.await());
+        assertTrue(deletion.isDone());
+        assertNull(zk.exists("/x/n1", false));
+        assertNull(zk.exists("/y", false));
+        assertTrue(zk.exists("/x/n2/m0", false) != null);
+        awaitDeleted("/x/n0/m0");
+        assertEquals(1, model.getChildren(model.getNode("/x")).size());
+    }
+
+    @Test(expected = KeeperException.NoAuthException.class)
+    public void bulkDeleteReportsTheFirstFailure() throws Exception {
+        List<ACL> acl = Collections.singletonList(new ACL(ZooDefs.Perms.ALL
+                & ~ZooDefs.Perms.DELETE, ZooDefs.Ids.ANYONE_ID_UNSAFE));
+        zk.create("/locked", null, acl, CreateMode.PERSISTENT);
+        create("/locked/child", null);
+        open(new ZVModelConfig());
+        awaitNode("/locked/child");
+
+        ZVBulkDelete deletion = model.deleteSubtrees(
+                new ZVNode[] { model.getNode("/locked") }, null);
+
+        deletion.await();
+    }
+
+    @Test
+    public void exportedSubtreeIsImportedElsewhere() throws Exception {
+        create("/src", "root");
+        create("/src/a", "1");
+        create("/src/a/b", "2");
+        create("/src/c", null);
+        open(new ZVModelConfig());
+        File file = File.createTempFile("zooviewer", ".export");
+        try {
+            assertEquals(4, model.exportSubtree("/src", file, true, null));
+            assertEquals(4, model.importSubtree(file, "/dst", null));
+            // Existing nodes are left unchanged
+            assertEquals(0, model.importSubtree(file, null, null));
+        } finally {
+            file.delete();
+        }
+
+        assertEquals("root", new String(zk.getData("/dst", false, null),
+                "UTF-8"));
+        assertEquals("2", new String(zk.getData("/dst/a/b", false, null),
+                "UTF-8"));
+        assertNull(zk.getData("/dst/c", false, null));
+        awaitData("/dst/a/b", "2");
+    }
+
+    @Test
+    public void treeIsNotCachedBeforeTheParallelWalkIsOver()
+            throws Exception {
+        create("/p", null);
+        create("/p/child", null);
+        File cache = File.createTempFile("zooviewer", ".cache");
+        cache.delete();
+        try {
+            ZVModelConfig config = new ZVModelConfig();
+            config.setCacheFile(cache);
+            config.setLoaderSessions(2);
+            model = new ZVModelImpl(server.getConnectString(), config);
+            // Closed before the helper sessions may even have started
+            model.close();
+            model = null;
+            assertFalse(cache.exists());
+
+            open(config);
+            awaitNode("/p/child");
+        } finally {
+            cache.delete();
+        }
+    }
+
+    private void awaitWatchCount(final int count) throws Exception {
+        EmbeddedServer.waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return model.getWatchCount() == count;
+            }
+        });
+    }
+
+    @Test
+    public void collapsingRemovesTheWatches() throws Exception {
+        create("/big", null);
+        for (int i = 0; i < 3; i++) {
+            create("/big/n" + i, null);
+        }
+        ZVModelConfig config = new ZVModelConfig();
+        config.setWatchScoped(true);
+        open(config);
+        awaitNode("/big/n2");
+        int collapsed = model.getWatchCount();
+
+        ZVNode big = model.getNode("/big");
+        model.setExpanded(big, true);
+        // A children watch on /big, and a data watch on each child
+        awaitWatchCount(collapsed + 4);
+
+        model.setExpanded(big, false);
+        awaitWatchCount(collapsed);
+        awaitOperation("removeWatches");
+    }
+
+    @Test
+    public void releasedWatchesAreOfferedToTheDeniedNodes() throws Exception {
+        create("/a", null);
+        create("/a/n0", null);
+        create("/b", null);
+        create("/b/n0", null);
+        ZVModelConfig config = new ZVModelConfig();
+        config.setWatchScoped(true);
+        open(config);
+        awaitNode("/b/n0");
+        int collapsed = model.getWatchCount();
+        model.close();
+        config.setWatchMax(collapsed + 2);
+        open(config);
+        awaitNode("/b/n0");
+        awaitWatchCount(collapsed);
+
+        model.setExpanded(model.getNode("/a"), true);
+        awaitWatchCount(collapsed + 2);
+        // Over the budget
+        model.setExpanded(model.getNode("/b"), true);
+        model.setExpanded(model.getNode("/a"), false);
+        awaitWatchCount(collapsed + 2);
+        awaitOperation("removeWatches");
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import net.isammoc.zooviewer.EmbeddedServer;
+import net.isammoc.zooviewer.node.ZVNode;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZVOfflineModelTest {
+    private EmbeddedServer server;
+    private ZooKeeper zk;
+    private ZVOfflineModel model;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmbeddedServer();
+        zk = server.connect();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (model != null) {
+            model.close();
+        }
+        if (zk != null) {
+            zk.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    private void create(String path, String data, CreateMode mode)
+            throws Exception {
+        zk.create(path, data.getBytes("UTF-8"), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                mode);
+    }
+
+    /**
+     * Stops the server, so that its files are complete, and loads them.
+     */
+    private void load() throws Exception {
+        zk.close();
+        zk = null;
+        server.stop();
+        model = new ZVOfflineModel(server.getDataDir(), new ZVModelConfig());
+    }
+
+    /**
+     * Restarts the server, which takes a snapshot of the tree loaded.
+     */
+    private void restart() throws Exception {
+        zk.close();
+        server.stop();
+        server.start();
+        zk = server.connect();
+    }
+
+    private ZVNode node(String path) {
+        ZVNode node = model.getNode(path);
+        assertNotNull(path, node);
+        assertTrue(path, node.exists());
+        return node;
+    }
+
+    private void assertMissing(String path) {
+        ZVNode node = model.getNode(path);
+        assertTrue(path, (node == null) || !node.exists());
+    }
+
+    private void assertData(String path, final String data) throws Exception {
+        final ZVNode node = node(path);
+        model.loadData(node);
+        EmbeddedServer.waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return (node.getData() != null)
+                        && data.equals(new String(node.getData(), "UTF-8"));
+            }
+        });
+    }
+
+    @Test
+    public void snapshotIsLoaded() throws Exception {
+        create("/snap", "s", CreateMode.PERSISTENT);
+        create("/snap/a", "a", CreateMode.PERSISTENT);
+        restart();
+
+        load();
+
+        assertEquals(1, model.getChildren(node("/snap")).size());
+        assertEquals(1, node("/snap").getStat().getNumChildren());
+        assertData("/snap/a", "a");
+    }
+
+    @Test
+    public void logIsReplayedOverTheSnapshot() throws Exception {
+        create("/snap", "s", CreateMode.PERSISTENT);
+        create("/snap/a", "a", CreateMode.PERSISTENT);
+        restart();
+        // create, setData, delete
+        create("/log", "l", CreateMode.PERSISTENT);
+        zk.setData("/snap/a", "a2".getBytes("UTF-8"), -1);
+        create("/snap/b", "b", CreateMode.PERSISTENT);
+        zk.delete("/snap/b", -1);
+        // create2
+        zk.create("/log/create2", "c".getBytes("UTF-8"),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT, new Stat());
+
+        load();
+
+        assertData("/log", "l");
+        assertData("/snap/a", "a2");
+        assertEquals(2, node("/snap/a").getStat().getDataLength());
+        assertMissing("/snap/b");
+        assertEquals(1, model.getChildren(node("/snap")).size());
+        assertData("/log/create2", "c");
+    }
+
+    @Test
+    public void multiIsReplayed() throws Exception {
+        create("/m", "m", CreateMode.PERSISTENT);
+        create("/m/old", "o", CreateMode.PERSISTENT);
+        zk.multi(Arrays.asList(Op.create("/m/new", "n".getBytes("UTF-8"),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT), Op
+                .check("/m", 0), Op.setData("/m", "m2".getBytes("UTF-8"), -1),
+                Op.delete("/m/old", -1)));
+        try {
+            // Fails as a whole, logged as errors
+            zk.multi(Arrays.asList(Op.create("/m/failed", new byte[0],
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT), Op
+                    .delete("/m/missing", -1)));
+            fail("The multi should fail");
+        } catch (KeeperException.NoNodeException e) {
+            // Expected
+        }
+
+        load();
+
+        assertData("/m/new", "n");
+        assertData("/m", "m2");
+        assertMissing("/m/old");
+        assertMissing("/m/failed");
+        assertEquals(1, model.getChildren(node("/m")).size());
+    }
+
+    @Test
+    public void containersAndTtlNodesAreReplayed() throws Exception {
+        create("/c", "c", CreateMode.CONTAINER);
+        create("/c/child", "x", CreateMode.PERSISTENT);
+        zk.create("/ttl", "t".getBytes("UTF-8"), ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                CreateMode.PERSISTENT_WITH_TTL, new Stat(), 60000);
+        restart();
+        create("/c2", "c2", CreateMode.CONTAINER);
+        zk.create("/ttl2", "t2".getBytes("UTF-8"),
+                ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_WITH_TTL,
+                new Stat(), 60000);
+
+        load();
+
+        // From the snapshot
+        assertData("/c", "c");
+        assertEquals(0, node("/c").getStat().getEphemeralOwner());
+        assertData("/c/child", "x");
+        assertData("/ttl", "t");
+        assertEquals(0, node("/ttl").getStat().getEphemeralOwner());
+        // From the log
+        assertData("/c2", "c2");
+        assertEquals(0, node("/c2").getStat().getEphemeralOwner());
+        assertData("/ttl2", "t2");
+        assertEquals(0, node("/ttl2").getStat().getEphemeralOwner());
+    }
+
+    @Test
+    public void ephemeralNodesGoWithTheirSession() throws Exception {
+        create("/e", "e", CreateMode.EPHEMERAL);
+        ZooKeeper other = server.connect();
+        try {
+            other.create("/kept", new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
+                    CreateMode.EPHEMERAL);
+            zk.close();
+            zk = server.connect();
+
+            // The server stopped without closing the other session
+            load();
+        } finally {
+            other.close();
+        }
+
+        assertMissing("/e");
+        node("/kept");
+        assertFalse(model.getChildren(model.getNode("/")).isEmpty());
+    }
+}
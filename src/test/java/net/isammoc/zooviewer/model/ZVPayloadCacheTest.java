@@ -0,0 +1,112 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+import net.isammoc.zooviewer.node.ZVNodeSnapshot;
+
+import org.apache.zookeeper.data.Stat;
+import org.junit.Test;
+
+public class ZVPayloadCacheTest {
+    private final ZVNodeImpl root = new ZVNodeImpl("/", new byte[0]);
+    private final ZVPayloadCache cache = new ZVPayloadCache(100);
+
+    /**
+     * Returns a node holding data of the specified size, added to the cache.
+     */
+    private ZVNodeImpl cached(String name, int size) {
+        ZVNodeImpl node = new ZVNodeImpl(root, name);
+        Stat stat = new Stat();
+        stat.setMzxid(1);
+        stat.setDataLength(size);
+        node.update(new byte[size], stat);
+        cache.put(node, size);
+        return node;
+    }
+
+    private static boolean hasData(ZVNodeImpl node) {
+        return node.getSnapshot().getVersion() != ZVNodeSnapshot.UNKNOWN_VERSION;
+    }
+
+    @Test
+    public void leastRecentlyUsedNodesAreEvictedBeyondTheBudget() {
+        ZVNodeImpl a = cached("a", 40);
+        ZVNodeImpl b = cached("b", 40);
+        cache.hit(a);
+        ZVNodeImpl c = cached("c", 40);
+
+        // b was the least recently used
+        assertEquals(2, cache.getSize());
+        assertEquals(80, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getHits());
+        assertNull(b.getSnapshot().getData());
+        assertEquals(ZVNodeSnapshot.UNKNOWN_VERSION, b.getSnapshot()
+                .getVersion());
+        assertNotNull(a.getSnapshot().getData());
+        assertTrue(hasData(c));
+    }
+
+    @Test
+    public void nodeLargerThanTheBudgetIsKeptUntilTheNextAddition() {
+        ZVNodeImpl a = cached("a", 30);
+        ZVNodeImpl large = cached("large", 150);
+
+        assertEquals(1, cache.getSize());
+        assertEquals(150, cache.getBytes());
+        assertFalse(hasData(a));
+        assertTrue(hasData(large));
+
+        ZVNodeImpl b = cached("b", 10);
+        assertEquals(1, cache.getSize());
+        assertEquals(10, cache.getBytes());
+        assertFalse(hasData(large));
+        assertTrue(hasData(b));
+    }
+
+    @Test
+    public void removedNodesAreNoLongerAccountedFor() {
+        ZVNodeImpl a = cached("a", 60);
+        ZVNodeImpl b = cached("b", 30);
+
+        // Invalidated, the model drops the stale data itself
+        cache.remove(a);
+        assertEquals(1, cache.getSize());
+        assertEquals(30, cache.getBytes());
+        assertTrue(hasData(a));
+
+        // Its data changed meanwhile, read again with a new size
+        cache.put(b, 50);
+        ZVNodeImpl c = cached("c", 50);
+        assertEquals(100, cache.getBytes());
+        assertEquals(0, cache.getEvictions());
+        assertTrue(hasData(b));
+        assertTrue(hasData(c));
+
+        cache.miss();
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getBytes());
+        assertEquals(1, cache.getMisses());
+        assertTrue(hasData(c));
+    }
+}
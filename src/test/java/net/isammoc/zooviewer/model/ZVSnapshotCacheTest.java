@@ -0,0 +1,133 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+import net.isammoc.zooviewer.node.ZVNodeSnapshot;
+
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZVSnapshotCacheTest {
+    private static final String ENSEMBLE = "localhost:2181";
+
+    private File file;
+    private ZVNodeImpl root;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("zooviewer", ".cache");
+        file.delete();
+        root = new ZVNodeImpl("/", null);
+        root.update(new byte[0], stat(1, 0, 2));
+        ZVNodeImpl a = add(root, "a", "data of a", 3);
+        add(a, "c", "", 4);
+        add(root, "b", null, 5);
+        root.setChildrenVersion(10);
+        a.setChildrenVersion(11);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static Stat stat(long mzxid, int dataLength, int numChildren) {
+        return new Stat(mzxid, mzxid, 1000L, 2000L, 1, 2, 3, 0L, dataLength,
+                numChildren, mzxid + 100);
+    }
+
+    private static ZVNodeImpl add(ZVNodeImpl parent, String name,
+            String data, long mzxid) throws Exception {
+        ZVNodeImpl node = new ZVNodeImpl(parent, name);
+        if (data == null) {
+            node.setStat(stat(mzxid, 7, 0));
+        } else {
+            node.update(data.getBytes("UTF-8"),
+                    stat(mzxid, data.length(), 0));
+        }
+        node.setExists(true);
+        parent.setChildren(parent.getChildren().with(
+                Collections.singletonList(node)));
+        return node;
+    }
+
+    @Test
+    public void treeIsLoadedAsSaved() throws Exception {
+        new ZVSnapshotCache(file, ENSEMBLE).save(root, true);
+        Map<String, ZVNodeImpl> nodes = new HashMap<String, ZVNodeImpl>();
+
+        ZVNodeImpl loaded = new ZVSnapshotCache(file, ENSEMBLE).load(nodes);
+
+        assertEquals(4, nodes.size());
+        assertEquals(nodes.get("/"), loaded);
+        assertEquals(2, loaded.getChildren().size());
+        assertEquals("a", loaded.getChildren().get(0).getName());
+        assertEquals("b", loaded.getChildren().get(1).getName());
+        ZVNodeImpl a = nodes.get("/a");
+        assertTrue(a.exists());
+        assertEquals(loaded, a.getParent());
+        assertEquals(11, a.getChildrenVersion());
+        assertEquals(10, loaded.getChildrenVersion());
+        assertArrayEquals("data of a".getBytes("UTF-8"), a.getData());
+        assertEquals(3, a.getStat().getMzxid());
+        assertEquals(103, a.getStat().getPzxid());
+        assertEquals(a, nodes.get("/a/c").getParent());
+        assertEquals(0, nodes.get("/a/c").getData().length);
+        // Data never read is not cached
+        assertEquals(ZVNodeSnapshot.UNKNOWN_VERSION, nodes.get("/b")
+                .getSnapshot().getVersion());
+        assertEquals(5, nodes.get("/b").getStat().getMzxid());
+    }
+
+    @Test
+    public void dataIsLeftOutOnDemand() throws Exception {
+        new ZVSnapshotCache(file, ENSEMBLE).save(root, false);
+        Map<String, ZVNodeImpl> nodes = new HashMap<String, ZVNodeImpl>();
+
+        new ZVSnapshotCache(file, ENSEMBLE).load(nodes);
+
+        assertEquals(ZVNodeSnapshot.UNKNOWN_VERSION, nodes.get("/a")
+                .getSnapshot().getVersion());
+        assertEquals(9, nodes.get("/a").getStat().getDataLength());
+    }
+
+    @Test
+    public void cacheOfAnotherEnsembleIsIgnored() throws Exception {
+        new ZVSnapshotCache(file, ENSEMBLE).save(root, true);
+        Map<String, ZVNodeImpl> nodes = new HashMap<String, ZVNodeImpl>();
+
+        assertNull(new ZVSnapshotCache(file, "otherhost:2181").load(nodes));
+        assertTrue(nodes.isEmpty());
+    }
+
+    @Test
+    public void missingCacheIsIgnored() throws Exception {
+        assertNull(new ZVSnapshotCache(file, ENSEMBLE)
+                .load(new HashMap<String, ZVNodeImpl>()));
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.swing.SwingUtilities;
+
+import net.isammoc.zooviewer.EmbeddedServer;
+import net.isammoc.zooviewer.node.ZVNode;
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZVSwingModelTest {
+    private MemoryModel model;
+    private ZVSwingModel swingModel;
+    /** Events notified by the Swing model, in order. */
+    private final List<String> events = Collections
+            .synchronizedList(new ArrayList<String>());
+
+    /**
+     * Model over nodes built in memory, firing the changes made by the test.
+     */
+    private static final class MemoryModel implements ZVModel {
+        private final Map<String, ZVNodeImpl> nodes = new HashMap<String, ZVNodeImpl>();
+        private final List<ZVModelListener> listeners = new ArrayList<ZVModelListener>();
+
+        MemoryModel() {
+            nodes.put("/", new ZVNodeImpl("/", new byte[0]));
+        }
+
+        void add(String path) {
+            ZVNodeImpl parent = nodes.get(getParentPath(path));
+            ZVNodeImpl node = new ZVNodeImpl(parent,
+                    path.substring(path.lastIndexOf('/') + 1));
+            node.setExists(true);
+            nodes.put(path, node);
+            parent.setChildren(parent.getChildren().with(
+                    Collections.singletonList(node)));
+            for (ZVModelListener listener : listeners) {
+                listener.nodesCreated(parent, new ZVNode[] { node });
+            }
+        }
+
+        void remove(String path) {
+            ZVNodeImpl node = nodes.remove(path);
+            ZVNodeImpl parent = node.getParent();
+            int index = parent.getChildren().indexOf(node);
+            parent.setChildren(parent.getChildren().without(
+                    new int[] { index }, 1));
+            node.setExists(false);
+            for (ZVModelListener listener : listeners) {
+                listener.nodesDeleted(parent, new ZVNode[] { node },
+                        new int[] { index });
+            }
+        }
+
+        void changeData(String path) {
+            ZVNodeImpl node = nodes.get(path);
+            for (ZVModelListener listener : listeners) {
+                listener.nodesDataChanged(node.getParent(),
+                        new ZVNode[] { node });
+            }
+        }
+
+        private static String getParentPath(String path) {
+            int index = path.lastIndexOf('/');
+            return index == 0 ? "/" : path.substring(0, index);
+        }
+
+        @Override
+        public void addModelListener(ZVModelListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeModelListener(ZVModelListener listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public void addNode(String path, byte[] data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateData(String path, byte[] data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteNode(ZVNode node) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteNodes(ZVNode[] nodes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ZVBulkDelete deleteSubtrees(ZVNode[] roots,
+                ZVProgressListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ZVNode getNode(String path) {
+            return nodes.get(path);
+        }
+
+        @Override
+        public ZVNode getParent(ZVNode node) {
+            return node.getParent();
+        }
+
+        @Override
+        public List<ZVNode> getChildren(ZVNode parent) {
+            return ((ZVNodeImpl) parent).getChildren();
+        }
+
+        @Override
+        public void loadChildren(ZVNode node) {
+            // Every node is loaded
+        }
+
+        @Override
+        public void loadData(ZVNode node) {
+            // Every node is loaded
+        }
+
+        @Override
+        public void setExpanded(ZVNode node, boolean expanded) {
+            // No watch
+        }
+
+        @Override
+        public void setSelected(ZVNode node, boolean selected) {
+            // No watch
+        }
+
+        @Override
+        public void setShown(ZVNode node, int count) {
+            // No watch
+        }
+
+        @Override
+        public String getFullPath(String parentPath, String childName) {
+            return ("/".equals(parentPath) ? "/" : (parentPath + "/"))
+                    + childName;
+        }
+
+        @Override
+        public void close() {
+            nodes.clear();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        model = new MemoryModel();
+        model.add("/p");
+        model.add("/p/a");
+        model.add("/p/b");
+        model.add("/p/c");
+        model.add("/p/a/x");
+        swingModel = new ZVSwingModel(model);
+        swingModel.addModelListener(new ZVModelListener() {
+            @Override
+            public void nodesCreated(ZVNode parent, ZVNode[] newNodes) {
+                events.add("created " + parent.getPath() + " "
+                        + paths(newNodes));
+            }
+
+            @Override
+            public void nodesDeleted(ZVNode parent, ZVNode[] oldNodes,
+                    int[] oldIndices) {
+                events.add("deleted " + parent.getPath() + " "
+                        + paths(oldNodes) + " " + Arrays.toString(oldIndices));
+            }
+
+            @Override
+            public void nodesDataChanged(ZVNode parent, ZVNode[] nodes) {
+                events.add("changed " + parent.getPath() + " " + paths(nodes));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        swingModel.close();
+    }
+
+    private static String paths(ZVNode[] nodes) {
+        List<String> paths = new ArrayList<String>();
+        for (ZVNode node : nodes) {
+            paths.add(node.getPath());
+        }
+        return paths.toString();
+    }
+
+    /**
+     * Reads the children of a parent as a view would, on the event dispatch
+     * thread.
+     */
+    private List<String> read(final String path) throws Exception {
+        final List<String> children = new ArrayList<String>();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                for (ZVNode child : swingModel.getChildren(model
+                        .getNode(path))) {
+                    children.add(child.getPath());
+                }
+            }
+        });
+        return children;
+    }
+
+    /**
+     * Applies changes on the event dispatch thread, so that they are all
+     * queued before the next drain, and returns the events of that drain.
+     */
+    private List<String> drain(Runnable changes) throws Exception {
+        events.clear();
+        SwingUtilities.invokeAndWait(changes);
+        EmbeddedServer.waitFor(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return !events.isEmpty();
+            }
+        });
+        // A drain notifies all its events at once
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        return new ArrayList<String>(events);
+    }
+
+    @Test
+    public void changesOfAParentAreMergedRemovalsFirst() throws Exception {
+        read("/p");
+
+        List<String> drained = drain(new Runnable() {
+            @Override
+            public void run() {
+                model.add("/p/d");
+                model.remove("/p/b");
+                model.add("/p/e");
+                model.changeData("/p/a");
+                model.changeData("/p/a");
+            }
+        });
+
+        assertEquals(Arrays.asList("deleted /p [/p/b] [1]",
+                "created /p [/p/d, /p/e]", "changed /p [/p/a]"), drained);
+        assertEquals(Arrays.asList("/p/a", "/p/c", "/p/d", "/p/e"), read("/p"));
+    }
+
+    @Test
+    public void removedSubtreesAreUnpublished() throws Exception {
+        read("/p");
+        read("/p/a");
+
+        assertEquals(Arrays.asList("deleted /p [/p/a] [0]"), drain(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        model.remove("/p/a");
+                    }
+                }));
+        // Created again, with other children never read by the views
+        assertEquals(Arrays.asList("created /p [/p/a]"), drain(new Runnable() {
+            @Override
+            public void run() {
+                model.add("/p/a");
+                model.add("/p/a/y");
+            }
+        }));
+        assertEquals(Arrays.asList("/p/a/y"), read("/p/a"));
+    }
+
+    @Test
+    public void unreadParentsAreSkipped() throws Exception {
+        read("/p");
+
+        List<String> drained = drain(new Runnable() {
+            @Override
+            public void run() {
+                model.add("/p/a/z");
+                model.remove("/p/c");
+            }
+        });
+
+        assertEquals(Arrays.asList("deleted /p [/p/c] [2]"), drained);
+        assertEquals(Arrays.asList("/p/a/x", "/p/a/z"), read("/p/a"));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZVWatchScopeTest {
+    private final Map<String, ZVNodeImpl> nodes = new HashMap<String, ZVNodeImpl>();
+    private ZVNodeImpl root;
+    private ZVNodeImpl parent;
+
+    @Before
+    public void setUp() {
+        root = new ZVNodeImpl("/", new byte[0]);
+        nodes.put("/", root);
+        parent = addChild(root, "parent");
+    }
+
+    private ZVNodeImpl addChild(ZVNodeImpl node, String name) {
+        ZVNodeImpl child = new ZVNodeImpl(node, name);
+        child.setExists(true);
+        nodes.put(child.getPath(), child);
+        node.setChildren(node.getChildren().with(
+                Collections.singletonList(child)));
+        return child;
+    }
+
+    private List<ZVNodeImpl> addChildren(ZVNodeImpl node, int count) {
+        List<ZVNodeImpl> children = new ArrayList<ZVNodeImpl>();
+        for (int i = 0; i < count; i++) {
+            children.add(addChild(node, String.format("n%03d", i)));
+        }
+        return children;
+    }
+
+    @Test
+    public void onlyTheShownPageIsWatched() {
+        List<ZVNodeImpl> children = addChildren(parent, 10);
+        ZVWatchScope scope = new ZVWatchScope(nodes, 0);
+        scope.setShown(parent, 4);
+        scope.setExpanded(parent, true);
+
+        assertTrue(scope.claim(children.get(3).getPath(), false));
+        assertFalse(scope.claim(children.get(4).getPath(), false));
+        // Children not loaded yet wait for the view to show them
+        assertFalse(scope.claim("/parent/n999", false));
+    }
+
+    @Test
+    public void showingTheNextPageDisplaysItsChildren() {
+        List<ZVNodeImpl> children = addChildren(parent, 10);
+        ZVWatchScope scope = new ZVWatchScope(nodes, 0);
+        scope.setShown(parent, 4);
+        scope.setExpanded(parent, true);
+
+        List<ZVNodeImpl> shown = scope.setShown(parent, 8);
+
+        assertEquals(children.subList(4, 8), shown);
+        assertTrue(scope.claim(children.get(7).getPath(), false));
+    }
+
+    @Test
+    public void shrinkingThePageReleasesTheHiddenChildren() {
+        List<ZVNodeImpl> children = addChildren(parent, 10);
+        ZVWatchScope scope = new ZVWatchScope(nodes, 0);
+        scope.setShown(parent, 8);
+        scope.setExpanded(parent, true);
+        scope.claim(children.get(6).getPath(), false);
+
+        scope.setShown(parent, 4);
+        List<String> dataPaths = new ArrayList<String>();
+        scope.release(dataPaths, new ArrayList<String>());
+
+        assertEquals(1, dataPaths.size());
+        assertEquals(children.get(6).getPath(), dataPaths.get(0));
+        assertEquals(0, scope.getCount());
+    }
+
+    @Test
+    public void collapsingReleasesTheSubtree() {
+        List<ZVNodeImpl> children = addChildren(parent, 3);
+        ZVWatchScope scope = new ZVWatchScope(nodes, 0);
+        scope.setExpanded(parent, true);
+        scope.claim(parent.getPath(), true);
+        for (ZVNodeImpl child : children) {
+            scope.claim(child.getPath(), false);
+        }
+
+        scope.setExpanded(parent, false);
+        List<String> dataPaths = new ArrayList<String>();
+        List<String> childPaths = new ArrayList<String>();
+        scope.release(dataPaths, childPaths);
+
+        assertEquals(3, dataPaths.size());
+        assertEquals(1, childPaths.size());
+        assertEquals(0, scope.getCount());
+    }
+
+    @Test
+    public void releasedWatchesAreOfferedToTheDeniedNodes() {
+        ZVNodeImpl other = addChild(root, "other");
+        List<ZVNodeImpl> children = addChildren(parent, 2);
+        List<ZVNodeImpl> others = addChildren(other, 2);
+        ZVWatchScope scope = new ZVWatchScope(nodes, 2);
+        scope.setExpanded(parent, true);
+        scope.setExpanded(other, true);
+        assertTrue(scope.claim(children.get(0).getPath(), false));
+        assertTrue(scope.claim(children.get(1).getPath(), false));
+        assertFalse(scope.claim(others.get(0).getPath(), false));
+        assertTrue(scope.offer().isEmpty());
+
+        scope.setExpanded(parent, false);
+        scope.release(new ArrayList<String>(), new ArrayList<String>());
+        List<ZVNodeImpl> offered = scope.offer();
+
+        assertEquals(1, offered.size());
+        assertEquals(others.get(0), offered.get(0));
+        assertTrue(scope.claim(others.get(0).getPath(), false));
+    }
+
+    @Test
+    public void nodeCreatedAgainIsNotExpandedAnymore() {
+        ZVNodeImpl child = addChildren(parent, 1).get(0);
+        ZVWatchScope scope = new ZVWatchScope(nodes, 0);
+        scope.setExpanded(parent, true);
+        scope.setExpanded(child, true);
+        assertTrue(scope.claim(child.getPath(), true));
+
+        scope.forget(child);
+        ZVNodeImpl again = new ZVNodeImpl(parent, child.getName());
+        again.setExists(true);
+        nodes.put(again.getPath(), again);
+        scope.fired(child.getPath(), false, true);
+
+        assertFalse(scope.claim(again.getPath(), true));
+        assertTrue(scope.claim(again.getPath(), false));
+    }
+
+    @Test
+    public void deniedNodesOutOfScopeAreForgotten() {
+        List<ZVNodeImpl> children = addChildren(parent, 2);
+        ZVWatchScope scope = new ZVWatchScope(nodes, 1);
+        scope.setExpanded(parent, true);
+        scope.claim(children.get(0).getPath(), false);
+        assertFalse(scope.claim(children.get(1).getPath(), false));
+
+        scope.setExpanded(parent, false);
+        scope.release(new ArrayList<String>(), new ArrayList<String>());
+
+        assertTrue(scope.offer().isEmpty());
+    }
+}
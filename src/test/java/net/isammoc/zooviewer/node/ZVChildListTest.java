@@ -0,0 +1,108 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZVChildListTest {
+    private ZVNodeImpl parent;
+
+    @Before
+    public void setUp() {
+        parent = new ZVNodeImpl("/", new byte[0]);
+    }
+
+    private List<ZVNode> children(String... names) {
+        List<ZVNode> children = new ArrayList<ZVNode>();
+        for (String name : names) {
+            children.add(new ZVNodeImpl(parent, name));
+        }
+        return children;
+    }
+
+    private static List<String> names(List<ZVNode> nodes) {
+        List<String> names = new ArrayList<String>();
+        for (ZVNode node : nodes) {
+            names.add(node.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void addedChildrenAreMergedByName() {
+        ZVChildList list = ZVChildList.EMPTY.with(children("d", "b"));
+
+        ZVChildList merged = list.with(children("e", "a", "c"));
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), names(merged));
+        // The lists are immutable
+        assertEquals(Arrays.asList("b", "d"), names(list));
+        assertEquals(0, ZVChildList.EMPTY.size());
+    }
+
+    @Test
+    public void noChangeKeepsTheList() {
+        ZVChildList list = ZVChildList.EMPTY.with(children("a"));
+
+        assertSame(list, list.with(Collections.<ZVNode> emptyList()));
+        assertSame(list, list.without(new int[] { 0 }, 0));
+    }
+
+    @Test
+    public void childrenAreFoundByName() {
+        ZVChildList list = ZVChildList.EMPTY.with(children("a", "b", "c",
+                "d"));
+
+        assertEquals(2, list.indexOfName("c"));
+        assertTrue(list.indexOfName("bb") < 0);
+        assertEquals(3, list.indexOf(list.get(3)));
+        assertEquals(3, list.lastIndexOf(list.get(3)));
+        // Nodes are equal by path
+        assertEquals(1, list.indexOf(new ZVNodeImpl(parent, "b")));
+        ZVNodeImpl other = new ZVNodeImpl(new ZVNodeImpl(parent, "x"), "b");
+        assertEquals(-1, list.indexOf(other));
+        assertEquals(-1, list.indexOf("b"));
+        assertTrue(list.contains(list.get(0)));
+    }
+
+    @Test
+    public void childrenAreRemovedByIndex() {
+        ZVChildList list = ZVChildList.EMPTY.with(children("a", "b", "c",
+                "d", "e"));
+
+        // Only the first indices of the array are used
+        ZVChildList kept = list.without(new int[] { 0, 2, 3, -1 }, 3);
+
+        assertEquals(Arrays.asList("b", "e"), names(kept));
+        assertEquals(5, list.size());
+    }
+
+    @Test
+    public void removingEveryChildGivesTheEmptyList() {
+        ZVChildList list = ZVChildList.EMPTY.with(children("a", "b"));
+
+        assertSame(ZVChildList.EMPTY, list.without(new int[] { 0, 1 }, 2));
+    }
+}
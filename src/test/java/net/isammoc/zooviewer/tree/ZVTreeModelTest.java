@@ -0,0 +1,336 @@
+/*
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.isammoc.zooviewer.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+
+import net.isammoc.zooviewer.model.ZVBulkDelete;
+import net.isammoc.zooviewer.model.ZVModel;
+import net.isammoc.zooviewer.model.ZVModelListener;
+import net.isammoc.zooviewer.model.ZVProgressListener;
+import net.isammoc.zooviewer.node.ZVNode;
+import net.isammoc.zooviewer.node.ZVNodeImpl;
+import net.isammoc.zooviewer.tree.ZVTreeModel.PageRow;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZVTreeModelTest {
+    private static final int PAGE_SIZE = 100;
+
+    private MemoryModel model;
+    private ZVNodeImpl parent;
+    private ZVTreeModel treeModel;
+    private final List<TreeModelEvent> inserted = new ArrayList<TreeModelEvent>();
+    private final List<TreeModelEvent> removed = new ArrayList<TreeModelEvent>();
+
+    /**
+     * Model over nodes built in memory, firing the changes made by the test.
+     */
+    private static final class MemoryModel implements ZVModel {
+        private final Map<String, ZVNodeImpl> nodes = new HashMap<String, ZVNodeImpl>();
+        private final List<ZVModelListener> listeners = new ArrayList<ZVModelListener>();
+        /** Last number of children reported as shown, by parent path. */
+        private final Map<String, Integer> shown = new HashMap<String, Integer>();
+
+        MemoryModel() {
+            nodes.put("/", new ZVNodeImpl("/", new byte[0]));
+        }
+
+        ZVNodeImpl add(String path) {
+            ZVNodeImpl parent = nodes.get(getParentPath(path));
+            ZVNodeImpl node = new ZVNodeImpl(parent,
+                    path.substring(path.lastIndexOf('/') + 1));
+            node.setExists(true);
+            nodes.put(path, node);
+            parent.setChildren(parent.getChildren().with(
+                    Collections.singletonList(node)));
+            for (ZVModelListener listener : listeners) {
+                listener.nodesCreated(parent, new ZVNode[] { node });
+            }
+            return node;
+        }
+
+        void remove(String path) {
+            ZVNodeImpl node = nodes.remove(path);
+            ZVNodeImpl parent = node.getParent();
+            int index = parent.getChildren().indexOf(node);
+            parent.setChildren(parent.getChildren().without(
+                    new int[] { index }, 1));
+            node.setExists(false);
+            for (ZVModelListener listener : listeners) {
+                listener.nodesDeleted(parent, new ZVNode[] { node },
+                        new int[] { index });
+            }
+        }
+
+        private static String getParentPath(String path) {
+            int index = path.lastIndexOf('/');
+            return index == 0 ? "/" : path.substring(0, index);
+        }
+
+        @Override
+        public void addModelListener(ZVModelListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeModelListener(ZVModelListener listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public void addNode(String path, byte[] data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateData(String path, byte[] data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteNode(ZVNode node) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteNodes(ZVNode[] nodes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ZVBulkDelete deleteSubtrees(ZVNode[] roots,
+                ZVProgressListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ZVNode getNode(String path) {
+            return nodes.get(path);
+        }
+
+        @Override
+        public ZVNode getParent(ZVNode node) {
+            return node.getParent();
+        }
+
+        @Override
+        public List<ZVNode> getChildren(ZVNode parent) {
+            return ((ZVNodeImpl) parent).getChildren();
+        }
+
+        @Override
+        public void loadChildren(ZVNode node) {
+            // Every node is loaded
+        }
+
+        @Override
+        public void loadData(ZVNode node) {
+            // Every node is loaded
+        }
+
+        @Override
+        public void setExpanded(ZVNode node, boolean expanded) {
+            // No watch
+        }
+
+        @Override
+        public void setSelected(ZVNode node, boolean selected) {
+            // No watch
+        }
+
+        @Override
+        public void setShown(ZVNode node, int count) {
+            shown.put(node.getPath(), count);
+        }
+
+        @Override
+        public String getFullPath(String parentPath, String childName) {
+            return ("/".equals(parentPath) ? "/" : (parentPath + "/"))
+                    + childName;
+        }
+
+        @Override
+        public void close() {
+            nodes.clear();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        model = new MemoryModel();
+        parent = model.add("/parent");
+        treeModel = new ZVTreeModel(model, PAGE_SIZE);
+        treeModel.addTreeModelListener(new TreeModelListener() {
+            @Override
+            public void treeNodesChanged(TreeModelEvent e) {
+            }
+
+            @Override
+            public void treeNodesInserted(TreeModelEvent e) {
+                inserted.add(e);
+            }
+
+            @Override
+            public void treeNodesRemoved(TreeModelEvent e) {
+                removed.add(e);
+            }
+
+            @Override
+            public void treeStructureChanged(TreeModelEvent e) {
+            }
+        });
+    }
+
+    private void addChildren(int count) {
+        for (int i = 0; i < count; i++) {
+            model.add(String.format("/parent/n%03d", i));
+        }
+    }
+
+    private PageRow expand() {
+        treeModel.setExpanded(parent, true);
+        inserted.clear();
+        removed.clear();
+        return (PageRow) treeModel.getChild(parent, treeModel
+                .getChildCount(parent) - 1);
+    }
+
+    @Test
+    public void firstPageIsFollowedByThePageRow() {
+        addChildren(150);
+        PageRow page = expand();
+
+        assertEquals(PAGE_SIZE + 1, treeModel.getChildCount(parent));
+        assertEquals(PAGE_SIZE, page.getShown());
+        assertEquals(150, page.getTotal());
+        assertEquals(Integer.valueOf(PAGE_SIZE), model.shown.get("/parent"));
+    }
+
+    @Test
+    public void partialLastPageIsShown() {
+        addChildren(150);
+        PageRow page = expand();
+
+        treeModel.showNextPage(page);
+
+        assertEquals(150, treeModel.getChildCount(parent));
+        assertEquals(1, inserted.size());
+        assertEquals(50, inserted.get(0).getChildIndices().length);
+        assertEquals(PAGE_SIZE, inserted.get(0).getChildIndices()[0]);
+        // The page row goes away with the last page
+        assertEquals(1, removed.size());
+        assertSame(page, removed.get(0).getChildren()[0]);
+        assertEquals(Integer.valueOf(150), model.shown.get("/parent"));
+    }
+
+    @Test
+    public void middlePageKeepsThePageRow() {
+        addChildren(250);
+        PageRow page = expand();
+
+        treeModel.showNextPage(page);
+
+        assertEquals(2 * PAGE_SIZE + 1, treeModel.getChildCount(parent));
+        assertSame(page, treeModel.getChild(parent, 2 * PAGE_SIZE));
+        assertEquals(PAGE_SIZE, inserted.get(0).getChildIndices().length);
+        assertTrue(removed.isEmpty());
+
+        treeModel.showNextPage(page);
+        assertEquals(250, treeModel.getChildCount(parent));
+    }
+
+    @Test
+    public void nextPageAfterAnInsertionShowsOnePage() {
+        addChildren(250);
+        PageRow page = expand();
+        model.add("/parent/a");
+        assertEquals(PAGE_SIZE + 1, page.getShown());
+
+        treeModel.showNextPage(page);
+
+        assertEquals(2 * PAGE_SIZE + 1, page.getShown());
+    }
+
+    @Test
+    public void insertionBeforeTheShownChildrenIsShown() {
+        addChildren(150);
+        PageRow page = expand();
+
+        ZVNode first = model.add("/parent/a");
+
+        assertEquals(PAGE_SIZE + 1, page.getShown());
+        assertEquals(PAGE_SIZE + 2, treeModel.getChildCount(parent));
+        assertEquals(0, treeModel.getIndexOfChild(parent, first));
+        assertEquals(0, inserted.get(0).getChildIndices()[0]);
+        assertEquals(Integer.valueOf(PAGE_SIZE + 1), model.shown
+                .get("/parent"));
+    }
+
+    @Test
+    public void insertionAfterTheShownChildrenIsHidden() {
+        addChildren(150);
+        PageRow page = expand();
+
+        ZVNode last = model.add("/parent/z");
+
+        assertEquals(PAGE_SIZE, page.getShown());
+        assertEquals(151, page.getTotal());
+        assertEquals(-1, treeModel.getIndexOfChild(parent, last));
+        assertTrue(inserted.isEmpty());
+    }
+
+    @Test
+    public void removalAroundTheShownChildren() {
+        addChildren(150);
+        PageRow page = expand();
+
+        model.remove("/parent/n120");
+        assertEquals(PAGE_SIZE, page.getShown());
+        assertTrue(removed.isEmpty());
+
+        model.remove("/parent/n000");
+        assertEquals(PAGE_SIZE - 1, page.getShown());
+        assertEquals(1, removed.size());
+        assertEquals(0, removed.get(0).getChildIndices()[0]);
+        assertEquals(Integer.valueOf(PAGE_SIZE - 1), model.shown
+                .get("/parent"));
+    }
+
+    @Test
+    public void showChildLoadsThePagesUpToIt() {
+        addChildren(250);
+        expand();
+
+        ZVNode child = treeModel.showChild(parent, "n210");
+
+        assertEquals("n210", child.getName());
+        assertEquals(250, treeModel.getChildCount(parent));
+        assertNull(treeModel.showChild(parent, "missing"));
+    }
+}